@@ -0,0 +1,47 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew;
+
+import com.github.EdwardAndrew.QLearning.table.QTable;
+
+import java.io.File;
+
+/***
+ * A QLearningRobot that runs without the Robocode engine.
+ * The getters the benchmarked code uses return fixed values instead
+ * of asking the engine, and data files come from a chosen directory.
+ */
+public class StubRobot extends QLearningRobot {
+
+    private final File dataDirectory;
+
+    /***
+     * Constructor.
+     * @param dataDirectory Where getDataFile() looks for files.
+     */
+    public StubRobot(File dataDirectory)
+    {
+        this.dataDirectory = dataDirectory;
+    }
+
+    @Override public File getDataFile(String filename) { return new File(dataDirectory, filename); }
+    @Override public double getX() { return 412; }
+    @Override public double getY() { return 287; }
+    @Override public double getBattleFieldWidth() { return 800; }
+    @Override public double getBattleFieldHeight() { return 600; }
+    @Override public double getHeading() { return 135; }
+    @Override public double getGunHeading() { return 90; }
+
+    public QTable getQTable() { return qTable; }
+
+    public int maximumActionForState(int stateIndex) { return getMaximumActionForState(stateIndex); }
+
+    public float maximumQValueForState(int stateIndex) { return getMaximumQValueForState(stateIndex); }
+
+    public int stateIndex() { return getStateIndex(); }
+
+    public void normalise() { normaliseQValues(); }
+
+    public void loadQValues() { load(); }
+}
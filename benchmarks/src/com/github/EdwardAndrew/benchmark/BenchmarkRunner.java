@@ -0,0 +1,38 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/***
+ * Runs every benchmark with the GC profiler, so each result reports
+ * both time per operation and allocation rate.
+ *
+ * Usage: BenchmarkRunner [regex of benchmarks to run] [results.csv]
+ * Saving the results to a file gives a baseline to compare later runs with.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException
+    {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(5);
+
+        if (args.length > 1)
+        {
+            options.result(args[1]).resultFormat(ResultFormatType.CSV);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.StubRobot;
+import com.github.EdwardAndrew.QLearning.table.BulkOps;
+import com.github.EdwardAndrew.QLearning.table.GreedyPolicy;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The whole-table loops in BulkOps, on the bundled table's size and on
+ * one with 100 times the states. Run with -jvmArgs -XX:-UseSuperWord to
+ * see what the JIT's SIMD instructions are worth.
+ *
+ * The values are laid out as a QTable's are, 9 action rows padded to 16.
+ * The larger table repeats the SpinBot rows with a little noise added, so
+ * the best actions and largest value are spread as in a real table.
+ *
+ * QTableMerge's weighted rule is measured on four inputs, the table and
+ * three copies with a different quarter of the values unlearnt. It goes
+ * value by value, which is faster than adding an input at a time with
+ * addScaled, even a block at a time so the sums stay in the cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BulkOpsBenchmark {
+
+    @Param({"1", "100"})
+    public int statesMultiple;
+
+    private QTable qTable;
+    private float[] values;
+    private byte[] actions;
+    private float[] sums;
+    private float[][] inputs;
+    private float[] inputWeights = {3, 1, 2.5f, 0.7f};
+    private float[] weightSums;
+    private int rowStride;
+    private int actionCount;
+    // Flips sign each call, so scaling doesn't drift towards overflow.
+    private float factor = -1;
+
+    @Setup public void setUp() throws IOException
+    {
+        File dataDirectory = Files.createTempDirectory("qlearning").toFile();
+        QTable bundled = new StubRobot(dataDirectory).getQTable();
+        QTableFile.load(Datasets.get("SpinBot"), bundled);
+        dataDirectory.delete();
+
+        int[] bundledDimensions = bundled.getStateDimensions();
+        int[] stateDimensions = new int[bundledDimensions.length + 1];
+        System.arraycopy(bundledDimensions, 0, stateDimensions, 0, bundledDimensions.length);
+        stateDimensions[bundledDimensions.length] = statesMultiple;
+        qTable = new QTable(stateDimensions, bundled.getActionCount());
+
+        Random random = new Random(1);
+        for (int stateIndex = 0; stateIndex < qTable.getStateCount(); stateIndex++)
+        {
+            for (int action = 0; action < qTable.getActionCount(); action++)
+            {
+                float value = bundled.get(stateIndex % bundled.getStateCount(), action);
+                qTable.set(stateIndex, action, statesMultiple == 1 ? value : value + random.nextFloat() * 0.01f);
+            }
+        }
+
+        rowStride = qTable.getRowStride();
+        actionCount = qTable.getActionCount();
+        values = new float[qTable.getStateCount() * rowStride];
+        for (int stateIndex = 0; stateIndex < qTable.getStateCount(); stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                values[stateIndex * rowStride + action] = qTable.get(stateIndex, action);
+            }
+        }
+        actions = new byte[qTable.getStateCount()];
+
+        sums = new float[values.length];
+        weightSums = new float[values.length];
+        inputs = new float[inputWeights.length][];
+        for (int i = 0; i < inputs.length; i++)
+        {
+            inputs[i] = values.clone();
+            for (int value = i; i > 0 && value < values.length; value += 4)
+            {
+                inputs[i][value] = 0;
+            }
+        }
+    }
+
+    @Benchmark public int maxAbs()
+    {
+        return BulkOps.indexOfMaxAbs(values, 0, values.length);
+    }
+
+    @Benchmark public float scale()
+    {
+        factor = -factor;
+        BulkOps.scale(values, 0, values.length, factor);
+        return values[0];
+    }
+
+    @Benchmark public float addScaled()
+    {
+        factor = -factor;
+        BulkOps.addScaled(sums, 0, values, 0, values.length, factor);
+        return sums[0];
+    }
+
+    /**
+     * QTableMerge's weighted rule, a value at a time across the inputs.
+     */
+    @Benchmark public float[] weightedMerge()
+    {
+        for (int value = 0; value < sums.length; value++)
+        {
+            float sum = 0;
+            float weightSum = 0;
+            for (int i = 0; i < inputs.length; i++)
+            {
+                float input = inputs[i][value];
+                if (input == 0) continue;
+                sum += inputWeights[i] * input;
+                weightSum += inputWeights[i];
+            }
+            sums[value] = weightSum > 0 ? sum / weightSum : 0;
+        }
+        return sums;
+    }
+
+    /**
+     * The weighted rule an input at a time, with addScaled, a block of values at a time.
+     */
+    @Benchmark public float[] weightedMergeByInput()
+    {
+        for (int from = 0; from < sums.length; from += 1024)
+        {
+            int to = Math.min(from + 1024, sums.length);
+            Arrays.fill(sums, from, to, 0);
+            Arrays.fill(weightSums, from, to, 0);
+            for (int i = 0; i < inputs.length; i++)
+            {
+                float[] input = inputs[i];
+                BulkOps.addScaled(sums, from, input, from, to - from, inputWeights[i]);
+                for (int value = from; value < to; value++)
+                {
+                    weightSums[value] += input[value] != 0 ? inputWeights[i] : 0;
+                }
+            }
+            for (int value = from; value < to; value++)
+            {
+                sums[value] = weightSums[value] > 0 ? sums[value] / weightSums[value] : 0;
+            }
+        }
+        return sums;
+    }
+
+    @Benchmark public byte[] argmaxRows()
+    {
+        BulkOps.argmaxRows(values, rowStride, actionCount, actions);
+        return actions;
+    }
+
+    @Benchmark public GreedyPolicy compilePolicy()
+    {
+        return GreedyPolicy.compile(qTable);
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import java.io.File;
+
+/***
+ * Locates the trained data sets bundled with the robot.
+ */
+final class Datasets {
+
+    // Override with -Dqlearning.datasets=<dir> when not running from the project directory.
+    private static final String DEFAULT_DIRECTORY = "out/production/CHA2555-Artificial-Intelligence/com/github/EdwardAndrew/QLearningRobot.data";
+
+    private Datasets() {}
+
+    /**
+     * @param name Name of the data set, e.g. SpinBot.
+     * @return The data set's QValues.data file.
+     */
+    static File get(String name)
+    {
+        File file = new File(new File(System.getProperty("qlearning.datasets", DEFAULT_DIRECTORY), name), "QValues.data");
+        if (!file.exists()) throw new IllegalStateException("Data set not found: " + file.getAbsolutePath());
+        return file;
+    }
+}
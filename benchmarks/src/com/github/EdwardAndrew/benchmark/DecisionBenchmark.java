@@ -0,0 +1,95 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.StubRobot;
+import com.github.EdwardAndrew.QLearning.table.GreedyPolicy;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The code the robot runs for every decision: picking the best action,
+ * reading the best value and updating a QValue, over a trained table.
+ * When playing, the best action is read from the compiled policy instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecisionBenchmark {
+
+    // Number of pre-generated states cycled through, so lookups aren't all the same row.
+    private static final int STATES = 1024;
+
+    @Param({"SpinBot", "Corners"})
+    public String dataset;
+
+    private File dataDirectory;
+    private StubRobot robot;
+    private QTable qTable;
+    private GreedyPolicy policy;
+    private final int[] stateIndices = new int[STATES];
+    private final int[] actions = new int[STATES];
+    private int next = 0;
+
+    @Setup public void setUp() throws IOException
+    {
+        dataDirectory = Files.createTempDirectory("qlearning").toFile();
+        robot = new StubRobot(dataDirectory);
+        qTable = robot.getQTable();
+        QTableFile.load(Datasets.get(dataset), qTable);
+        policy = GreedyPolicy.compile(qTable);
+
+        Random random = new Random(1);
+        for (int i = 0; i < STATES; i++)
+        {
+            stateIndices[i] = random.nextInt(qTable.getStateCount());
+            actions[i] = random.nextInt(qTable.getActionCount());
+        }
+    }
+
+    private int nextState()
+    {
+        next = (next + 1) & (STATES - 1);
+        return next;
+    }
+
+    @Benchmark public int getMaximumActionForState()
+    {
+        return robot.maximumActionForState(stateIndices[nextState()]);
+    }
+
+    /**
+     * The decision in mode=play.
+     */
+    @Benchmark public int getCompiledAction()
+    {
+        return policy.getAction(stateIndices[nextState()]);
+    }
+
+    @Benchmark public float getMaximumQValueForState()
+    {
+        return robot.maximumQValueForState(stateIndices[nextState()]);
+    }
+
+    /**
+     * The QValue update in run().
+     */
+    @Benchmark public float update()
+    {
+        int i = nextState();
+        return qTable.update(stateIndices[i], actions[i], -7, stateIndices[(i + 1) & (STATES - 1)], 0.5f, 0.9f);
+    }
+
+    @TearDown public void tearDown()
+    {
+        dataDirectory.delete();
+    }
+}
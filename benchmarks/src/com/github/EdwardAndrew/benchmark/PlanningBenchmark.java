@@ -0,0 +1,93 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.StubRobot;
+import com.github.EdwardAndrew.QLearning.planning.PrioritizedSweeping;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Prioritized sweeping over a trained table: recording a transition in
+ * the model, and the backups planned from it, to size planning.budget.
+ * The model is filled with a few thousand random transitions first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlanningBenchmark {
+
+    // Number of pre-generated transitions cycled through.
+    private static final int TRANSITIONS = 4096;
+
+    @Param({"SpinBot", "Corners"})
+    public String dataset;
+
+    private File dataDirectory;
+    private QTable qTable;
+    private PrioritizedSweeping planner;
+    private final int[] stateIndices = new int[TRANSITIONS];
+    private final int[] actions = new int[TRANSITIONS];
+    private final float[] rewards = new float[TRANSITIONS];
+    private int next = 0;
+
+    @Setup public void setUp() throws IOException
+    {
+        dataDirectory = Files.createTempDirectory("qlearning").toFile();
+        qTable = new StubRobot(dataDirectory).getQTable();
+        QTableFile.load(Datasets.get(dataset), qTable);
+        planner = new PrioritizedSweeping(qTable.getStateCount(), qTable.getActionCount(), 4, 0.1f);
+
+        // A random walk, so states have predecessors as they would in a battle.
+        Random random = new Random(1);
+        int stateIndex = random.nextInt(qTable.getStateCount());
+        for (int i = 0; i < TRANSITIONS; i++)
+        {
+            stateIndices[i] = stateIndex;
+            actions[i] = random.nextInt(qTable.getActionCount());
+            rewards[i] = random.nextInt(4) == 0 ? -7 : 0;
+            stateIndex = random.nextInt(8) == 0 ? random.nextInt(qTable.getStateCount()) : (stateIndex + 1 + random.nextInt(3)) % qTable.getStateCount();
+        }
+        for (int i = 0; i + 1 < TRANSITIONS; i++)
+        {
+            planner.observe(qTable, stateIndices[i], actions[i], rewards[i], stateIndices[i + 1], 0.9f);
+        }
+    }
+
+    private int nextTransition()
+    {
+        next = (next + 1) & (TRANSITIONS - 1);
+        return next;
+    }
+
+    /**
+     * Recording a decision in learn().
+     */
+    @Benchmark public void observe()
+    {
+        int i = nextTransition();
+        planner.observe(qTable, stateIndices[i], actions[i], rewards[i], stateIndices[(i + 1) & (TRANSITIONS - 1)], 0.9f);
+    }
+
+    /**
+     * A decision followed by backing up one state's actions and queueing its predecessors.
+     */
+    @Benchmark public int observeAndPlanOneState()
+    {
+        observe();
+        return planner.plan(qTable, 1, 0, 0.5f, 0.9f);
+    }
+
+    @TearDown public void tearDown()
+    {
+        dataDirectory.delete();
+    }
+}
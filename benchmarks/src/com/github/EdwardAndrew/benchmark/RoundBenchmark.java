@@ -0,0 +1,90 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.StubRobot;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The code the robot runs between rounds: normalising the table,
+ * saving it and loading it again, on the bundled data sets.
+ *
+ * RobocodeFileOutputStream only works inside the engine, so saving is
+ * measured through QTableFile.write, which is what save() calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoundBenchmark {
+
+    @Param({"SpinBot", "Corners"})
+    public String dataset;
+
+    private File textFile;
+    private File dataDirectory;
+    private StubRobot robot;
+    private QTable qTable;
+    private ByteArrayOutputStream outputStream;
+
+    @Setup public void setUp() throws IOException
+    {
+        textFile = Datasets.get(dataset);
+        dataDirectory = Files.createTempDirectory("qlearning").toFile();
+        robot = new StubRobot(dataDirectory);
+        qTable = robot.getQTable();
+        QTableFile.load(textFile, qTable);
+
+        // The robot's own save file, in the binary format.
+        try (FileOutputStream fileOutputStream = new FileOutputStream(robot.getDataFile("QValues.data")))
+        {
+            QTableFile.write(qTable, 0.01f, fileOutputStream);
+        }
+        outputStream = new ByteArrayOutputStream(QTableFile.getFileSize(qTable));
+    }
+
+    @Benchmark public float normaliseQValues()
+    {
+        robot.normalise();
+        return qTable.get(0, 0);
+    }
+
+    @Benchmark public int save() throws IOException
+    {
+        outputStream.reset();
+        return QTableFile.write(qTable, 0.01f, outputStream);
+    }
+
+    @Benchmark public float load()
+    {
+        robot.loadQValues();
+        return qTable.get(0, 0);
+    }
+
+    /**
+     * Importing a data set in the old text format.
+     */
+    @Benchmark public float importText() throws IOException
+    {
+        return QTableFile.importText(textFile, qTable);
+    }
+
+    @TearDown public void tearDown()
+    {
+        File[] files = dataDirectory.listFiles();
+        if (files != null)
+        {
+            for (File file : files) file.delete();
+        }
+        dataDirectory.delete();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.QLearning.state.Observation;
+import com.github.EdwardAndrew.QLearning.state.Quantisation;
+import com.github.EdwardAndrew.QLearning.state.StateDimension;
+import com.github.EdwardAndrew.QLearning.state.StateLayout;
+import com.github.EdwardAndrew.QLearning.targeting.FastTrig;
+import com.github.EdwardAndrew.QLearning.targeting.LeadTargeting;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The code the robot runs for every scan: quantising its observations
+ * into states and working out where to aim.
+ * The state index is measured for the default layout and a much finer
+ * one, which should cost the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateBenchmark {
+
+    // Number of pre-generated observations cycled through.
+    private static final int OBSERVATIONS = 1024;
+
+    private final double[] positions = new double[OBSERVATIONS];
+    private final double[] bearings = new double[OBSERVATIONS];
+    private final double[] distances = new double[OBSERVATIONS];
+    private final double[] headings = new double[OBSERVATIONS];
+    private final double[] velocities = new double[OBSERVATIONS];
+    private final double[] turnRates = new double[OBSERVATIONS];
+    private final double[][] observations = new double[OBSERVATIONS][];
+    private int next = 0;
+
+    private final StateLayout defaultLayout = StateLayout.getDefault();
+    private final StateLayout fineLayout = new StateLayout(
+            StateDimension.uniform(Observation.POSITION_X, 40),
+            StateDimension.uniform(Observation.POSITION_Y, 30),
+            StateDimension.uniform(Observation.ENEMY_BEARING, 32),
+            StateDimension.withEdges(Observation.ENEMY_DISTANCE, new double[] {50, 80, 120, 160, 200, 250, 300, 350, 400, 450, 500, 600, 700, 800, 1000}),
+            StateDimension.uniform(Observation.ENEMY_VELOCITY, 16));
+
+    @Setup public void setUp()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < OBSERVATIONS; i++)
+        {
+            positions[i] = 18 + random.nextDouble() * 764;
+            bearings[i] = random.nextDouble() * 360;
+            distances[i] = 40 + random.nextDouble() * 900;
+            headings[i] = random.nextDouble() * 360;
+            velocities[i] = random.nextDouble() * 16 - 8;
+            turnRates[i] = (random.nextDouble() * 2 - 1) * (10 - 0.75 * Math.abs(velocities[i]));
+
+            observations[i] = new double[Observation.values().length];
+            observations[i][Observation.POSITION_X.ordinal()] = positions[i] / 800;
+            observations[i][Observation.POSITION_Y.ordinal()] = random.nextDouble();
+            observations[i][Observation.ENEMY_BEARING.ordinal()] = bearings[i];
+            observations[i][Observation.ENEMY_DISTANCE.ordinal()] = distances[i];
+            observations[i][Observation.ENEMY_HEADING.ordinal()] = headings[i];
+            observations[i][Observation.ENEMY_VELOCITY.ordinal()] = velocities[i];
+        }
+    }
+
+    private int nextObservation()
+    {
+        next = (next + 1) & (OBSERVATIONS - 1);
+        return next;
+    }
+
+    @Benchmark public int getQuantisedBattlefieldPosition()
+    {
+        return Quantisation.getQuantisedBattlefieldPosition(positions[nextObservation()], 800, 10);
+    }
+
+    @Benchmark public int getQuantisedBearing()
+    {
+        return Quantisation.getQuantisedBearing(bearings[nextObservation()], 8);
+    }
+
+    @Benchmark public int getQuantisedEnemyDistance()
+    {
+        return Quantisation.getQuantisedEnemyDistance(distances[nextObservation()]);
+    }
+
+    @Benchmark public int stateIndexDefaultLayout()
+    {
+        return defaultLayout.getStateIndex(observations[nextObservation()]);
+    }
+
+    @Benchmark public int stateIndexFineLayout()
+    {
+        return fineLayout.getStateIndex(observations[nextObservation()]);
+    }
+
+    /**
+     * The one step straight line estimate onScannedRobot used to make.
+     */
+    @Benchmark public double leadTargeting()
+    {
+        int i = nextObservation();
+        double firePower = LeadTargeting.getFirePower(distances[i]);
+        return LeadTargeting.getPredictedBearing(bearings[i], distances[i], headings[i], velocities[i], firePower);
+    }
+
+    /**
+     * The intercept onScannedRobot aims with, for an enemy that isn't turning.
+     */
+    @Benchmark public double interceptLinear()
+    {
+        int i = nextObservation();
+        double firePower = LeadTargeting.getFirePower(distances[i]);
+        return LeadTargeting.getInterceptBearing(bearings[i], distances[i], headings[i], velocities[i], 0, firePower);
+    }
+
+    /**
+     * The intercept onScannedRobot aims with, for an enemy that is turning.
+     */
+    @Benchmark public double interceptCircular()
+    {
+        int i = nextObservation();
+        double firePower = LeadTargeting.getFirePower(distances[i]);
+        return LeadTargeting.getInterceptBearing(bearings[i], distances[i], headings[i], velocities[i], turnRates[i], firePower);
+    }
+
+    @Benchmark public double mathSinCos()
+    {
+        int i = nextObservation();
+        return Math.sin(Math.toRadians(bearings[i])) + Math.cos(Math.toRadians(headings[i]));
+    }
+
+    @Benchmark public double fastSinCos()
+    {
+        int i = nextObservation();
+        return FastTrig.sin(bearings[i]) + FastTrig.cos(headings[i]);
+    }
+
+    @Benchmark public double mathAtan2()
+    {
+        int i = nextObservation();
+        return Math.toDegrees(Math.atan2(positions[i] - 400, distances[i] - 500));
+    }
+
+    @Benchmark public double fastBearing()
+    {
+        int i = nextObservation();
+        return FastTrig.bearing(positions[i] - 400, distances[i] - 500);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.QLearning.table.PersistentQFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Picking the best action and updating a value with each table backend,
+ * at random states of a fine layout. The dense table is too large for
+ * the cache, so the smaller tables should miss it less often.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TableBackendBenchmark {
+
+    // Number of pre-generated states cycled through.
+    private static final int STATES = 4096;
+    // A 100 by 100 grid of positions, 8 bearings and 4 distances, 320,000 states.
+    private static final int[] STATE_DIMENSIONS = {100, 100, 8, 4};
+
+    @Param({"dense", "int8", "float16"})
+    public String backend;
+
+    private QFunction qFunction;
+    private final int[] stateIndices = new int[STATES];
+    private final int[] actions = new int[STATES];
+    private int next = 0;
+
+    @Setup public void setUp()
+    {
+        QTable dense = new QTable(STATE_DIMENSIONS, 9);
+        Random random = new Random(1);
+        for (int stateIndex = 0; stateIndex < dense.getStateCount(); stateIndex++)
+        {
+            for (int action = 0; action < 9; action++)
+            {
+                dense.set(stateIndex, action, (float)(random.nextGaussian() * 30));
+            }
+        }
+        PersistentQFunction table = QFunctions.create(backend, STATE_DIMENSIONS, 9, "");
+        table.copyFrom(dense);
+        qFunction = table;
+
+        for (int i = 0; i < STATES; i++)
+        {
+            stateIndices[i] = random.nextInt(dense.getStateCount());
+            actions[i] = random.nextInt(9);
+        }
+    }
+
+    private int nextState()
+    {
+        next = (next + 1) & (STATES - 1);
+        return next;
+    }
+
+    @Benchmark public int argmax()
+    {
+        return qFunction.argmax(stateIndices[nextState()]);
+    }
+
+    @Benchmark public float update()
+    {
+        int i = nextState();
+        return qFunction.update(stateIndices[i], actions[i], -7, stateIndices[(i + 1) & (STATES - 1)], 0.5f, 0.9f);
+    }
+}
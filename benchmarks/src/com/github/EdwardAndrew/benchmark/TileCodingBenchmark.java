@@ -0,0 +1,91 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.benchmark;
+
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunction;
+import com.github.EdwardAndrew.QLearning.approximation.TileCoder;
+import com.github.EdwardAndrew.QLearning.state.Observation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The code the robot runs for every decision when tile coding: finding
+ * the active tiles, picking the best action and updating the weights.
+ * Each should cost about the same per tiling, and none should allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TileCodingBenchmark {
+
+    // Number of pre-generated observations cycled through.
+    private static final int OBSERVATIONS = 1024;
+
+    @Param({"4", "8", "16"})
+    public int tilings;
+
+    private TileCoder tileCoder;
+    private LinearQFunction linearFunction;
+    private final double[][] observations = new double[OBSERVATIONS][];
+    private int[][] tiles;
+    private final int[] actions = new int[OBSERVATIONS];
+    private int next = 0;
+
+    @Setup public void setUp()
+    {
+        tileCoder = new TileCoder(tilings, 4096,
+                new Observation[] {Observation.POSITION_X, Observation.POSITION_Y, Observation.ENEMY_BEARING, Observation.ENEMY_DISTANCE},
+                new double[] {0.2, 0.2, 45, 200});
+        linearFunction = new LinearQFunction(tileCoder, 9);
+        tiles = new int[OBSERVATIONS][tilings];
+
+        Random random = new Random(1);
+        for (int i = 0; i < OBSERVATIONS; i++)
+        {
+            observations[i] = new double[Observation.values().length];
+            observations[i][Observation.POSITION_X.ordinal()] = random.nextDouble();
+            observations[i][Observation.POSITION_Y.ordinal()] = random.nextDouble();
+            observations[i][Observation.ENEMY_BEARING.ordinal()] = random.nextDouble() * 360;
+            observations[i][Observation.ENEMY_DISTANCE.ordinal()] = 40 + random.nextDouble() * 900;
+            tileCoder.getTiles(observations[i], tiles[i]);
+            actions[i] = random.nextInt(9);
+        }
+
+        // Give the weights some values, so argmax isn't comparing zeros.
+        for (int i = 0; i < OBSERVATIONS * 8; i++)
+        {
+            int state = random.nextInt(OBSERVATIONS);
+            linearFunction.update(tiles[state], actions[state], random.nextFloat() * 20 - 10, tiles[random.nextInt(OBSERVATIONS)], 0.5f, 0.9f);
+        }
+    }
+
+    private int nextObservation()
+    {
+        next = (next + 1) & (OBSERVATIONS - 1);
+        return next;
+    }
+
+    @Benchmark public int[] getTiles()
+    {
+        int i = nextObservation();
+        tileCoder.getTiles(observations[i], tiles[i]);
+        return tiles[i];
+    }
+
+    @Benchmark public int argmax()
+    {
+        return linearFunction.argmax(tiles[nextObservation()]);
+    }
+
+    /**
+     * The update in run() when tile coding.
+     */
+    @Benchmark public float update()
+    {
+        int i = nextObservation();
+        return linearFunction.update(tiles[i], actions[i], -7, tiles[(i + 1) & (OBSERVATIONS - 1)], 0.5f, 0.9f);
+    }
+}
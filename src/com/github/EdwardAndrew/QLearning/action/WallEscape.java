@@ -0,0 +1,48 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.action;
+
+/***
+ * Decides which way the robot should drive after crashing into a wall.
+ */
+public final class WallEscape {
+
+    private WallEscape() {}
+
+    /**
+     * @param xState The quantised X position of the robot.
+     * @param yState The quantised Y position of the robot.
+     * @param battleFieldXStateCount Number of quantised X positions.
+     * @param battleFieldYStateCount Number of quantised Y positions.
+     * @return Absolute bearing that drives away from the wall, or
+     *         <code>Double.NaN</code> if the robot isn't near one.
+     */
+    public static double getEscapeBearing(int xState, int yState, int battleFieldXStateCount, int battleFieldYStateCount){
+        if(yState >= battleFieldYStateCount-3 && xState > 2 &&  xState < battleFieldXStateCount-1){
+            return 180;
+        }
+        else if(yState >= battleFieldYStateCount-3 &&  xState >= battleFieldXStateCount-3){
+            return -135;
+        }
+        else if(yState >= battleFieldYStateCount-3 &&  xState <= 2) {
+            return 135;
+        }
+        else if (xState <= 2 && yState > 2 && yState < battleFieldYStateCount-3){
+            return 90;
+        }
+        else if(xState <= 2 && yState <= 2){
+            return 45;
+        }
+        else if(yState <= 2 && xState > 2 && xState < battleFieldXStateCount-3){
+            return 0;
+        }
+        else if(yState <= 2 && xState >= battleFieldXStateCount-3){
+            return -45;
+        }
+        else if(xState >= battleFieldXStateCount-3 && yState > 2 && yState < battleFieldYStateCount-3){
+            return -90;
+        }
+        return Double.NaN;
+    }
+}
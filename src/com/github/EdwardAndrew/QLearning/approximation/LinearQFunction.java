@@ -0,0 +1,136 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.approximation;
+
+import com.github.EdwardAndrew.QLearning.table.BulkOps;
+
+import java.util.Arrays;
+
+/***
+ * State -> Action -> Reward values approximated from tile-coded
+ * observations, instead of looked up in a table.
+ *
+ * The value of an action is the sum of its weights in each of the
+ * state's active tiles. Every tile holds a weight for every action,
+ * next to each other in one flat array, so valuing all the actions of a
+ * state reads one short run of weights per tiling. Updating a value
+ * spreads the change over the active tiles, which nearby states share,
+ * so what is learnt in one state carries over to those around it.
+ *
+ * Every method costs time proportional to the number of tilings, and
+ * none of them allocate. Not thread-safe.
+ */
+public class LinearQFunction {
+
+    private final TileCoder tileCoder;
+    private final int actionCount;
+    // Indexed tile * actionCount + action.
+    private final float[] weights;
+    // Working space for argmax and max, so they don't allocate.
+    private final float[] actionValues;
+
+    /***
+     * Constructor, creates a function with every weight set to zero.
+     * @param tileCoder The tilings the weights belong to.
+     * @param actionCount Number of actions available in every state.
+     */
+    public LinearQFunction(TileCoder tileCoder, int actionCount)
+    {
+        if (actionCount <= 0) throw new IllegalArgumentException();
+
+        this.tileCoder = tileCoder;
+        this.actionCount = actionCount;
+        this.weights = new float[tileCoder.getMemorySize() * actionCount];
+        this.actionValues = new float[actionCount];
+    }
+
+    public TileCoder getTileCoder() { return tileCoder; }
+    public int getActionCount() { return actionCount; }
+
+    /**
+     * @param tiles The state's active tiles, from <code>TileCoder.getTiles</code>.
+     * @param action Index of the action.
+     * @return The value of taking the action in the state.
+     */
+    public float get(int[] tiles, int action)
+    {
+        float value = 0;
+        for (int tile : tiles)
+        {
+            value += weights[tile * actionCount + action];
+        }
+        return value;
+    }
+
+    /**
+     * Ties are resolved towards the lowest action index.
+     * @param tiles The state's active tiles.
+     * @return The action that yields the highest value for the state.
+     */
+    public int argmax(int[] tiles)
+    {
+        sumActionValues(tiles);
+        return BulkOps.argmax(actionValues, 0, actionCount);
+    }
+
+    /**
+     * @param tiles The state's active tiles.
+     * @return The highest value that can be obtained from the state.
+     */
+    public float max(int[] tiles)
+    {
+        sumActionValues(tiles);
+        return BulkOps.max(actionValues, 0, actionCount);
+    }
+
+    /**
+     * Performs a single QLearning update, moving the value towards the
+     * target by alpha. The step is shared between the active tiles.
+     * Q(St,At) = (1-alpha) * Q(St,At) + alpha * (Rt + gamma * Max(Q(St+1,a)))
+     * @param tiles The active tiles of the state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received for taking the action.
+     * @param nextTiles The active tiles of the state the action led to.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return The updated value.
+     */
+    public float update(int[] tiles, int action, float reward, int[] nextTiles, float alpha, float gamma)
+    {
+        float target = reward + gamma * max(nextTiles);
+        float value = get(tiles, action);
+        float step = alpha * (target - value) / tiles.length;
+        for (int tile : tiles)
+        {
+            weights[tile * actionCount + action] += step;
+        }
+        return value + step * tiles.length;
+    }
+
+    /**
+     * Sets every weight to zero.
+     */
+    public void clear()
+    {
+        Arrays.fill(weights, 0);
+    }
+
+    /**
+     * @return The weights, indexed tile * actionCount + action.
+     *         Read and written directly when saving and loading.
+     */
+    float[] getWeights() { return weights; }
+
+    /**
+     * Adds up the weights of every action in the active tiles.
+     */
+    private void sumActionValues(int[] tiles)
+    {
+        Arrays.fill(actionValues, 0);
+        for (int tile : tiles)
+        {
+            BulkOps.addScaled(actionValues, 0, weights, tile * actionCount, actionCount, 1);
+        }
+    }
+}
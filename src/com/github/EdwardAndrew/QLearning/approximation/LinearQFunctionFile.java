@@ -0,0 +1,138 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.approximation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Reads and writes the weights of a LinearQFunction.
+ *
+ * Layout, all values little-endian:
+ * <pre>
+ *   int    magic         'QTIL'
+ *   int    version
+ *   float  epsilon
+ *   int    checksum      CRC32 of the weights
+ *   int    memorySize
+ *   int    actionCount
+ *   int    tilingsLength
+ *   byte[] tilings       UTF-8 description of the tilings, padded to a multiple of 4 bytes
+ *   float[memorySize * actionCount] weights
+ * </pre>
+ */
+public final class LinearQFunctionFile {
+
+    // 'QTIL' when read as little-endian bytes.
+    public static final int MAGIC = 0x4C495451;
+    public static final int VERSION = 1;
+
+    private LinearQFunctionFile() {}
+
+    /**
+     * @param function The function to be written.
+     * @return The size of the file in bytes.
+     */
+    public static int getFileSize(LinearQFunction function)
+    {
+        int tilingsLength = function.getTileCoder().getDescription().getBytes(StandardCharsets.UTF_8).length;
+        return 7 * 4 + ((tilingsLength + 3) & ~3) + function.getWeights().length * 4;
+    }
+
+    /**
+     * Writes a function's weights to a stream. The stream is not closed.
+     * @param function The function to write.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @throws IOException If writing fails.
+     */
+    public static void write(LinearQFunction function, float epsilon, OutputStream outputStream) throws IOException
+    {
+        float[] weights = function.getWeights();
+        byte[] tilings = function.getTileCoder().getDescription().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(function)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putFloat(epsilon);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(function.getTileCoder().getMemorySize());
+        buffer.putInt(function.getActionCount());
+        buffer.putInt(tilings.length);
+        buffer.put(tilings);
+        buffer.position(buffer.position() + ((tilings.length + 3) & ~3) - tilings.length);
+
+        int payloadStart = buffer.position();
+        buffer.asFloatBuffer().put(weights);
+        buffer.position(payloadStart + weights.length * 4);
+        buffer.putInt(checksumPosition, checksum(buffer, payloadStart, buffer.position()));
+        buffer.flip();
+
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Reads a file into a function, replacing its weights.
+     * @param file The file to read.
+     * @param function The function to read into, with the same tilings and actions as the file.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the function.
+     */
+    public static float read(File file, LinearQFunction function) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            FileChannel channel = inputStream.getChannel();
+            buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+        }
+
+        if (buffer.remaining() < 7 * 4 || buffer.getInt() != MAGIC) throw new IOException("Not a tile coding QValues file.");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported tile coding QValues file version: " + version);
+
+        float epsilon = buffer.getFloat();
+        int checksum = buffer.getInt();
+        int memorySize = buffer.getInt();
+        int actionCount = buffer.getInt();
+        if (memorySize != function.getTileCoder().getMemorySize() || actionCount != function.getActionCount()) throw new IOException("QValues file does not match the function's dimensions.");
+
+        int tilingsLength = buffer.getInt();
+        float[] weights = function.getWeights();
+        if (tilingsLength < 0 || buffer.remaining() < ((tilingsLength + 3) & ~3) + (long)weights.length * 4) throw new IOException("QValues file is truncated.");
+        byte[] tilingsBytes = new byte[tilingsLength];
+        buffer.get(tilingsBytes);
+        buffer.position(buffer.position() + ((tilingsLength + 3) & ~3) - tilingsLength);
+        String tilings = new String(tilingsBytes, StandardCharsets.UTF_8);
+        if (!tilings.equals(function.getTileCoder().getDescription())) throw new IOException("QValues file was saved with different tilings: " + tilings);
+
+        int payloadStart = buffer.position();
+        if (checksum(buffer, payloadStart, payloadStart + weights.length * 4) != checksum) throw new IOException("QValues file checksum mismatch.");
+        buffer.asFloatBuffer().get(weights);
+        return epsilon;
+    }
+
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.approximation;
+
+import com.github.EdwardAndrew.QLearning.state.Observation;
+
+import java.util.Properties;
+
+/***
+ * Turns the robot's observations into a set of active tiles, for a
+ * LinearQFunction to sum the weights of.
+ *
+ * The observations are covered by several tilings, each a grid of tiles
+ * offset from the others by a fraction of a tile. Exactly one tile is
+ * active in each tiling, so nearby observations share most of their
+ * tiles and learn from each other, while the overlapping offsets still
+ * tell them apart. Tiles are hashed into a fixed number of weights, so
+ * the memory used doesn't depend on how finely the observations are
+ * divided.
+ *
+ * Tilings are read from properties like these, which give the default:
+ * <pre>
+ *   tiles.tilings=8
+ *   tiles.memory=4096
+ *   tiles.dimensions=positionX,positionY,enemyBearing,enemyDistance
+ *   tiles.positionX.width=0.2
+ *   tiles.positionY.width=0.2
+ *   tiles.enemyBearing.width=45
+ *   tiles.enemyDistance.width=200
+ * </pre>
+ * Widths are in the observation's own units. For circular observations
+ * the width must divide the range exactly, so the tiles wrap round.
+ */
+public final class TileCoder {
+
+    private final Observation[] dimensions;
+    private final int[] observationIndices;
+    private final double[] inverseWidths;
+    // Smallest value of each dimension, 0 for observations without a fixed range.
+    private final double[] minimums;
+    // Number of tiles round each circular dimension, 0 for the others.
+    private final int[] wrapCounts;
+    // How far each tiling is shifted along each dimension, as a fraction of a tile. Indexed tiling * dimensions + dimension.
+    private final double[] offsets;
+    private final int tilingCount;
+    private final int memorySize;
+    private final String description;
+
+    /***
+     * Constructor.
+     * @param tilingCount Number of overlapping tilings, the number of active tiles.
+     * @param memorySize Number of tiles the tilings are hashed into, a power of two.
+     * @param dimensions The observations to tile.
+     * @param widths Width of a tile along each observation.
+     */
+    public TileCoder(int tilingCount, int memorySize, Observation[] dimensions, double[] widths)
+    {
+        if (tilingCount <= 0) throw new IllegalArgumentException("Tile coding needs at least one tiling.");
+        if (memorySize <= 0 || Integer.bitCount(memorySize) != 1) throw new IllegalArgumentException("tiles.memory must be a power of two.");
+        if (dimensions.length == 0 || dimensions.length != widths.length) throw new IllegalArgumentException("Every tiled dimension needs a width.");
+
+        this.tilingCount = tilingCount;
+        this.memorySize = memorySize;
+        this.dimensions = dimensions.clone();
+        this.observationIndices = new int[dimensions.length];
+        this.inverseWidths = new double[dimensions.length];
+        this.minimums = new double[dimensions.length];
+        this.wrapCounts = new int[dimensions.length];
+
+        StringBuilder builder = new StringBuilder("tilings=").append(tilingCount).append(";memory=").append(memorySize);
+        for (int dimension = 0; dimension < dimensions.length; dimension++)
+        {
+            Observation observation = dimensions[dimension];
+            double width = widths[dimension];
+            for (int earlier = 0; earlier < dimension; earlier++)
+            {
+                if (dimensions[earlier] == observation) throw new IllegalArgumentException(observation.getName() + " is listed twice.");
+            }
+            if (!(width > 0) || Double.isInfinite(width)) throw new IllegalArgumentException(observation.getName() + " needs a tile width above zero.");
+
+            observationIndices[dimension] = observation.ordinal();
+            inverseWidths[dimension] = 1 / width;
+            minimums[dimension] = Double.isNaN(observation.getMinimum()) ? 0 : observation.getMinimum();
+            if (observation.isCircular())
+            {
+                double tiles = (observation.getMaximum() - observation.getMinimum()) / width;
+                if (Math.abs(tiles - Math.rint(tiles)) > 1e-9) throw new IllegalArgumentException(observation.getName() + " tile width must divide " + (observation.getMaximum() - observation.getMinimum()) + " exactly.");
+                wrapCounts[dimension] = (int)Math.rint(tiles);
+            }
+
+            builder.append(';').append(observation.getName()).append("=width:")
+                    .append(width == Math.rint(width) ? Long.toString((long)width) : Double.toString(width));
+        }
+        this.description = builder.toString();
+
+        // Shift each dimension by a different odd multiple of 1/tilings, so
+        // the tilings don't all line up along the diagonal.
+        this.offsets = new double[tilingCount * dimensions.length];
+        for (int tiling = 0; tiling < tilingCount; tiling++)
+        {
+            for (int dimension = 0; dimension < dimensions.length; dimension++)
+            {
+                offsets[tiling * dimensions.length + dimension] = (double)((tiling * (2 * dimension + 1)) % tilingCount) / tilingCount;
+            }
+        }
+    }
+
+    /**
+     * @return The tilings described in the comment above.
+     */
+    public static TileCoder getDefault()
+    {
+        return new TileCoder(8, 4096,
+                new Observation[] {Observation.POSITION_X, Observation.POSITION_Y, Observation.ENEMY_BEARING, Observation.ENEMY_DISTANCE},
+                new double[] {0.2, 0.2, 45, 200});
+    }
+
+    /**
+     * @param properties Properties holding tilings, as described above.
+     * @return The tilings, or the default if the properties don't define them.
+     * @throws IllegalArgumentException If the tilings aren't valid.
+     */
+    public static TileCoder fromProperties(Properties properties)
+    {
+        String names = properties.getProperty("tiles.dimensions");
+        if (names == null || names.trim().isEmpty()) return getDefault();
+
+        try
+        {
+            int tilingCount = Integer.parseInt(properties.getProperty("tiles.tilings", "8").trim());
+            int memorySize = Integer.parseInt(properties.getProperty("tiles.memory", "4096").trim());
+
+            String[] nameList = names.split(",");
+            Observation[] dimensions = new Observation[nameList.length];
+            double[] widths = new double[nameList.length];
+            for (int i = 0; i < nameList.length; i++)
+            {
+                dimensions[i] = Observation.forName(nameList[i].trim());
+                String width = properties.getProperty("tiles." + dimensions[i].getName() + ".width");
+                if (width == null) throw new IllegalArgumentException(dimensions[i].getName() + " needs a tile width.");
+                widths[i] = Double.parseDouble(width.trim());
+            }
+            return new TileCoder(tilingCount, memorySize, dimensions, widths);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Tile coding has an invalid number.", e);
+        }
+    }
+
+    /**
+     * @return Number of tilings, the length of the array <code>getTiles</code> fills.
+     */
+    public int getTilingCount() { return tilingCount; }
+
+    /**
+     * @return Number of tiles the tilings are hashed into.
+     */
+    public int getMemorySize() { return memorySize; }
+
+    /**
+     * @return The tilings as a single line. Saved with the weights, so
+     *         they aren't loaded into different tilings.
+     */
+    public String getDescription() { return description; }
+
+    /**
+     * Finds the active tile in every tiling. Doesn't allocate.
+     * @param observations Observed values, indexed by <code>Observation.ordinal()</code>.
+     * @param tiles Filled with the active tiles, one for each tiling, each
+     *              between 0 and <code>getMemorySize() - 1</code>.
+     */
+    public void getTiles(double[] observations, int[] tiles)
+    {
+        int dimensionCount = dimensions.length;
+        for (int tiling = 0; tiling < tilingCount; tiling++)
+        {
+            int hash = tiling;
+            for (int dimension = 0; dimension < dimensionCount; dimension++)
+            {
+                double position = (observations[observationIndices[dimension]] - minimums[dimension]) * inverseWidths[dimension]
+                        + offsets[tiling * dimensionCount + dimension];
+                // NaN, before anything has been seen, falls in tile 0.
+                int tile = position == position ? (int)Math.floor(position) : 0;
+                if (wrapCounts[dimension] != 0)
+                {
+                    tile = Math.floorMod(tile, wrapCounts[dimension]);
+                }
+                hash = hash * 0x9E3779B1 + tile;
+            }
+            tiles[tiling] = mix(hash) & (memorySize - 1);
+        }
+    }
+
+    @Override public String toString()
+    {
+        return description;
+    }
+
+    /**
+     * Mixes the hash's bits, so neighbouring tiles spread across the memory.
+     */
+    private static int mix(int hash)
+    {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
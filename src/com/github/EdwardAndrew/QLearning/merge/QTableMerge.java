@@ -0,0 +1,333 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.merge;
+
+import com.github.EdwardAndrew.QLearning.simulator.QLearningController;
+import com.github.EdwardAndrew.QLearning.state.StateLayout;
+import com.github.EdwardAndrew.QLearning.table.QTableFileReader;
+import com.github.EdwardAndrew.QLearning.table.QTableFileWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Combines QValues.data files trained on different machines into one
+ * table the robot can load.
+ *
+ * Usage:
+ * <pre>
+ *   java com.github.EdwardAndrew.QLearning.merge.QTableMerge
+ *        --inputs SpinBot/QValues.data,Corners/QValues.data  --output QValues.data
+ *        [--rule weighted|max|latest] [--weights 2,1] [--layout QLearningRobot.properties]
+ *        [--epsilon 0.05] [--chunk-states 4096]
+ * </pre>
+ * The inputs can be in the binary or the old text format, and are read
+ * side by side, <code>--chunk-states</code> states at a time, so only a
+ * chunk of each is ever in memory. Binary inputs must all have the same
+ * shape and state layout. Text inputs don't record either, so they're
+ * read in the shape of the binary inputs, or of the state layout in
+ * <code>--layout</code> if they're all text.
+ *
+ * A value that is still exactly zero was never learnt, so it's left out,
+ * and each value of the output is combined from the inputs that learnt it:
+ * <ul>
+ *   <li>weighted: their average, each input weighted by its <code>--weights</code>,
+ *       e.g. the number of rounds it was trained for. All 1 by default.</li>
+ *   <li>max: the highest.</li>
+ *   <li>latest: the one from the last of them in <code>--inputs</code>.</li>
+ * </ul>
+ * The output is written in the binary format, with the lowest of the
+ * inputs' epsilon values unless <code>--epsilon</code> is given. It's
+ * written beside <code>--output</code> and renamed once it's complete,
+ * so the output can be one of the inputs.
+ */
+public class QTableMerge {
+
+    public static final String WEIGHTED = "weighted";
+    public static final String MAX = "max";
+    public static final String LATEST = "latest";
+
+    List<File> inputs = new ArrayList<>();
+    File output = new File("QValues.data");
+    String rule = WEIGHTED;
+    float[] weights = null;
+    StateLayout stateLayout = StateLayout.getDefault();
+    float epsilon = Float.NaN;
+    int chunkStates = 4096;
+
+    public static void main(String[] args) throws IOException
+    {
+        QTableMerge merge = new QTableMerge();
+        merge.parse(args);
+        merge.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args Command line arguments.
+     */
+    void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i += 2)
+        {
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            if (!parseOption(args[i], args[i + 1])) throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        if (inputs.isEmpty()) throw new IllegalArgumentException("--inputs must list the files to merge.");
+        if (!WEIGHTED.equals(rule) && !MAX.equals(rule) && !LATEST.equals(rule)) throw new IllegalArgumentException("Unknown rule: " + rule);
+        if (weights == null)
+        {
+            weights = new float[inputs.size()];
+            Arrays.fill(weights, 1);
+        }
+        if (weights.length != inputs.size()) throw new IllegalArgumentException("--weights needs one weight for each input.");
+        if (chunkStates <= 0) throw new IllegalArgumentException("--chunk-states must be at least 1.");
+    }
+
+    /**
+     * @param name Option name, including the leading dashes.
+     * @param value Option value.
+     * @return false if the option isn't recognised.
+     */
+    boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--inputs":
+                for (String path : value.split(","))
+                {
+                    if (!path.trim().isEmpty()) inputs.add(new File(path.trim()));
+                }
+                break;
+            case "--output": output = new File(value); break;
+            case "--rule": rule = value; break;
+            case "--weights": weights = parseWeights(value); break;
+            case "--layout": stateLayout = loadLayout(new File(value)); break;
+            case "--epsilon": epsilon = Float.parseFloat(value); break;
+            case "--chunk-states": chunkStates = Integer.parseInt(value); break;
+            default: return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges the inputs into the output.
+     * @throws IOException If an input can't be read, they don't match, or the output can't be written.
+     */
+    void run() throws IOException
+    {
+        long start = System.nanoTime();
+        int[] stateDimensions = stateLayout.getStateDimensions();
+        int actionCount = QLearningController.ACTION_COUNT;
+        String layout = "";
+
+        // Binary inputs decide the shape text inputs are read in.
+        for (File input : inputs)
+        {
+            try (QTableFileReader reader = new QTableFileReader(input, stateDimensions, actionCount))
+            {
+                if (reader.isBinary())
+                {
+                    stateDimensions = reader.getStateDimensions();
+                    actionCount = reader.getActionCount();
+                    break;
+                }
+            }
+        }
+
+        QTableFileReader[] readers = new QTableFileReader[inputs.size()];
+        File temporaryOutput = new File(output.getPath() + ".tmp");
+        try
+        {
+            float lowestEpsilon = Float.MAX_VALUE;
+            for (int i = 0; i < readers.length; i++)
+            {
+                readers[i] = new QTableFileReader(inputs.get(i), stateDimensions, actionCount);
+                if (!Arrays.equals(readers[i].getStateDimensions(), stateDimensions) || readers[i].getActionCount() != actionCount)
+                {
+                    throw new IOException(inputs.get(i) + " doesn't have the same dimensions as " + inputs.get(0));
+                }
+                if (!readers[i].getLayout().isEmpty())
+                {
+                    if (!layout.isEmpty() && !layout.equals(readers[i].getLayout())) throw new IOException(inputs.get(i) + " was saved with a different state layout: " + readers[i].getLayout());
+                    layout = readers[i].getLayout();
+                }
+                lowestEpsilon = Math.min(lowestEpsilon, readers[i].getEpsilon());
+                warnAboutJournal(readers[i]);
+            }
+            float outputEpsilon = Float.isNaN(epsilon) ? lowestEpsilon : epsilon;
+
+            Totals totals = new Totals(readers.length);
+            try (QTableFileWriter writer = new QTableFileWriter(temporaryOutput, stateDimensions, actionCount, layout, outputEpsilon))
+            {
+                float[][] chunks = new float[readers.length][chunkStates * actionCount];
+                float[] merged = new float[chunkStates * actionCount];
+                int states;
+                while ((states = readChunk(readers, chunks)) > 0)
+                {
+                    merge(chunks, merged, states * actionCount, totals);
+                    writer.write(merged, states);
+                }
+                if (writer.getStatesWritten() != readers[0].getStateCount()) throw new IllegalStateException();
+            }
+            long values = (long)readers[0].getStateCount() * actionCount;
+            float[] inputEpsilons = new float[readers.length];
+            for (int i = 0; i < readers.length; i++)
+            {
+                inputEpsilons[i] = readers[i].getEpsilon();
+                // Windows can't replace a file that's open, and the output may be one of the inputs.
+                readers[i].close();
+                readers[i] = null;
+            }
+            Files.move(temporaryOutput.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (int i = 0; i < readers.length; i++)
+            {
+                System.out.printf("%s: learnt %d of %d values, epsilon %.5f%n", inputs.get(i).getPath(), totals.learnt[i], values, inputEpsilons[i]);
+            }
+            System.out.printf("Merged %d files by %s in %.2fs (%.0f values/s), %d values learnt by more than one, %d learnt in all, epsilon %.5f%n",
+                    readers.length, rule, seconds, readers.length * values / seconds, totals.overlapping, totals.merged, outputEpsilon);
+            System.out.println("Saved " + output.getPath());
+        }
+        finally
+        {
+            for (QTableFileReader reader : readers)
+            {
+                if (reader != null) reader.close();
+            }
+            if (temporaryOutput.exists() && !temporaryOutput.delete())
+            {
+                System.out.println("Unable to delete " + temporaryOutput);
+            }
+        }
+    }
+
+    /**
+     * Reads the same states from every input.
+     * @return Number of states read, 0 once they've all been read.
+     */
+    private int readChunk(QTableFileReader[] readers, float[][] chunks) throws IOException
+    {
+        int states = readers[0].read(chunks[0], chunkStates);
+        for (int i = 1; i < readers.length; i++)
+        {
+            if (readers[i].read(chunks[i], chunkStates) != states) throw new IllegalStateException();
+        }
+        return states;
+    }
+
+    /**
+     * Combines a chunk of each input's values by the rule.
+     * @param chunks Each input's values.
+     * @param merged Where to write the combined values.
+     * @param count Number of values in the chunk.
+     * @param totals Counts to add the chunk's to.
+     */
+    void merge(float[][] chunks, float[] merged, int count, Totals totals)
+    {
+        boolean weighted = WEIGHTED.equals(rule);
+        boolean max = MAX.equals(rule);
+        for (int value = 0; value < count; value++)
+        {
+            int learnt = 0;
+            float sum = 0;
+            float weightSum = 0;
+            float result = 0;
+            for (int i = 0; i < chunks.length; i++)
+            {
+                float input = chunks[i][value];
+                if (input == 0) continue;
+
+                totals.learnt[i]++;
+                if (weighted)
+                {
+                    sum += weights[i] * input;
+                    weightSum += weights[i];
+                }
+                else if (max)
+                {
+                    result = learnt == 0 ? input : Math.max(result, input);
+                }
+                else
+                {
+                    // Latest, the inputs are in the order they're listed.
+                    result = input;
+                }
+                learnt++;
+            }
+            if (weighted)
+            {
+                result = weightSum > 0 ? sum / weightSum : 0;
+            }
+
+            merged[value] = result;
+            if (learnt > 1) totals.overlapping++;
+            if (learnt > 0) totals.merged++;
+        }
+    }
+
+    /**
+     * The robot replays QValues.journal over QValues.data when it loads,
+     * but the journal can't be streamed in state order, so it isn't merged.
+     */
+    private static void warnAboutJournal(QTableFileReader reader)
+    {
+        if (!reader.isBinary()) return;
+
+        File journal = new File(reader.getFile().getAbsoluteFile().getParentFile(), "QValues.journal");
+        if (journal.length() > 0)
+        {
+            System.out.println("Warning: " + journal + " isn't merged, only the changes in " + reader.getFile() + " are.");
+        }
+    }
+
+    private static float[] parseWeights(String value)
+    {
+        String[] items = value.split(",");
+        float[] weights = new float[items.length];
+        for (int i = 0; i < items.length; i++)
+        {
+            weights[i] = Float.parseFloat(items[i].trim());
+            if (!(weights[i] >= 0)) throw new IllegalArgumentException("Weights can't be negative: " + items[i]);
+        }
+        return weights;
+    }
+
+    private static StateLayout loadLayout(File file)
+    {
+        try
+        {
+            return StateLayout.load(new FileInputStream(file));
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Unable to read " + file, e);
+        }
+    }
+
+    /***
+     * Counts kept while merging, for the summary.
+     */
+    static class Totals {
+
+        // Values each input had learnt.
+        final long[] learnt;
+        // Values learnt by more than one input.
+        long overlapping = 0;
+        // Values learnt by any input.
+        long merged = 0;
+
+        Totals(int inputCount)
+        {
+            learnt = new long[inputCount];
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/***
+ * The first decisions of a battle, one row each, so a battle repeated with
+ * the same random seed can be compared with this one to find where they
+ * first differ, and which decisions were slow.
+ *
+ * The rows are kept in arrays allocated up front, so recording a decision
+ * allocates nothing. Once they're full, later decisions aren't kept.
+ *
+ * Written as CSV, one row per decision:
+ * <pre>
+ *   round,time,state,action,explored,nanoseconds
+ * </pre>
+ * time is the turn the decision was made in, and nanoseconds the time the
+ * robot spent on that turn's decision, as in RobotMetrics.
+ */
+public class DecisionLog {
+
+    private final int[] rounds;
+    private final long[] times;
+    private final int[] states;
+    private final byte[] actions;
+    private final boolean[] explored;
+    private final long[] nanoseconds;
+    private int size = 0;
+    // Decisions made after the log was full.
+    private long dropped = 0;
+
+    /***
+     * Constructor.
+     * @param capacity The most decisions kept.
+     */
+    public DecisionLog(int capacity)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.rounds = new int[capacity];
+        this.times = new long[capacity];
+        this.states = new int[capacity];
+        this.actions = new byte[capacity];
+        this.explored = new boolean[capacity];
+        this.nanoseconds = new long[capacity];
+    }
+
+    /**
+     * @return Number of decisions kept.
+     */
+    public int size() { return size; }
+
+    /**
+     * @return Number of decisions made after the log was full, which weren't kept.
+     */
+    public long getDropped() { return dropped; }
+
+    /**
+     * Adds a decision, if there's room.
+     * @param round The round it was made in.
+     * @param time The turn it was made in.
+     * @param stateIndex The state it was made in.
+     * @param action The action chosen, below 256.
+     * @param wasExplored true if the action was chosen at random.
+     * @param decisionNanoseconds Time spent on the decision.
+     */
+    public void record(int round, long time, int stateIndex, int action, boolean wasExplored, long decisionNanoseconds)
+    {
+        if (size == rounds.length)
+        {
+            dropped++;
+            return;
+        }
+
+        rounds[size] = round;
+        times[size] = time;
+        states[size] = stateIndex;
+        actions[size] = (byte)action;
+        explored[size] = wasExplored;
+        nanoseconds[size] = decisionNanoseconds;
+        size++;
+    }
+
+    /**
+     * Writes the decisions as CSV. The stream is not closed.
+     * @param outputStream Where to write to.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream outputStream) throws IOException
+    {
+        PrintStream printStream = new PrintStream(outputStream, false, "US-ASCII");
+        printStream.print("round,time,state,action,explored,nanoseconds\n");
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < size; i++)
+        {
+            row.setLength(0);
+            row.append(rounds[i]).append(',').append(times[i]).append(',').append(states[i]).append(',')
+                    .append(actions[i] & 0xff).append(',').append(explored[i] ? 1 : 0).append(',').append(nanoseconds[i]).append('\n');
+            printStream.print(row);
+        }
+        printStream.flush();
+        if (printStream.checkError()) throw new IOException("Unable to write the decision log.");
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.metrics;
+
+import java.util.Arrays;
+
+/***
+ * Counts recorded values in buckets whose width grows with the value,
+ * in the style of an HDR histogram.
+ *
+ * Values below 64 get a bucket each. Above that, every power of two is
+ * split into 32 buckets, so a bucket is never wider than about 3% of the
+ * values it holds. All buckets are allocated up front, recording a value
+ * creates no objects.
+ */
+public class Histogram {
+
+    // Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Values are clamped to this, about 18 minutes in nanoseconds.
+    public static final long MAXIMUM_VALUE = (1L << 40) - 1;
+
+    private final long[] counts = new long[getBucketIndex(MAXIMUM_VALUE) + 1];
+    private long count = 0;
+    private long total = 0;
+    private long maximum = 0;
+
+    /**
+     * Records a value. Negative values are recorded as zero, values
+     * above MAXIMUM_VALUE are recorded as MAXIMUM_VALUE.
+     * @param value The value to record.
+     */
+    public void record(long value)
+    {
+        value = Math.max(0, Math.min(MAXIMUM_VALUE, value));
+        counts[getBucketIndex(value)]++;
+        count++;
+        total += value;
+        maximum = Math.max(maximum, value);
+    }
+
+    /**
+     * @return Number of values recorded.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The largest value recorded, 0 if nothing has been.
+     */
+    public long getMaximum()
+    {
+        return maximum;
+    }
+
+    /**
+     * @return The mean of the values recorded, 0 if nothing has been.
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double)total / count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The highest value in the bucket holding the percentile,
+     *         never more than the largest value recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(maximum, getBucketHighestValue(i));
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        maximum = 0;
+    }
+
+    private static int getBucketIndex(long value)
+    {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value | 1);
+        int shift = Math.max(0, magnitude - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+    }
+
+    private static long getBucketHighestValue(int index)
+    {
+        if (index < 2 * SUB_BUCKET_COUNT) return index;
+
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - (shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/***
+ * Measurements of how long the robot spends thinking, collected over a
+ * battle so we can see how close it gets to Robocode's turn budget.
+ *
+ * Times are in nanoseconds. Allocation is estimated from the JVM's count
+ * of bytes allocated by the robot's thread, where the JVM provides one.
+ *
+ * Written as CSV, one row per measurement:
+ * <pre>
+ *   metric,unit,count,mean,p50,p90,p99,p99.9,max
+ * </pre>
+ */
+public class RobotMetrics {
+
+    private final Histogram decisionTimes = new Histogram();
+    private final Histogram eventTimes = new Histogram();
+    private final Histogram persistenceTimes = new Histogram();
+    private final Histogram planningTimes = new Histogram();
+    private final Histogram allocatedBytes = new Histogram();
+    private final Histogram skippedTurns = new Histogram();
+
+    // Counts for the round in progress.
+    private long roundStartAllocatedBytes = -1;
+    private long roundSkippedTurns = 0;
+    private boolean roundStarted = false;
+
+    // Null if the JVM can't count the bytes a thread allocates.
+    private final com.sun.management.ThreadMXBean allocationCounter = getAllocationCounter();
+
+    /**
+     * @param nanoseconds Time taken to choose an action and learn from it.
+     */
+    public void recordDecision(long nanoseconds) { decisionTimes.record(nanoseconds); }
+
+    /**
+     * @param nanoseconds Time spent in an event handler.
+     */
+    public void recordEvent(long nanoseconds) { eventTimes.record(nanoseconds); }
+
+    /**
+     * @param nanoseconds Time taken to load or save a file.
+     */
+    public void recordPersistence(long nanoseconds) { persistenceTimes.record(nanoseconds); }
+
+    /**
+     * @param nanoseconds Time spent planning in a turn.
+     */
+    public void recordPlanning(long nanoseconds) { planningTimes.record(nanoseconds); }
+
+    /**
+     * Counts a turn Robocode skipped because the robot took too long.
+     */
+    public void recordSkippedTurn() { roundSkippedTurns++; }
+
+    public Histogram getDecisionTimes() { return decisionTimes; }
+    public Histogram getEventTimes() { return eventTimes; }
+    public Histogram getPersistenceTimes() { return persistenceTimes; }
+    public Histogram getPlanningTimes() { return planningTimes; }
+    public Histogram getAllocatedBytes() { return allocatedBytes; }
+    public Histogram getSkippedTurns() { return skippedTurns; }
+
+    /**
+     * Starts counting for a new round. Call from the robot's thread.
+     */
+    public void startRound()
+    {
+        roundStartAllocatedBytes = getCurrentThreadAllocatedBytes();
+        roundSkippedTurns = 0;
+        roundStarted = true;
+    }
+
+    /**
+     * Records the round's skipped turns and allocation. Call from the
+     * robot's thread. Does nothing if no round was started.
+     */
+    public void endRound()
+    {
+        if (!roundStarted) return;
+
+        skippedTurns.record(roundSkippedTurns);
+        long allocated = getCurrentThreadAllocatedBytes();
+        if (allocated >= 0 && roundStartAllocatedBytes >= 0)
+        {
+            allocatedBytes.record(allocated - roundStartAllocatedBytes);
+        }
+        roundStarted = false;
+    }
+
+    /**
+     * Writes the measurements as CSV. The stream is not closed.
+     * @param outputStream Where to write to.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream outputStream) throws IOException
+    {
+        PrintStream printStream = new PrintStream(outputStream, false, "US-ASCII");
+        printStream.print("metric,unit,count,mean,p50,p90,p99,p99.9,max\n");
+        writeRow(printStream, "decision", "ns", decisionTimes);
+        writeRow(printStream, "event", "ns", eventTimes);
+        writeRow(printStream, "persistence", "ns", persistenceTimes);
+        writeRow(printStream, "planning", "ns", planningTimes);
+        writeRow(printStream, "allocation", "bytes/round", allocatedBytes);
+        writeRow(printStream, "skippedTurns", "turns/round", skippedTurns);
+        printStream.flush();
+        if (printStream.checkError()) throw new IOException("Unable to write metrics.");
+    }
+
+    private static void writeRow(PrintStream printStream, String metric, String unit, Histogram histogram)
+    {
+        printStream.print(String.format(Locale.ROOT, "%s,%s,%d,%.1f,%d,%d,%d,%d,%d\n", metric, unit,
+                histogram.getCount(), histogram.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+                histogram.getMaximum()));
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, -1 if unknown.
+     */
+    private long getCurrentThreadAllocatedBytes()
+    {
+        if (allocationCounter == null) return -1;
+
+        try
+        {
+            return allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        catch (UnsupportedOperationException | SecurityException e)
+        {
+            return -1;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationCounter()
+    {
+        try
+        {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+            {
+                com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean)threadMXBean;
+                if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled())
+                {
+                    return counter;
+                }
+            }
+        }
+        catch (SecurityException | LinkageError e)
+        {
+            // Robocode's sandbox may not allow it, allocation just isn't measured.
+        }
+        return null;
+    }
+}
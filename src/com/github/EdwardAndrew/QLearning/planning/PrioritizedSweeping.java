@@ -0,0 +1,385 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.planning;
+
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+
+import java.util.Arrays;
+
+/***
+ * Dyna style planning with prioritized sweeping: the robot's real
+ * transitions are recorded in a model, and spare time is spent updating
+ * values from the model instead of waiting for more battles.
+ *
+ * For each state and action the model keeps the average reward and up to
+ * a few of the states it led to, with how often it led to each, so a
+ * backup uses the expected value of where the action goes. Every
+ * transition into a state is also linked into that state's list of
+ * predecessors.
+ *
+ * States whose values are furthest from what the model predicts wait in
+ * a max-heap, keyed by the largest Bellman error of their actions. Each
+ * backup takes the state at the top, updates all of its modelled
+ * actions, then checks the predecessors that lead into it, as their
+ * values are the ones that changed. Planning stops when the heap is
+ * empty, or the number of backups or time allowed runs out, so it can
+ * be fitted into what's left of a turn. The time is checked before each
+ * state, so the state being backed up when it runs out is finished, and
+ * while its predecessors are checked, the rest of which are skipped.
+ *
+ * Everything is held in primitive arrays sized when it's created, so
+ * observing and planning create no objects.
+ */
+public class PrioritizedSweeping {
+
+    // Predecessors visited between looking at the clock, which costs more than a Bellman error.
+    private static final int PREDECESSORS_PER_CLOCK_CHECK = 64;
+
+    private final int stateCount;
+    private final int actionCount;
+    // The most states a state and action is remembered leading to.
+    private final int slots;
+    // States are only queued if their Bellman error is above this.
+    private final float threshold;
+
+    // Average reward of each state and action, indexed stateIndex * actionCount + action.
+    private final float[] rewards;
+    // Where each state and action led, -1 for an empty slot, and how often.
+    // Indexed (stateIndex * actionCount + action) * slots + slot.
+    private final int[] targets;
+    private final short[] counts;
+    // Predecessor lists, linked through the same indices as targets. -1 ends a list.
+    private final int[] firstPredecessor;
+    private final int[] nextPredecessor;
+
+    // Max-heap of states by priority, and each state's position in it, -1 if it isn't queued.
+    private final int[] heap;
+    private final int[] heapPositions;
+    private final float[] priorities;
+    private int heapSize = 0;
+
+    // Number of backups made, for reporting.
+    private long backupCount = 0;
+
+    /***
+     * Constructor.
+     * @param stateCount Number of states.
+     * @param actionCount Number of actions in each state.
+     * @param slots The most states each state and action is remembered leading to.
+     * @param threshold Bellman error a state needs to be queued.
+     */
+    public PrioritizedSweeping(int stateCount, int actionCount, int slots, float threshold)
+    {
+        if (stateCount <= 0 || actionCount <= 0 || slots <= 0) throw new IllegalArgumentException();
+        if ((long)stateCount * actionCount * slots > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many states to plan with.");
+
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.slots = slots;
+        this.threshold = threshold;
+
+        this.rewards = new float[stateCount * actionCount];
+        this.targets = new int[stateCount * actionCount * slots];
+        this.counts = new short[targets.length];
+        this.firstPredecessor = new int[stateCount];
+        this.nextPredecessor = new int[targets.length];
+        Arrays.fill(targets, -1);
+        Arrays.fill(firstPredecessor, -1);
+
+        this.heap = new int[stateCount];
+        this.heapPositions = new int[stateCount];
+        this.priorities = new float[stateCount];
+        Arrays.fill(heapPositions, -1);
+    }
+
+    /**
+     * @param stateCount Number of states.
+     * @param actionCount Number of actions in each state.
+     * @param slots The most states each state and action is remembered leading to.
+     * @return Bytes used by the arrays holding the model and queue.
+     */
+    public static long getMemoryUsage(int stateCount, int actionCount, int slots)
+    {
+        long pairs = (long)stateCount * actionCount;
+        return pairs * 4 + pairs * slots * (4 + 2 + 4) + stateCount * (4L + 4 + 4 + 4);
+    }
+
+    public int getStateCount() { return stateCount; }
+    public int getActionCount() { return actionCount; }
+
+    /**
+     * @return Number of states waiting for a backup.
+     */
+    public int getQueuedStateCount() { return heapSize; }
+
+    /**
+     * @return Number of backups made.
+     */
+    public long getBackupCount() { return backupCount; }
+
+    /**
+     * Records a real transition in the model, and queues its state if
+     * its value is now far from what the model predicts.
+     * @param qFunction The values being learnt.
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received.
+     * @param nextStateIndex The state the action led to.
+     * @param gamma Discount factor.
+     */
+    public void observe(QFunction qFunction, int stateIndex, int action, float reward, int nextStateIndex, float gamma)
+    {
+        int pair = stateIndex * actionCount + action;
+        int total = recordTarget(pair, nextStateIndex);
+        rewards[pair] += (reward - rewards[pair]) / total;
+
+        float error = Math.abs(getBellmanError(qFunction, pair, gamma));
+        if (error > threshold)
+        {
+            queue(stateIndex, error);
+        }
+    }
+
+    /**
+     * Makes backups from the model, highest priority first, until the
+     * queue is empty or either limit is reached.
+     * @param qFunction The values to update.
+     * @param maximumBackups The most backups to make, each updates one state and action.
+     * @param budgetNanos The most time to spend, in nanoseconds, or 0 for no limit.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return Number of backups made.
+     */
+    public int plan(QFunction qFunction, int maximumBackups, long budgetNanos, float alpha, float gamma)
+    {
+        long deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : 0;
+        int backups = 0;
+        while (heapSize > 0 && backups < maximumBackups)
+        {
+            if (budgetNanos > 0 && System.nanoTime() - deadline >= 0) break;
+
+            int stateIndex = poll();
+            float remainingError = 0;
+            for (int action = 0; action < actionCount; action++)
+            {
+                int pair = stateIndex * actionCount + action;
+                if (targets[pair * slots] < 0) continue;
+
+                float error = getBellmanError(qFunction, pair, gamma);
+                qFunction.add(stateIndex, action, alpha * error);
+                remainingError = Math.max(remainingError, Math.abs((1 - alpha) * error));
+                backups++;
+            }
+            // Unless alpha is 1 the state is only part of the way there, so it goes back in the queue.
+            if (remainingError > threshold)
+            {
+                queue(stateIndex, remainingError);
+            }
+
+            // The state's value changed, so the values leading into it may be out of date.
+            // A state can have thousands of them, so the deadline is checked as they're visited.
+            int visited = 0;
+            for (int edge = firstPredecessor[stateIndex]; edge >= 0; edge = nextPredecessor[edge])
+            {
+                if (budgetNanos > 0 && ++visited % PREDECESSORS_PER_CLOCK_CHECK == 0 && System.nanoTime() - deadline >= 0) break;
+
+                int pair = edge / slots;
+                float error = Math.abs(getBellmanError(qFunction, pair, gamma));
+                if (error > threshold)
+                {
+                    queue(pair / actionCount, error);
+                }
+            }
+        }
+        backupCount += backups;
+        return backups;
+    }
+
+    /**
+     * Empties the queue, leaving the model as it is.
+     */
+    public void clearQueue()
+    {
+        for (int i = 0; i < heapSize; i++)
+        {
+            heapPositions[heap[i]] = -1;
+        }
+        heapSize = 0;
+    }
+
+    /**
+     * The expected reward plus discounted value of where the model says
+     * the action leads, less its current value.
+     */
+    private float getBellmanError(QFunction qFunction, int pair, float gamma)
+    {
+        int first = pair * slots;
+        float expectedValue = 0;
+        int total = 0;
+        for (int edge = first; edge < first + slots && targets[edge] >= 0; edge++)
+        {
+            expectedValue += counts[edge] * qFunction.max(targets[edge]);
+            total += counts[edge];
+        }
+        return rewards[pair] + gamma * expectedValue / total - qFunction.get(pair / actionCount, pair % actionCount);
+    }
+
+    /**
+     * Counts a transition to the target. If every slot holds another
+     * state, the least seen one is replaced.
+     * @return How often the state and action has been seen, as counted.
+     */
+    private int recordTarget(int pair, int target)
+    {
+        int first = pair * slots;
+        int edge = -1;
+        int empty = -1;
+        int leastSeen = -1;
+        for (int i = first; i < first + slots; i++)
+        {
+            if (targets[i] == target)
+            {
+                edge = i;
+                break;
+            }
+            if (targets[i] < 0)
+            {
+                if (empty < 0) empty = i;
+            }
+            else if (leastSeen < 0 || counts[i] < counts[leastSeen])
+            {
+                leastSeen = i;
+            }
+        }
+
+        if (edge < 0)
+        {
+            if (empty >= 0)
+            {
+                edge = empty;
+            }
+            else
+            {
+                edge = leastSeen;
+                unlinkPredecessor(edge);
+            }
+            targets[edge] = target;
+            counts[edge] = 0;
+            nextPredecessor[edge] = firstPredecessor[target];
+            firstPredecessor[target] = edge;
+        }
+
+        if (counts[edge] == Short.MAX_VALUE)
+        {
+            // Halve the counts, keeping their proportions, so later transitions count for a little more.
+            for (int i = first; i < first + slots && targets[i] >= 0; i++)
+            {
+                counts[i] = (short)((counts[i] + 1) / 2);
+            }
+        }
+        counts[edge]++;
+
+        int total = 0;
+        for (int i = first; i < first + slots && targets[i] >= 0; i++)
+        {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    private void unlinkPredecessor(int edge)
+    {
+        int target = targets[edge];
+        if (firstPredecessor[target] == edge)
+        {
+            firstPredecessor[target] = nextPredecessor[edge];
+            return;
+        }
+        for (int previous = firstPredecessor[target]; previous >= 0; previous = nextPredecessor[previous])
+        {
+            if (nextPredecessor[previous] == edge)
+            {
+                nextPredecessor[previous] = nextPredecessor[edge];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a state to the queue, or raises its priority if it's already there.
+     */
+    private void queue(int stateIndex, float priority)
+    {
+        int position = heapPositions[stateIndex];
+        if (position < 0)
+        {
+            position = heapSize++;
+            heap[position] = stateIndex;
+            heapPositions[stateIndex] = position;
+            priorities[stateIndex] = priority;
+        }
+        else if (priority > priorities[stateIndex])
+        {
+            priorities[stateIndex] = priority;
+        }
+        else
+        {
+            return;
+        }
+        siftUp(position);
+    }
+
+    /**
+     * @return The state with the highest priority, removed from the queue.
+     */
+    private int poll()
+    {
+        int top = heap[0];
+        heapPositions[top] = -1;
+        heapSize--;
+        if (heapSize > 0)
+        {
+            heap[0] = heap[heapSize];
+            heapPositions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int position)
+    {
+        int stateIndex = heap[position];
+        float priority = priorities[stateIndex];
+        while (position > 0)
+        {
+            int parent = (position - 1) >>> 1;
+            if (priorities[heap[parent]] >= priority) break;
+
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = stateIndex;
+        heapPositions[stateIndex] = position;
+    }
+
+    private void siftDown(int position)
+    {
+        int stateIndex = heap[position];
+        float priority = priorities[stateIndex];
+        int half = heapSize >>> 1;
+        while (position < half)
+        {
+            int child = 2 * position + 1;
+            if (child + 1 < heapSize && priorities[heap[child + 1]] > priorities[heap[child]]) child++;
+            if (priority >= priorities[heap[child]]) break;
+
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = stateIndex;
+        heapPositions[stateIndex] = position;
+    }
+}
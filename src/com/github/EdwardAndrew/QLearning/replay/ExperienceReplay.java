@@ -0,0 +1,272 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.replay;
+
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+
+/***
+ * Fixed size ring buffer of past transitions, replayed to squeeze more
+ * learning out of each decision the robot makes.
+ *
+ * Transitions are stored in parallel primitive arrays so recording one
+ * creates no objects. Once full, the oldest transition is overwritten.
+ *
+ * File layout, all values little-endian:
+ * <pre>
+ *   int    magic         'QRPL'
+ *   int    version
+ *   int    capacity
+ *   int    count
+ *   int    next          position the next transition will be written to
+ *   int    checksum      CRC32 of the records
+ *   int    layoutLength  bytes in the layout
+ *   byte[] layout        UTF-8 description of the state layout, padded to a multiple of 4 bytes
+ *   count records of (int stateIndex, int action, float reward, int nextStateIndex),
+ *   oldest first
+ * </pre>
+ * The state indices only mean the same states in the same layout, so a
+ * file saved with another layout isn't read. Neither is a file from
+ * before the version, which didn't record its layout.
+ */
+public class ExperienceReplay {
+
+    // 'QRPL' when read as little-endian bytes.
+    public static final int MAGIC = 0x4C505251;
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int RECORD_SIZE = 4 * 4;
+
+    private final int capacity;
+    private final int[] stateIndices;
+    private final int[] actions;
+    private final float[] rewards;
+    private final int[] nextStateIndices;
+
+    // Number of transitions held, and where the next one will go.
+    private int count = 0;
+    private int next = 0;
+
+    // Transitions recorded since the last call to replay().
+    private int recordedSinceReplay = 0;
+
+    private final SplittableRandom random;
+
+    /***
+     * Constructor.
+     * @param capacity The most transitions that can be held.
+     * @param random Used to pick which transitions to replay.
+     */
+    public ExperienceReplay(int capacity, SplittableRandom random)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException();
+
+        this.capacity = capacity;
+        this.stateIndices = new int[capacity];
+        this.actions = new int[capacity];
+        this.rewards = new float[capacity];
+        this.nextStateIndices = new int[capacity];
+        this.random = random;
+    }
+
+    /**
+     * @return Number of transitions held.
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return Number of transitions recorded since the last replay.
+     */
+    public int getRecordedSinceReplay()
+    {
+        return recordedSinceReplay;
+    }
+
+    /**
+     * Records a transition, overwriting the oldest once full.
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received.
+     * @param nextStateIndex The state the action led to.
+     */
+    public void add(int stateIndex, int action, float reward, int nextStateIndex)
+    {
+        stateIndices[next] = stateIndex;
+        actions[next] = action;
+        rewards[next] = reward;
+        nextStateIndices[next] = nextStateIndex;
+
+        next = next + 1 == capacity ? 0 : next + 1;
+        if (count < capacity) count++;
+        recordedSinceReplay++;
+    }
+
+    /**
+     * Applies QLearning updates for transitions picked at random.
+     * @param qFunction The values to update.
+     * @param updates Number of updates to make.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     */
+    public void replay(QFunction qFunction, int updates, float alpha, float gamma)
+    {
+        recordedSinceReplay = 0;
+        if (count == 0) return;
+
+        for (int i = 0; i < updates; i++)
+        {
+            int sample = random.nextInt(count);
+            qFunction.update(stateIndices[sample], actions[sample], rewards[sample], nextStateIndices[sample], alpha, gamma);
+        }
+    }
+
+    /**
+     * Replays a number of updates in proportion to the transitions recorded
+     * since the last replay, in whole batches.
+     * @param qFunction The values to update.
+     * @param replayRatio Replayed updates per recorded transition.
+     * @param batchSize Updates are made in multiples of this.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return Number of updates made.
+     */
+    public int replayRecent(QFunction qFunction, float replayRatio, int batchSize, float alpha, float gamma)
+    {
+        int batches = (int)Math.ceil(recordedSinceReplay * replayRatio / batchSize);
+        replay(qFunction, batches * batchSize, alpha, gamma);
+        return batches * batchSize;
+    }
+
+    /**
+     * Writes the buffer to a stream. The stream is not closed.
+     * @param outputStream Where to write to.
+     * @param layout Description of the state layout the transitions were recorded in.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream outputStream, String layout) throws IOException
+    {
+        byte[] layoutBytes = layout.getBytes(StandardCharsets.UTF_8);
+        int paddedLength = (layoutBytes.length + 3) & ~3;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + paddedLength + count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(capacity);
+        buffer.putInt(count);
+        buffer.putInt(next);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(layoutBytes.length);
+        buffer.put(layoutBytes);
+        buffer.position(buffer.position() + paddedLength - layoutBytes.length);
+
+        int recordsStart = buffer.position();
+        int oldest = count < capacity ? 0 : next;
+        for (int i = 0; i < count; i++)
+        {
+            int position = (oldest + i) % capacity;
+            buffer.putInt(stateIndices[position]);
+            buffer.putInt(actions[position]);
+            buffer.putFloat(rewards[position]);
+            buffer.putInt(nextStateIndices[position]);
+        }
+        buffer.putInt(checksumPosition, checksum(buffer, recordsStart, buffer.position()));
+        buffer.flip();
+
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Adds the transitions from a file, oldest first. If the file holds more
+     * than this buffer's capacity, only the newest are kept. Transitions
+     * outside the QFunction's states or actions are skipped. Nothing is
+     * added if the file can't be read.
+     * @param file The file to read.
+     * @param qFunction The values the transitions will be replayed into.
+     * @param layout Description of the state layout the transitions will be replayed in.
+     * @throws IOException If the file can't be read, is corrupt or was saved with another state layout.
+     */
+    public void read(File file, QFunction qFunction, String layout) throws IOException
+    {
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) throw new IOException("Not a replay file.");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("Unsupported replay file version: " + version);
+            buffer.getInt();
+            int fileCount = buffer.getInt();
+            buffer.getInt();
+            int checksum = buffer.getInt();
+            int layoutLength = buffer.getInt();
+            int paddedLength = (layoutLength + 3) & ~3;
+            if (layoutLength < 0 || buffer.remaining() < paddedLength) throw new IOException("Replay file is truncated.");
+            byte[] layoutBytes = new byte[layoutLength];
+            buffer.get(layoutBytes);
+            buffer.position(buffer.position() + paddedLength - layoutLength);
+
+            String fileLayout = new String(layoutBytes, StandardCharsets.UTF_8);
+            if (!fileLayout.isEmpty() && !layout.isEmpty() && !fileLayout.equals(layout))
+            {
+                throw new IOException("Replay file was saved with a different state layout: " + fileLayout);
+            }
+            if (fileCount < 0 || buffer.remaining() < (long)fileCount * RECORD_SIZE) throw new IOException("Replay file is truncated.");
+            if (checksum(buffer, buffer.position(), buffer.position() + fileCount * RECORD_SIZE) != checksum) throw new IOException("Replay file checksum mismatch.");
+
+            for (int i = 0; i < fileCount; i++)
+            {
+                int stateIndex = buffer.getInt();
+                int action = buffer.getInt();
+                float reward = buffer.getFloat();
+                int nextStateIndex = buffer.getInt();
+
+                if (isValid(stateIndex, action, nextStateIndex, qFunction))
+                {
+                    add(stateIndex, action, reward, nextStateIndex);
+                }
+            }
+            recordedSinceReplay = 0;
+        }
+    }
+
+    /**
+     * @return CRC32 of the bytes between start and end, the buffer's position is unchanged.
+     */
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer records = buffer.duplicate();
+        records.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        return (int)crc.getValue();
+    }
+
+    private static boolean isValid(int stateIndex, int action, int nextStateIndex, QFunction qFunction)
+    {
+        return stateIndex >= 0 && stateIndex < qFunction.getStateCount()
+                && nextStateIndex >= 0 && nextStateIndex < qFunction.getStateCount()
+                && action >= 0 && action < qFunction.getActionCount();
+    }
+}
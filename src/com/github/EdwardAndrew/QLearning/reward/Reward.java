@@ -0,0 +1,37 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.reward;
+
+/***
+ * The events the robot is rewarded or punished for.
+ */
+public enum Reward {
+
+    HIT_WALL(-7),
+    HIT_BY_BULLET(-7),
+    HIT_ROBOT(-7),
+    BULLET_HIT(5),
+    DEATH(-15),
+    WIN(15);
+
+    private float value;
+
+    /***
+     * Constructor, value is added to the reward when the event happens.
+     * @param value
+     */
+    Reward(float value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Get the reward for this event.
+     * @return Reward value, negative for punishments.
+     */
+    public float getValue()
+    {
+        return this.value;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/***
+ * Compares how many battles the one step update and Q(lambda) take to
+ * learn a good policy.
+ *
+ * Trains a fresh table for every lambda and seed, and every so often
+ * measures how often the greedy policy wins. The greedy policy is played
+ * on a copy of the table, so measuring doesn't add to the training.
+ * A run has converged once it wins as often as the first lambda does by
+ * the end of its training, less the tolerance. Takes the same options as
+ * the Simulator, plus:
+ * <pre>
+ *   [--lambdas 0,0.5,0.8,0.9]     lambdas to compare, the first is the baseline
+ *   [--seeds 3]                   training runs for each lambda
+ *   [--evaluate-every 500]        training episodes between measurements
+ *   [--evaluation-episodes 500]   episodes played greedily for each measurement
+ *   [--tolerance 0.02]            how far below the baseline's final win rate counts as converged
+ * </pre>
+ * Prints each run's learning curve, then a summary for each lambda, as CSV.
+ */
+public class ConvergenceReport extends Simulator {
+
+    float[] lambdas = {0, 0.5f, 0.8f, 0.9f};
+    int seeds = 3;
+    long evaluateEvery = 500;
+    int evaluationEpisodes = 500;
+    double tolerance = 0.02;
+
+    public static void main(String[] args)
+    {
+        ConvergenceReport report = new ConvergenceReport();
+        report.episodes = 20000;
+        report.epsilonDecrement = 0.00005f;
+        report.parse(args);
+        report.runReport();
+    }
+
+    @Override boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--lambdas": lambdas = parseLambdas(value); break;
+            case "--seeds": seeds = Integer.parseInt(value); break;
+            case "--evaluate-every": evaluateEvery = Long.parseLong(value); break;
+            case "--evaluation-episodes": evaluationEpisodes = Integer.parseInt(value); break;
+            case "--tolerance": tolerance = Double.parseDouble(value); break;
+            default: return super.parseOption(name, value);
+        }
+        return true;
+    }
+
+    /**
+     * Trains every lambda with every seed and prints the results.
+     */
+    void runReport()
+    {
+        if (tileCoding || !QFunctions.DENSE.equals(backend)) throw new IllegalArgumentException("The report compares dense tables only.");
+
+        int checkpoints = (int)(episodes / evaluateEvery);
+        if (checkpoints == 0) throw new IllegalArgumentException("--episodes must be at least --evaluate-every.");
+
+        double[][][] curves = new double[lambdas.length][seeds][];
+        double[][] seconds = new double[lambdas.length][seeds];
+
+        System.out.println("lambda,seed,episodes,greedy win rate");
+        for (int l = 0; l < lambdas.length; l++)
+        {
+            lambda = lambdas[l];
+            for (int s = 0; s < seeds; s++)
+            {
+                Run run = train(seed + s, checkpoints);
+                curves[l][s] = run.winRates;
+                seconds[l][s] = run.seconds;
+                for (int checkpoint = 0; checkpoint < checkpoints; checkpoint++)
+                {
+                    System.out.printf("%.2f,%d,%d,%.4f%n", lambda, seed + s, (checkpoint + 1) * evaluateEvery, run.winRates[checkpoint]);
+                }
+            }
+        }
+
+        // The baseline's win rate by the end of training, averaged over the last few measurements and the seeds.
+        int tail = Math.min(3, checkpoints);
+        double baseline = 0;
+        for (int s = 0; s < seeds; s++)
+        {
+            for (int checkpoint = checkpoints - tail; checkpoint < checkpoints; checkpoint++)
+            {
+                baseline += curves[0][s][checkpoint] / (tail * seeds);
+            }
+        }
+        double target = baseline - tolerance;
+
+        System.out.println();
+        System.out.printf("Converged means a greedy win rate of at least %.4f, the final win rate of lambda %.2f less %.2f%n", target, lambdas[0], tolerance);
+        System.out.println("lambda,median episodes to converge,converged runs,final greedy win rate,training episodes/s");
+        for (int l = 0; l < lambdas.length; l++)
+        {
+            long[] converged = new long[seeds];
+            int convergedRuns = 0;
+            double finalWinRate = 0;
+            double trainingSeconds = 0;
+            for (int s = 0; s < seeds; s++)
+            {
+                converged[s] = Long.MAX_VALUE;
+                for (int checkpoint = 0; checkpoint < checkpoints; checkpoint++)
+                {
+                    if (curves[l][s][checkpoint] >= target)
+                    {
+                        converged[s] = (checkpoint + 1) * evaluateEvery;
+                        convergedRuns++;
+                        break;
+                    }
+                }
+                for (int checkpoint = checkpoints - tail; checkpoint < checkpoints; checkpoint++)
+                {
+                    finalWinRate += curves[l][s][checkpoint] / (tail * seeds);
+                }
+                trainingSeconds += seconds[l][s];
+            }
+
+            Arrays.sort(converged);
+            long median = converged[seeds / 2];
+            System.out.printf("%.2f,%s,%d/%d,%.4f,%.0f%n", lambdas[l], median == Long.MAX_VALUE ? "never" : Long.toString(median),
+                    convergedRuns, seeds, finalWinRate, seeds * checkpoints * evaluateEvery / trainingSeconds);
+        }
+    }
+
+    /**
+     * Trains a fresh table with the current lambda, measuring the greedy policy along the way.
+     * @param runSeed Seed for the training battles.
+     * @param checkpoints Number of measurements.
+     * @return The learning curve.
+     */
+    Run train(long runSeed, int checkpoints)
+    {
+        QTable qTable = QLearningController.createQTable(stateLayout);
+        SplittableRandom random = new SplittableRandom(runSeed);
+        QLearningController learner = new QLearningController(qTable, stateLayout, random.split());
+        learner.setTraces(createTraces());
+        learner.setPlanner(createPlanner(qTable), planningBackups);
+        learner.setDecisionTicks(decisionTicks);
+        learner.setEpsilon(epsilon);
+        learner.setEpsilonDecrement(epsilonDecrement);
+        SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                learner, ScriptedOpponent.create(opponent), random.split());
+
+        Run run = new Run();
+        run.winRates = new double[checkpoints];
+        QTable copy = QLearningController.createQTable(stateLayout);
+        for (int checkpoint = 0; checkpoint < checkpoints; checkpoint++)
+        {
+            long start = System.nanoTime();
+            for (long episode = 0; episode < evaluateEvery; episode++)
+            {
+                battle.runRound();
+                // The robot normalises at the end of every round.
+                qTable.normalise(99.99f);
+            }
+            run.seconds += (System.nanoTime() - start) / 1e9;
+
+            qTable.copyTo(copy);
+            run.winRates[checkpoint] = evaluate(copy, runSeed);
+        }
+        return run;
+    }
+
+    /**
+     * Plays the table's greedy policy. The same seed always plays the same opponents.
+     * @return The fraction of episodes won.
+     */
+    double evaluate(QTable qTable, long evaluationSeed)
+    {
+        SplittableRandom random = new SplittableRandom(evaluationSeed ^ 0x5DEECE66DL);
+        QLearningController player = new QLearningController(qTable, stateLayout, random.split());
+        player.setEpsilon(0);
+        player.setDecisionTicks(decisionTicks);
+        SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                player, ScriptedOpponent.create(opponent), random.split());
+
+        int wins = 0;
+        for (int episode = 0; episode < evaluationEpisodes; episode++)
+        {
+            if (battle.runRound() == 0) wins++;
+        }
+        return (double)wins / evaluationEpisodes;
+    }
+
+    private static float[] parseLambdas(String value)
+    {
+        String[] tokens = value.split(",");
+        float[] values = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+        {
+            values[i] = Float.parseFloat(tokens[i].trim());
+        }
+        return values;
+    }
+
+    /***
+     * One training run's learning curve.
+     */
+    static class Run {
+        double[] winRates;
+        double seconds;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+/***
+ * Drives into the top left corner and fires from there, using less
+ * power the further away the enemy is. Modelled on the Corners
+ * sample robot.
+ */
+public class CornersOpponent extends ScriptedOpponent {
+
+    @Override public void onRoundStarted(SimulatedBattle battle, SimulatedRobot self) {}
+
+    @Override public void onTick(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        double cornerX = SimulatedRobot.HALF_SIZE;
+        double cornerY = battle.getBattleFieldHeight() - SimulatedRobot.HALF_SIZE;
+        double dx = cornerX - self.getX();
+        double dy = cornerY - self.getY();
+        double distanceToCorner = Math.sqrt(dx * dx + dy * dy);
+
+        if (distanceToCorner > 1)
+        {
+            self.setTurnTowards(Math.toDegrees(Math.atan2(dx, dy)));
+            // Wait until facing the corner before driving towards it.
+            self.setAhead(Math.abs(self.getTurnRemaining()) < 10 ? distanceToCorner : 0);
+        }
+
+        double distance = self.getDistanceTo(enemy);
+        double power = self.getEnergy() < 15 || distance > 200 ? 1 : distance > 50 ? 2 : 3;
+        self.setTurnGunTowards(self.getBearingTo(enemy));
+        fireWhenAimed(self, enemy, power, 2);
+    }
+}
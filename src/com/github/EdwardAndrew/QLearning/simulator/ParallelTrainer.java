@@ -0,0 +1,224 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import com.github.EdwardAndrew.QLearning.table.SharedQTable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Trains one QTable with several simulated battles running in parallel.
+ *
+ * Every worker has its own battle, random number generator and epsilon
+ * schedule, and they all learn into the same table through a
+ * SharedQTable. Takes the same options as the Simulator, plus:
+ * <pre>
+ *   [--workers 32]       number of worker threads, defaults to the number of cores
+ *   [--lock-stripes 256] number of locks shared between the table's rows
+ *   [--scaling true]     report throughput for 1, 2, 4 ... workers instead of saving a table
+ * </pre>
+ */
+public class ParallelTrainer extends Simulator {
+
+    int workers = Runtime.getRuntime().availableProcessors();
+    int lockStripes = 256;
+    boolean scaling = false;
+
+    public static void main(String[] args) throws IOException
+    {
+        ParallelTrainer trainer = new ParallelTrainer();
+        trainer.parse(args);
+
+        if (trainer.scaling)
+        {
+            trainer.runScaling();
+        }
+        else
+        {
+            trainer.run();
+        }
+    }
+
+    @Override boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--workers": workers = Integer.parseInt(value); break;
+            case "--lock-stripes": lockStripes = Integer.parseInt(value); break;
+            case "--scaling": scaling = Boolean.parseBoolean(value); break;
+            default: return super.parseOption(name, value);
+        }
+        return true;
+    }
+
+    /**
+     * Loads the starting table if there is one, trains it and saves the result.
+     * @throws IOException If the table can't be loaded or saved.
+     */
+    @Override void run() throws IOException
+    {
+        if (!QFunctions.DENSE.equals(backend)) throw new IllegalArgumentException("--backend " + backend + " isn't supported, only a dense table can be shared between threads.");
+        if (tileCoding) throw new IllegalArgumentException("--learner tiles isn't supported, only tables can be shared between threads.");
+        if (planningBackups > 0) throw new IllegalArgumentException("--planning-backups isn't supported, the planner's model can't be shared between threads.");
+
+        QTable qTable = QLearningController.createQTable(stateLayout);
+        if (input != null)
+        {
+            epsilon = QTableFile.load(input, qTable);
+        }
+
+        Result result = train(qTable, workers);
+        // Workers don't normalise while sharing the table, so do it once at the end.
+        qTable.normalise(99.99f);
+
+        try (FileOutputStream outputStream = new FileOutputStream(output))
+        {
+            QTableFile.write(qTable, result.epsilon, outputStream);
+        }
+
+        System.out.printf("%d episodes against %s on %d workers in %.1fs (%.0f episodes/s, %.0f updates/s), won %.1f%%, epsilon %.5f%n",
+                result.episodes, opponent, workers, result.seconds, result.episodes / result.seconds, result.updates / result.seconds,
+                100.0 * result.wins / result.episodes, result.epsilon);
+        System.out.println("Saved " + output.getPath());
+    }
+
+    /**
+     * Trains a fresh table with 1, 2, 4 ... workers, up to the configured
+     * number, and prints the throughput of each.
+     */
+    void runScaling()
+    {
+        System.out.println("workers,episodes/s,updates/s,ticks/s,speedup");
+
+        double baseline = 0;
+        for (int workerCount = 1; workerCount <= workers; workerCount = workerCount == workers ? workers + 1 : Math.min(workers, workerCount * 2))
+        {
+            Result result = train(QLearningController.createQTable(stateLayout), workerCount);
+            double episodesPerSecond = result.episodes / result.seconds;
+            if (workerCount == 1) baseline = episodesPerSecond;
+
+            System.out.printf("%d,%.0f,%.0f,%.0f,%.2f%n", workerCount, episodesPerSecond, result.updates / result.seconds,
+                    result.ticks / result.seconds, episodesPerSecond / baseline);
+        }
+    }
+
+    /**
+     * Runs the configured number of episodes, shared between the workers.
+     * @param qTable The table to learn into.
+     * @param workerCount Number of worker threads.
+     * @return Totals over all workers.
+     */
+    Result train(QTable qTable, int workerCount)
+    {
+        SharedQTable sharedQTable = new SharedQTable(qTable, lockStripes);
+        SplittableRandom random = new SplittableRandom(seed);
+        AtomicLong nextEpisode = new AtomicLong();
+
+        Worker[] workerList = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++)
+        {
+            QLearningController learner = new QLearningController(sharedQTable, stateLayout, random.split());
+            // Each worker traces its own decisions.
+            learner.setTraces(createTraces());
+            learner.setDecisionTicks(decisionTicks);
+            learner.setEpsilon(epsilon);
+            // Each worker sees 1/workerCount of the episodes, so epsilon ends where a single run would.
+            learner.setEpsilonDecrement(epsilonDecrement * workerCount);
+
+            SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                    learner, ScriptedOpponent.create(opponent), random.split());
+            workerList[i] = new Worker(battle, learner, nextEpisode, episodes);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(workerCount);
+        long start = System.nanoTime();
+        try
+        {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workerCount];
+            for (int i = 0; i < workerCount; i++)
+            {
+                tasks[i] = pool.submit(workerList[i]);
+            }
+            for (ForkJoinTask<?> task : tasks)
+            {
+                task.get();
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            throw new IllegalStateException("Training failed.", e);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        Result result = new Result();
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        for (Worker worker : workerList)
+        {
+            result.episodes += worker.episodes;
+            result.wins += worker.wins;
+            result.ticks += worker.ticks;
+            result.updates += worker.learner.getUpdateCount();
+            result.epsilon += worker.learner.getEpsilon() / workerCount;
+        }
+        return result;
+    }
+
+    /***
+     * Fights episodes until the shared episode count runs out.
+     */
+    private static class Worker implements Runnable {
+
+        private final SimulatedBattle battle;
+        private final QLearningController learner;
+        private final AtomicLong nextEpisode;
+        private final long totalEpisodes;
+
+        long episodes = 0;
+        long wins = 0;
+        long ticks = 0;
+
+        Worker(SimulatedBattle battle, QLearningController learner, AtomicLong nextEpisode, long totalEpisodes)
+        {
+            this.battle = battle;
+            this.learner = learner;
+            this.nextEpisode = nextEpisode;
+            this.totalEpisodes = totalEpisodes;
+        }
+
+        @Override public void run()
+        {
+            while (nextEpisode.getAndIncrement() < totalEpisodes)
+            {
+                if (battle.runRound() == 0) wins++;
+                ticks += battle.getTime();
+                episodes++;
+            }
+        }
+    }
+
+    /***
+     * Totals from a training run.
+     */
+    static class Result {
+        long episodes;
+        long wins;
+        long ticks;
+        long updates;
+        double seconds;
+        float epsilon;
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.action.Action;
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunction;
+import com.github.EdwardAndrew.QLearning.action.WallEscape;
+import com.github.EdwardAndrew.QLearning.planning.PrioritizedSweeping;
+import com.github.EdwardAndrew.QLearning.reward.Reward;
+import com.github.EdwardAndrew.QLearning.state.Observation;
+import com.github.EdwardAndrew.QLearning.state.Quantisation;
+import com.github.EdwardAndrew.QLearning.state.StateLayout;
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.targeting.LeadTargeting;
+import com.github.EdwardAndrew.QLearning.traces.EligibilityTraces;
+
+import java.util.SplittableRandom;
+
+/***
+ * The QLearningRobot's behaviour, driving a simulated robot.
+ *
+ * A decision is made whenever the previous <code>ahead(100)</code> has
+ * finished, exactly as in the robot's <code>run()</code> loop, using the
+ * same states, actions and rewards. The gun aims and fires as the robot's
+ * <code>onScannedRobot</code> does, with the enemy always in view.
+ *
+ * Values are either learnt into a table, one row per state, or
+ * approximated from tile-coded observations by a LinearQFunction.
+ */
+public class QLearningController implements SimulatedController {
+
+    // Grid used to decide which way to escape from a wall, whatever the state layout.
+    public static final int WALL_GRID_SIZE = 10;
+    // Total number of action choices.
+    public static final int ACTION_COUNT = Action.values().length;
+
+    private static final Action[] ACTIONS = Action.values();
+
+    // Null when the values are approximated.
+    private final QFunction qTable;
+    private final StateLayout stateLayout;
+    // Null when the values are in a table.
+    private final LinearQFunction linearFunction;
+    // Traces of recent decisions for Q(lambda), null for the one step update.
+    private EligibilityTraces traces;
+    // Model of the transitions seen, planned from every tick. Null to not plan.
+    private PrioritizedSweeping planner;
+    // Planning backups made each tick, in place of the robot's time budget.
+    private int planningBackups = 0;
+    private final SplittableRandom random;
+
+    // Discount factor.
+    private float gamma = 0.9f;
+    // Learning parameter.
+    private float alpha = 0.5f;
+    // value of 1 means random action will be taken 100% of the time
+    private float epsilon = 1.0f;
+    // How much to decrement the epsilon by after each battle.
+    private float epsilonDecrement = 0.00001f;
+    // The epsilon won't go lower than this.
+    private float epsilonLowerLimit = 0.01f;
+
+    // What the robot can see, indexed by Observation.ordinal().
+    private final double[] observations = new double[Observation.values().length];
+    // The robot's square in the wall escape grid.
+    private int xState = 0;
+    private int yState = 0;
+    private double enemyDistance = 0;
+    // The enemy's heading last tick, to work out how fast it's turning.
+    private double lastEnemyHeading = Double.NaN;
+
+    // The decision currently being carried out, -1 before the first one.
+    // With tile coding the state is decisionTiles, and the index is 0.
+    private int decisionStateIndex = -1;
+    private int decisionAction = 0;
+    // Active tiles of the decision's state, and of the current state.
+    private int[] decisionTiles;
+    private int[] currentTiles;
+
+    // Reward received since the current decision was made.
+    private float reward = 0.0f;
+
+    // Ticks between decisions, as the robot's decision.ticks. 0 decides each time ahead(100) finishes.
+    private int decisionTicks = 0;
+    private int ticksUntilDecision = 0;
+
+    // Set by onHitWall, and carried out on the next tick.
+    private boolean escaping = false;
+    private double escapeBearing = Double.NaN;
+
+    // Number of QValue updates made.
+    private long updateCount = 0;
+
+    /***
+     * Constructor.
+     * @param qTable The values to learn into, with the state layout's dimensions.
+     * @param stateLayout How observations are divided into states.
+     * @param random Source of the random actions.
+     */
+    public QLearningController(QFunction qTable, StateLayout stateLayout, SplittableRandom random)
+    {
+        if (qTable.getStateCount() != stateLayout.getStateCount()) throw new IllegalArgumentException("Table doesn't match the state layout.");
+
+        this.qTable = qTable;
+        this.stateLayout = stateLayout;
+        this.linearFunction = null;
+        this.random = random;
+    }
+
+    /***
+     * Constructor, for values approximated from tile-coded observations.
+     * @param linearFunction The function to learn into.
+     * @param random Source of the random actions.
+     */
+    public QLearningController(LinearQFunction linearFunction, SplittableRandom random)
+    {
+        this.qTable = null;
+        this.stateLayout = null;
+        this.linearFunction = linearFunction;
+        this.random = random;
+        this.decisionTiles = new int[linearFunction.getTileCoder().getTilingCount()];
+        this.currentTiles = new int[linearFunction.getTileCoder().getTilingCount()];
+    }
+
+    /**
+     * @param stateLayout How observations are divided into states.
+     * @return A new table with the layout's dimensions.
+     */
+    public static QTable createQTable(StateLayout stateLayout)
+    {
+        QTable qTable = new QTable(stateLayout.getStateDimensions(), ACTION_COUNT);
+        qTable.setLayout(stateLayout.getDescription());
+        return qTable;
+    }
+
+    public float getEpsilon() { return epsilon; }
+    public void setEpsilon(float epsilon) { this.epsilon = epsilon; }
+    public void setEpsilonDecrement(float epsilonDecrement) { this.epsilonDecrement = epsilonDecrement; }
+
+    /**
+     * @param decisionTicks Ticks between decisions, or 0 to decide each time ahead(100) finishes.
+     */
+    public void setDecisionTicks(int decisionTicks)
+    {
+        if (decisionTicks < 0) throw new IllegalArgumentException();
+        this.decisionTicks = decisionTicks;
+    }
+    public long getUpdateCount() { return updateCount; }
+
+    /**
+     * Learns with Watkins's Q(lambda) instead of the one step update.
+     * Only supported for tables.
+     * @param traces The traces to keep, or null for the one step update.
+     */
+    public void setTraces(EligibilityTraces traces)
+    {
+        if (traces != null && qTable == null) throw new IllegalArgumentException("Eligibility traces need a table.");
+        this.traces = traces;
+    }
+
+    /**
+     * @return The model being planned from, null if not planning.
+     */
+    public PrioritizedSweeping getPlanner() { return planner; }
+
+    /**
+     * Plans from a model of the transitions seen, as the robot does in its
+     * spare time each turn. Only supported for tables.
+     * @param planner The model to learn and plan from, or null to not plan.
+     * @param backupsPerTick Backups made each tick, so runs are repeatable.
+     */
+    public void setPlanner(PrioritizedSweeping planner, int backupsPerTick)
+    {
+        if (planner != null && qTable == null) throw new IllegalArgumentException("Planning needs a table.");
+        if (backupsPerTick < 0) throw new IllegalArgumentException();
+        this.planner = planner;
+        this.planningBackups = backupsPerTick;
+    }
+
+    @Override public void onRoundStarted(SimulatedBattle battle, SimulatedRobot self)
+    {
+        reward = 0;
+        decisionStateIndex = -1;
+        ticksUntilDecision = 0;
+        lastEnemyHeading = Double.NaN;
+    }
+
+    @Override public void onTick(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        observe(battle, self, enemy);
+
+        // The previous ahead(100) has finished, or it's time to decide again,
+        // so learn from the last decision and decide what to do next.
+        boolean deciding = decisionTicks > 0 ? ticksUntilDecision == 0 : self.getDistanceRemaining() == 0;
+        if (decisionTicks > 0)
+        {
+            ticksUntilDecision = deciding ? decisionTicks - 1 : ticksUntilDecision - 1;
+        }
+        if (deciding)
+        {
+            int stateIndex = observeState();
+            if (decisionStateIndex >= 0)
+            {
+                learn(stateIndex);
+            }
+
+            int action;
+            // If returned value is below epsilon, perform a random action. Otherwise perform learned action.
+            if (random.nextDouble() < epsilon) {
+                action = random.nextInt(ACTION_COUNT);
+                // Rewards after an exploratory action don't belong to the decisions before it.
+                if (traces != null && action != qTable.argmax(stateIndex))
+                {
+                    traces.cut();
+                }
+            } else {
+                action = linearFunction != null ? linearFunction.argmax(currentTiles) : qTable.argmax(stateIndex);
+            }
+
+            if (ACTIONS[action] != Action.STAY)
+            {
+                self.setTurnTowards(ACTIONS[action].getBearing());
+            }
+            self.setAhead(100);
+
+            decisionStateIndex = stateIndex;
+            decisionAction = action;
+            reward = 0;
+            if (linearFunction != null)
+            {
+                int[] tiles = decisionTiles;
+                decisionTiles = currentTiles;
+                currentTiles = tiles;
+            }
+        }
+
+        aim(self, enemy);
+
+        if (planner != null)
+        {
+            planner.plan(qTable, planningBackups, 0, alpha, gamma);
+        }
+    }
+
+    @Override public void onRoundEnded(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        // Learn from the final decision, so rewards for winning and dying aren't lost.
+        if (decisionStateIndex >= 0)
+        {
+            observe(battle, self, enemy);
+            learn(observeState());
+            decisionStateIndex = -1;
+        }
+        if (traces != null)
+        {
+            traces.cut();
+        }
+
+        // Decrement the epsilon value.
+        epsilon = epsilon > epsilonLowerLimit ? epsilon - epsilonDecrement : epsilon;
+    }
+
+    @Override public void onHitWall()
+    {
+        reward += Reward.HIT_WALL.getValue();
+        escapeBearing = WallEscape.getEscapeBearing(xState, yState, WALL_GRID_SIZE, WALL_GRID_SIZE);
+        escaping = true;
+    }
+
+    @Override public void onHitByBullet() { reward += Reward.HIT_BY_BULLET.getValue(); }
+    @Override public void onHitRobot() { reward += Reward.HIT_ROBOT.getValue(); }
+    @Override public void onBulletHit() { reward += Reward.BULLET_HIT.getValue(); }
+    @Override public void onDeath() { reward += Reward.DEATH.getValue(); }
+    @Override public void onWin() { reward += Reward.WIN.getValue(); }
+
+    /**
+     * Updates the observations from the robots' positions.
+     */
+    private void observe(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        enemyDistance = self.getDistanceTo(enemy);
+        observations[Observation.POSITION_X.ordinal()] = self.getX() / battle.getBattleFieldWidth();
+        observations[Observation.POSITION_Y.ordinal()] = self.getY() / battle.getBattleFieldHeight();
+        observations[Observation.ENEMY_BEARING.ordinal()] = self.getBearingTo(enemy);
+        observations[Observation.ENEMY_DISTANCE.ordinal()] = enemyDistance;
+        observations[Observation.ENEMY_HEADING.ordinal()] = enemy.getHeading();
+        observations[Observation.ENEMY_VELOCITY.ordinal()] = enemy.getVelocity();
+
+        xState = Quantisation.getQuantisedBattlefieldPosition(self.getX(), battle.getBattleFieldWidth(), WALL_GRID_SIZE);
+        yState = Quantisation.getQuantisedBattlefieldPosition(self.getY(), battle.getBattleFieldHeight(), WALL_GRID_SIZE);
+
+        if (escaping)
+        {
+            // Drive away from the wall, as the robot's onHitWall does.
+            if (!Double.isNaN(escapeBearing))
+            {
+                self.setTurnTowards(escapeBearing);
+            }
+            self.setAhead(100);
+            escaping = false;
+        }
+    }
+
+    /**
+     * Aims the gun ahead of the enemy and fires when it's lined up.
+     */
+    private void aim(SimulatedRobot self, SimulatedRobot enemy)
+    {
+        // The enemy is seen every tick.
+        double enemyTurnRate = Double.isNaN(lastEnemyHeading) ? 0 : LeadTargeting.getTurnRate(lastEnemyHeading, enemy.getHeading(), 1, enemy.getVelocity());
+        lastEnemyHeading = enemy.getHeading();
+
+        double firePower = LeadTargeting.getFirePower(enemyDistance);
+        double predictedBearing = LeadTargeting.getInterceptBearing(self.getBearingTo(enemy), enemyDistance, enemy.getHeading(), enemy.getVelocity(), enemyTurnRate, firePower);
+        self.setTurnGunTowards(predictedBearing);
+
+        // If the gun is cool, already pointing close enough to hit and not too far away. Then fire.
+        if (self.getGunHeat() == 0 && Math.abs(self.getGunTurnRemaining()) < LeadTargeting.getAimTolerance(enemyDistance) && enemyDistance < LeadTargeting.MAXIMUM_FIRING_DISTANCE)
+        {
+            self.setFire(firePower);
+        }
+    }
+
+    /**
+     * Updates the QValue of the decision that has just finished.
+     * @param outcomeStateIndex The state the decision led to. With tile coding its tiles are in currentTiles.
+     */
+    private void learn(int outcomeStateIndex)
+    {
+        if (linearFunction != null)
+        {
+            linearFunction.update(decisionTiles, decisionAction, reward, currentTiles, alpha, gamma);
+        }
+        else if (traces != null)
+        {
+            traces.update(qTable, decisionStateIndex, decisionAction, reward, outcomeStateIndex, alpha, gamma);
+        }
+        else
+        {
+            qTable.update(decisionStateIndex, decisionAction, reward, outcomeStateIndex, alpha, gamma);
+        }
+        if (planner != null)
+        {
+            planner.observe(qTable, decisionStateIndex, decisionAction, reward, outcomeStateIndex, gamma);
+        }
+        updateCount++;
+    }
+
+    /**
+     * Works out the current state from the observations.
+     * @return Index of the state's row in the table. With tile coding the
+     *         state's active tiles are put in currentTiles instead, and 0 is returned.
+     */
+    private int observeState()
+    {
+        if (linearFunction != null)
+        {
+            linearFunction.getTileCoder().getTiles(observations, currentTiles);
+            return 0;
+        }
+        return stateLayout.getStateIndex(observations);
+    }
+}
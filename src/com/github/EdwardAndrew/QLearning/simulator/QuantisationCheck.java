@@ -0,0 +1,306 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.table.PersistentQFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/***
+ * Checks the quantised tables pick the same actions as the float table.
+ *
+ * Each dense table is converted to int8 and float16, and for every state
+ * the float table has learnt something about, the quantised table's best
+ * action is compared with the float table's. It agrees if the float table
+ * values the action it picks as highly as its own best action, so ties
+ * broken a different way still agree. The tables are given with
+ * <code>--tables</code>, and a table is also trained for
+ * <code>--episodes</code> against the opponent.
+ *
+ * The same seed is then trained from scratch with each backend, and the
+ * greedy policies played, to check learning with rounded values works
+ * as well as with floats.
+ *
+ * Last, each backend is normalised round after round, as over a long
+ * training run, with a value pushed past the limit before each round so
+ * the scale keeps shrinking, and saved and reloaded along the way. Its
+ * values must stay finite and close to a float table's that went through
+ * the same. Takes the same options as the Simulator, plus:
+ * <pre>
+ *   [--tables SpinBot/QValues.data,Corners/QValues.data]   dense tables to convert
+ *   [--threshold 0.95]             lowest agreement that passes
+ *   [--evaluation-episodes 1000]   episodes played greedily for each backend
+ *   [--long-run-rounds 20000]      rounds normalised in the long run
+ * </pre>
+ * Exits with status 1 if any table agrees less often than the threshold,
+ * or drifts from the float table in the long run.
+ */
+public class QuantisationCheck extends Simulator {
+
+    private static final String[] BACKENDS = {QFunctions.INT8, QFunctions.FLOAT16};
+
+    List<File> tables = new ArrayList<>();
+    double threshold = 0.95;
+    int evaluationEpisodes = 1000;
+    int longRunRounds = 20000;
+    // Furthest a value may end up from the float table's in the long run, 5% of the
+    // limit for int8's two significant figures and 1% for float16's three.
+    private static final float INT8_TOLERANCE = 5f;
+    private static final float FLOAT16_TOLERANCE = 1f;
+
+    public static void main(String[] args) throws IOException
+    {
+        QuantisationCheck check = new QuantisationCheck();
+        check.episodes = 20000;
+        check.epsilonDecrement = 0.00005f;
+        check.parse(args);
+        if (!check.runCheck()) System.exit(1);
+    }
+
+    @Override boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--tables":
+                for (String path : value.split(","))
+                {
+                    tables.add(new File(path.trim()));
+                }
+                break;
+            case "--threshold": threshold = Double.parseDouble(value); break;
+            case "--evaluation-episodes": evaluationEpisodes = Integer.parseInt(value); break;
+            case "--long-run-rounds": longRunRounds = Integer.parseInt(value); break;
+            default: return super.parseOption(name, value);
+        }
+        return true;
+    }
+
+    /**
+     * Converts every table, then trains and plays each backend.
+     * @return true if every table agrees at least as often as the threshold.
+     * @throws IOException If a table can't be read.
+     */
+    boolean runCheck() throws IOException
+    {
+        boolean passed = true;
+
+        System.out.println("table,backend,states,agreement,mean regret,memory bytes,file bytes");
+        for (File file : tables)
+        {
+            QTable qTable = QLearningController.createQTable(stateLayout);
+            qTable.read(file);
+            passed &= compare(file.getPath(), qTable);
+        }
+        if (episodes > 0)
+        {
+            QTable trained = (QTable)train(QFunctions.DENSE);
+            passed &= compare("trained " + opponent + " seed " + seed, trained);
+
+            System.out.println();
+            System.out.println("backend,greedy win rate after " + episodes + " episodes");
+            System.out.printf("%s,%.4f%n", QFunctions.DENSE, evaluate(trained));
+            for (String backend : BACKENDS)
+            {
+                System.out.printf("%s,%.4f%n", backend, evaluate(train(backend)));
+            }
+        }
+
+        if (longRunRounds > 0)
+        {
+            System.out.println();
+            System.out.println("backend,rounds,largest difference,non-finite values");
+            for (String backend : BACKENDS)
+            {
+                passed &= checkLongRun(backend);
+            }
+        }
+
+        System.out.println();
+        System.out.println(passed ? "Passed, agreement is at least " + threshold + " and the long run stayed finite"
+                : "Failed, agreement is below " + threshold + " or the long run drifted");
+        return passed;
+    }
+
+    /**
+     * Prints how often each backend agrees with the float table.
+     * @return true if every backend agrees at least as often as the threshold.
+     */
+    private boolean compare(String name, QTable qTable)
+    {
+        boolean passed = true;
+        System.out.printf("%s,%s,%d,,,%d,%d%n", name, QFunctions.DENSE, countLearntStates(qTable),
+                qTable.getMemoryUsage(), qTable.getFileSize());
+        for (String backend : BACKENDS)
+        {
+            PersistentQFunction quantised = createTable(backend);
+            quantised.copyFrom(qTable);
+
+            int states = 0;
+            int agreed = 0;
+            double regret = 0;
+            for (int stateIndex = 0; stateIndex < qTable.getStateCount(); stateIndex++)
+            {
+                if (!isLearnt(qTable, stateIndex)) continue;
+
+                float best = qTable.max(stateIndex);
+                float picked = qTable.get(stateIndex, quantised.argmax(stateIndex));
+                states++;
+                if (picked == best) agreed++;
+                regret += best - picked;
+            }
+
+            double agreement = states == 0 ? 1 : (double)agreed / states;
+            passed &= agreement >= threshold;
+            System.out.printf("%s,%s,%d,%.4f,%.4f,%d,%d%n", name, backend, states, agreement, states == 0 ? 0 : regret / states,
+                    quantised.getMemoryUsage(), quantised.getFileSize());
+        }
+        return passed;
+    }
+
+    /**
+     * Normalises a table of the backend and a float table longRunRounds
+     * times. Before each round both learn the same updates, one of which
+     * pushes the largest value past the limit, so normalising shrinks the
+     * scale every round. Every 1000 rounds the quantised table is saved
+     * and reloaded.
+     * @return true if every value is finite and within the tolerance of the float table's.
+     * @throws IOException If the table can't be saved or reloaded.
+     */
+    private boolean checkLongRun(String backend) throws IOException
+    {
+        PersistentQFunction quantised = createTable(backend);
+        QTable floats = QLearningController.createQTable(stateLayout);
+        int stateCount = floats.getStateCount();
+        int actionCount = floats.getActionCount();
+        File file = File.createTempFile("QValues", "." + backend);
+        try
+        {
+            for (int round = 1; round <= longRunRounds; round++)
+            {
+                // Fill the table with ordinary values, then push the largest a little past the limit.
+                int stateIndex = (int)((round * 2654435761L) % stateCount);
+                int action = round % actionCount;
+                floats.update(stateIndex, action, 50, stateIndex, 0.5f, 0.9f);
+                quantised.update(stateIndex, action, 50, stateIndex, 0.5f, 0.9f);
+                floats.update(0, 0, 102, stateIndex, 0.5f, 0.9f);
+                quantised.update(0, 0, 102, stateIndex, 0.5f, 0.9f);
+                floats.normalise(99.99f);
+                quantised.normalise(99.99f);
+
+                if (round % 1000 == 0)
+                {
+                    try (FileOutputStream outputStream = new FileOutputStream(file))
+                    {
+                        quantised.write(0, outputStream);
+                    }
+                    quantised = createTable(backend);
+                    quantised.read(file);
+                }
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        float largestDifference = 0;
+        int nonFinite = 0;
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                float value = quantised.get(stateIndex, action);
+                if (!Float.isFinite(value))
+                {
+                    nonFinite++;
+                    continue;
+                }
+                largestDifference = Math.max(largestDifference, Math.abs(value - floats.get(stateIndex, action)));
+            }
+        }
+        System.out.printf("%s,%d,%.4f,%d%n", backend, longRunRounds, largestDifference, nonFinite);
+        return nonFinite == 0 && largestDifference <= (QFunctions.INT8.equals(backend) ? INT8_TOLERANCE : FLOAT16_TOLERANCE);
+    }
+
+    /**
+     * Trains a fresh table of a backend with the current seed, as the Simulator does.
+     */
+    private PersistentQFunction train(String backend)
+    {
+        PersistentQFunction qTable = createTable(backend);
+        SplittableRandom random = new SplittableRandom(seed);
+        QLearningController learner = new QLearningController(qTable, stateLayout, random.split());
+        learner.setTraces(createTraces());
+        learner.setPlanner(createPlanner(qTable), planningBackups);
+        learner.setDecisionTicks(decisionTicks);
+        learner.setEpsilon(epsilon);
+        learner.setEpsilonDecrement(epsilonDecrement);
+        SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                learner, ScriptedOpponent.create(opponent), random.split());
+
+        for (long episode = 0; episode < episodes; episode++)
+        {
+            battle.runRound();
+            // The robot normalises its table at the end of every round.
+            qTable.normalise(99.99f);
+        }
+        return qTable;
+    }
+
+    /**
+     * Plays the table's greedy policy. Every backend plays the same opponents.
+     * @return The fraction of episodes won.
+     */
+    private double evaluate(QFunction qTable)
+    {
+        SplittableRandom random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        QLearningController player = new QLearningController(qTable, stateLayout, random.split());
+        player.setEpsilon(0);
+        player.setDecisionTicks(decisionTicks);
+        SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                player, ScriptedOpponent.create(opponent), random.split());
+
+        int wins = 0;
+        for (int episode = 0; episode < evaluationEpisodes; episode++)
+        {
+            if (battle.runRound() == 0) wins++;
+        }
+        return (double)wins / evaluationEpisodes;
+    }
+
+    private PersistentQFunction createTable(String backend)
+    {
+        return QFunctions.create(backend, stateLayout.getStateDimensions(), QLearningController.ACTION_COUNT, stateLayout.getDescription());
+    }
+
+    private static int countLearntStates(QTable qTable)
+    {
+        int states = 0;
+        for (int stateIndex = 0; stateIndex < qTable.getStateCount(); stateIndex++)
+        {
+            if (isLearnt(qTable, stateIndex)) states++;
+        }
+        return states;
+    }
+
+    /**
+     * @return true if any of the state's values isn't zero.
+     */
+    private static boolean isLearnt(QTable qTable, int stateIndex)
+    {
+        for (int action = 0; action < qTable.getActionCount(); action++)
+        {
+            if (qTable.get(stateIndex, action) != 0) return true;
+        }
+        return false;
+    }
+}
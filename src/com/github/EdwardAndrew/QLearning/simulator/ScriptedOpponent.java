@@ -0,0 +1,43 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.state.Quantisation;
+
+/***
+ * Base class for the simple opponents the simulator trains against.
+ */
+public abstract class ScriptedOpponent implements SimulatedController {
+
+    /**
+     * Fires if the gun is cool and pointing at the enemy.
+     * @param self The opponent's robot.
+     * @param enemy The robot being fired at.
+     * @param power Fire power.
+     * @param tolerance How many degrees the gun may be off target.
+     */
+    protected static void fireWhenAimed(SimulatedRobot self, SimulatedRobot enemy, double power, double tolerance)
+    {
+        double error = Quantisation.normaliseBearing(self.getBearingTo(enemy) - self.getGunHeading());
+        if (self.getGunHeat() == 0 && Math.abs(error) <= tolerance)
+        {
+            self.setFire(power);
+        }
+    }
+
+    /**
+     * @param name Name of an opponent, as used on the command line.
+     * @return A new opponent of that kind.
+     */
+    public static ScriptedOpponent create(String name)
+    {
+        switch (name.toLowerCase())
+        {
+            case "spinbot": return new SpinOpponent();
+            case "corners": return new CornersOpponent();
+            case "walls": return new WallsOpponent();
+            default: throw new IllegalArgumentException("Unknown opponent: " + name);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import java.util.SplittableRandom;
+
+/***
+ * A one on one battle, simulated without the Robocode engine.
+ *
+ * Each tick the controllers issue commands, guns fire, robots turn and
+ * move, collisions with walls and each other are resolved, and bullets
+ * travel. Events are delivered to the controllers as they happen.
+ * Bullets are held in parallel arrays so fighting creates no garbage.
+ */
+public class SimulatedBattle {
+
+    // More bullets than can be in flight at once with a gun heat of at least 1.02.
+    private static final int MAX_BULLETS = 128;
+
+    private final double battleFieldWidth;
+    private final double battleFieldHeight;
+    private final int maximumTicks;
+    private final SplittableRandom random;
+
+    private final SimulatedRobot[] robots = {new SimulatedRobot(), new SimulatedRobot()};
+    private final SimulatedController[] controllers;
+
+    // Positions at the start of the tick, restored when robots collide.
+    private final double[] previousX = new double[2];
+    private final double[] previousY = new double[2];
+
+    private final double[] bulletX = new double[MAX_BULLETS];
+    private final double[] bulletY = new double[MAX_BULLETS];
+    private final double[] bulletDeltaX = new double[MAX_BULLETS];
+    private final double[] bulletDeltaY = new double[MAX_BULLETS];
+    private final double[] bulletPower = new double[MAX_BULLETS];
+    private final int[] bulletOwner = new int[MAX_BULLETS];
+    private int bulletCount = 0;
+
+    private int time = 0;
+
+    /***
+     * Constructor.
+     * @param battleFieldWidth Width of the battlefield.
+     * @param battleFieldHeight Height of the battlefield.
+     * @param maximumTicks A round ends in a draw after this many ticks.
+     * @param first Controller for the first robot.
+     * @param second Controller for the second robot.
+     * @param random Used for the starting positions.
+     */
+    public SimulatedBattle(double battleFieldWidth, double battleFieldHeight, int maximumTicks,
+                           SimulatedController first, SimulatedController second, SplittableRandom random)
+    {
+        this.battleFieldWidth = battleFieldWidth;
+        this.battleFieldHeight = battleFieldHeight;
+        this.maximumTicks = maximumTicks;
+        this.controllers = new SimulatedController[] {first, second};
+        this.random = random;
+    }
+
+    public double getBattleFieldWidth() { return battleFieldWidth; }
+    public double getBattleFieldHeight() { return battleFieldHeight; }
+
+    /**
+     * @return Number of ticks since the round started.
+     */
+    public int getTime() { return time; }
+
+    /**
+     * @param index 0 for the first robot, 1 for the second.
+     * @return The robot's body.
+     */
+    public SimulatedRobot getRobot(int index) { return robots[index]; }
+
+    /**
+     * Fights one round.
+     * @return Index of the robot that won, or -1 for a draw.
+     */
+    public int runRound()
+    {
+        startRound();
+
+        int winner = -1;
+        while (time < maximumTicks)
+        {
+            tick();
+
+            boolean firstAlive = robots[0].isAlive();
+            boolean secondAlive = robots[1].isAlive();
+            if (!firstAlive || !secondAlive)
+            {
+                if (!firstAlive) controllers[0].onDeath();
+                if (!secondAlive) controllers[1].onDeath();
+                if (firstAlive) { controllers[0].onWin(); winner = 0; }
+                if (secondAlive) { controllers[1].onWin(); winner = 1; }
+                break;
+            }
+        }
+
+        controllers[0].onRoundEnded(this, robots[0], robots[1]);
+        controllers[1].onRoundEnded(this, robots[1], robots[0]);
+        return winner;
+    }
+
+    /**
+     * Places both robots at random, non overlapping positions.
+     */
+    private void startRound()
+    {
+        time = 0;
+        bulletCount = 0;
+
+        double margin = SimulatedRobot.HALF_SIZE;
+        for (int i = 0; i < robots.length; i++)
+        {
+            double x;
+            double y;
+            do
+            {
+                x = margin + random.nextDouble() * (battleFieldWidth - 2 * margin);
+                y = margin + random.nextDouble() * (battleFieldHeight - 2 * margin);
+            }
+            while (i == 1 && overlaps(x, y, robots[0].x, robots[0].y));
+
+            double heading = random.nextDouble() * 360;
+            robots[i].reset(x, y, heading, heading);
+        }
+
+        controllers[0].onRoundStarted(this, robots[0]);
+        controllers[1].onRoundStarted(this, robots[1]);
+    }
+
+    /**
+     * Advances the battle by one tick.
+     */
+    private void tick()
+    {
+        controllers[0].onTick(this, robots[0], robots[1]);
+        controllers[1].onTick(this, robots[1], robots[0]);
+
+        for (int i = 0; i < robots.length; i++)
+        {
+            fire(i);
+            robots[i].turn();
+            previousX[i] = robots[i].x;
+            previousY[i] = robots[i].y;
+            robots[i].move();
+            checkWallCollision(i);
+        }
+        checkRobotCollision();
+        moveBullets();
+
+        time++;
+    }
+
+    /**
+     * Fires the robot's gun if it asked to and the gun is cool.
+     */
+    private void fire(int owner)
+    {
+        SimulatedRobot robot = robots[owner];
+        double power = Math.max(0.1, Math.min(3, Math.min(robot.firePower, robot.energy)));
+
+        if (robot.firePower > 0 && robot.gunHeat == 0 && bulletCount < MAX_BULLETS)
+        {
+            double speed = 20 - 3 * power;
+            double gunHeadingRadians = Math.toRadians(robot.gunHeading);
+
+            bulletX[bulletCount] = robot.x;
+            bulletY[bulletCount] = robot.y;
+            bulletDeltaX[bulletCount] = Math.sin(gunHeadingRadians) * speed;
+            bulletDeltaY[bulletCount] = Math.cos(gunHeadingRadians) * speed;
+            bulletPower[bulletCount] = power;
+            bulletOwner[bulletCount] = owner;
+            bulletCount++;
+
+            robot.energy -= power;
+            robot.gunHeat = 1 + power / 5;
+        }
+        robot.firePower = 0;
+    }
+
+    private void checkWallCollision(int index)
+    {
+        SimulatedRobot robot = robots[index];
+        double margin = SimulatedRobot.HALF_SIZE;
+        double x = Math.max(margin, Math.min(battleFieldWidth - margin, robot.x));
+        double y = Math.max(margin, Math.min(battleFieldHeight - margin, robot.y));
+
+        if (x != robot.x || y != robot.y)
+        {
+            robot.x = x;
+            robot.y = y;
+            robot.energy -= Math.max(0, Math.abs(robot.velocity) * 0.5 - 1);
+            robot.stop();
+            controllers[index].onHitWall();
+        }
+    }
+
+    private void checkRobotCollision()
+    {
+        if (overlaps(robots[0].x, robots[0].y, robots[1].x, robots[1].y))
+        {
+            for (int i = 0; i < robots.length; i++)
+            {
+                robots[i].x = previousX[i];
+                robots[i].y = previousY[i];
+                robots[i].energy -= 0.6;
+                robots[i].stop();
+                controllers[i].onHitRobot();
+            }
+        }
+    }
+
+    private void moveBullets()
+    {
+        int i = 0;
+        while (i < bulletCount)
+        {
+            bulletX[i] += bulletDeltaX[i];
+            bulletY[i] += bulletDeltaY[i];
+
+            int owner = bulletOwner[i];
+            int target = 1 - owner;
+            SimulatedRobot robot = robots[target];
+
+            boolean remove;
+            if (Math.abs(bulletX[i] - robot.x) <= SimulatedRobot.HALF_SIZE && Math.abs(bulletY[i] - robot.y) <= SimulatedRobot.HALF_SIZE)
+            {
+                double power = bulletPower[i];
+                robot.energy -= 4 * power + Math.max(0, 2 * (power - 1));
+                robots[owner].energy += 3 * power;
+                controllers[owner].onBulletHit();
+                controllers[target].onHitByBullet();
+                remove = true;
+            }
+            else
+            {
+                remove = bulletX[i] < 0 || bulletY[i] < 0 || bulletX[i] > battleFieldWidth || bulletY[i] > battleFieldHeight;
+            }
+
+            if (remove)
+            {
+                // Swap the last bullet into this slot.
+                bulletCount--;
+                bulletX[i] = bulletX[bulletCount];
+                bulletY[i] = bulletY[bulletCount];
+                bulletDeltaX[i] = bulletDeltaX[bulletCount];
+                bulletDeltaY[i] = bulletDeltaY[bulletCount];
+                bulletPower[i] = bulletPower[bulletCount];
+                bulletOwner[i] = bulletOwner[bulletCount];
+            }
+            else
+            {
+                i++;
+            }
+        }
+    }
+
+    private static boolean overlaps(double x1, double y1, double x2, double y2)
+    {
+        double size = 2 * SimulatedRobot.HALF_SIZE;
+        return Math.abs(x1 - x2) < size && Math.abs(y1 - y2) < size;
+    }
+}
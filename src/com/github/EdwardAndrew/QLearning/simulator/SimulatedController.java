@@ -0,0 +1,42 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+/***
+ * Drives a SimulatedRobot, in the same way a Robocode robot's
+ * <code>run()</code> loop and event handlers drive its body.
+ */
+public interface SimulatedController {
+
+    /**
+     * Called once at the start of each round.
+     * @param battle The battle being fought.
+     * @param self The robot being controlled.
+     */
+    void onRoundStarted(SimulatedBattle battle, SimulatedRobot self);
+
+    /**
+     * Called every tick before the robots move. Commands set on the
+     * robot are carried out during the tick.
+     * @param battle The battle being fought.
+     * @param self The robot being controlled.
+     * @param enemy The other robot, which is always visible.
+     */
+    void onTick(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy);
+
+    /**
+     * Called once when the round is over, after the last events.
+     * @param battle The battle being fought.
+     * @param self The robot being controlled.
+     * @param enemy The other robot.
+     */
+    default void onRoundEnded(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy) {}
+
+    default void onHitWall() {}
+    default void onHitByBullet() {}
+    default void onHitRobot() {}
+    default void onBulletHit() {}
+    default void onDeath() {}
+    default void onWin() {}
+}
@@ -0,0 +1,196 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.state.Quantisation;
+
+/***
+ * A robot body in the simulator, following Robocode's movement rules.
+ * Headings are absolute degrees, 0 is north and angles increase clockwise.
+ * The gun turns independently of the body, as if
+ * <code>setAdjustGunForRobotTurn(true)</code> had been called.
+ */
+public class SimulatedRobot {
+
+    public static final double HALF_SIZE = 18;
+    public static final double MAX_VELOCITY = 8;
+    public static final double ACCELERATION = 1;
+    public static final double DECELERATION = 2;
+    public static final double MAX_GUN_TURN_RATE = 20;
+    public static final double GUN_COOLING_RATE = 0.1;
+    public static final double START_ENERGY = 100;
+    public static final double START_GUN_HEAT = 3;
+
+    double x;
+    double y;
+    double heading;
+    double velocity;
+    double energy;
+    double gunHeading;
+    double gunHeat;
+
+    // Commands still to be carried out.
+    double distanceRemaining;
+    double turnRemaining;
+    double gunTurnRemaining;
+    double maxVelocity = MAX_VELOCITY;
+
+    // Fire power requested this tick, zero if the robot isn't firing.
+    double firePower;
+
+    /**
+     * Puts the robot at the start of a round.
+     * @param x X position.
+     * @param y Y position.
+     * @param heading Body heading in degrees.
+     * @param gunHeading Gun heading in degrees.
+     */
+    void reset(double x, double y, double heading, double gunHeading)
+    {
+        this.x = x;
+        this.y = y;
+        this.heading = heading;
+        this.gunHeading = gunHeading;
+        this.velocity = 0;
+        this.energy = START_ENERGY;
+        this.gunHeat = START_GUN_HEAT;
+        this.distanceRemaining = 0;
+        this.turnRemaining = 0;
+        this.gunTurnRemaining = 0;
+        this.maxVelocity = MAX_VELOCITY;
+        this.firePower = 0;
+    }
+
+    public double getX() { return x; }
+    public double getY() { return y; }
+    public double getHeading() { return heading; }
+    public double getVelocity() { return velocity; }
+    public double getEnergy() { return energy; }
+    public double getGunHeading() { return gunHeading; }
+    public double getGunHeat() { return gunHeat; }
+    public double getDistanceRemaining() { return distanceRemaining; }
+    public double getTurnRemaining() { return turnRemaining; }
+    public double getGunTurnRemaining() { return gunTurnRemaining; }
+    public boolean isAlive() { return energy > 0; }
+
+    public void setAhead(double distance) { distanceRemaining = distance; }
+    public void setTurnRight(double degrees) { turnRemaining = degrees; }
+    public void setTurnLeft(double degrees) { turnRemaining = -degrees; }
+    public void setTurnGunRight(double degrees) { gunTurnRemaining = degrees; }
+    public void setTurnGunLeft(double degrees) { gunTurnRemaining = -degrees; }
+    public void setMaxVelocity(double maxVelocity) { this.maxVelocity = Math.min(MAX_VELOCITY, Math.abs(maxVelocity)); }
+
+    /**
+     * Fires a bullet at the end of this tick, if the gun is cool.
+     * @param power Fire power between 0.1 and 3.
+     */
+    public void setFire(double power) { firePower = power; }
+
+    /**
+     * Instructs the robot to turn towards the given heading.
+     * @param absoluteBearing The bearing we want the robot to face.
+     */
+    public void setTurnTowards(double absoluteBearing)
+    {
+        turnRemaining = Quantisation.normaliseBearing(absoluteBearing - heading);
+    }
+
+    /**
+     * Instructs the robot to aim towards the given heading.
+     * @param absoluteBearing The bearing we want the gun to face.
+     */
+    public void setTurnGunTowards(double absoluteBearing)
+    {
+        gunTurnRemaining = Quantisation.normaliseBearing(absoluteBearing - gunHeading);
+    }
+
+    /**
+     * @param other Another robot.
+     * @return Absolute bearing from this robot to the other, in degrees.
+     */
+    public double getBearingTo(SimulatedRobot other)
+    {
+        double bearing = Math.toDegrees(Math.atan2(other.x - x, other.y - y));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * @param other Another robot.
+     * @return Distance between the centres of both robots.
+     */
+    public double getDistanceTo(SimulatedRobot other)
+    {
+        double dx = other.x - x;
+        double dy = other.y - y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Turns the body and gun for one tick.
+     */
+    void turn()
+    {
+        // Robots turn slower the faster they move.
+        double maxTurnRate = 10 - 0.75 * Math.abs(velocity);
+        double bodyTurn = clamp(turnRemaining, maxTurnRate);
+        heading = normaliseHeading(heading + bodyTurn);
+        turnRemaining -= bodyTurn;
+
+        double gunTurn = clamp(gunTurnRemaining, MAX_GUN_TURN_RATE);
+        gunHeading = normaliseHeading(gunHeading + gunTurn);
+        gunTurnRemaining -= gunTurn;
+
+        gunHeat = Math.max(0, gunHeat - GUN_COOLING_RATE);
+    }
+
+    /**
+     * Accelerates and moves the body for one tick.
+     */
+    void move()
+    {
+        double distance = Math.abs(distanceRemaining);
+        double direction = Math.signum(distanceRemaining);
+
+        // The fastest speed from which the robot can still stop within the remaining
+        // distance. Braking by 2 per tick from speed s covers about s^2/4 + s/2.
+        double stoppingSpeed = -1 + Math.sqrt(1 + 4 * distance);
+        double goalVelocity = direction * Math.min(maxVelocity, Math.min(stoppingSpeed, distance));
+
+        if (goalVelocity > velocity)
+        {
+            velocity = Math.min(goalVelocity, velocity + (velocity < 0 ? DECELERATION : ACCELERATION));
+        }
+        else
+        {
+            velocity = Math.max(goalVelocity, velocity - (velocity > 0 ? DECELERATION : ACCELERATION));
+        }
+
+        double headingRadians = Math.toRadians(heading);
+        x += Math.sin(headingRadians) * velocity;
+        y += Math.cos(headingRadians) * velocity;
+        distanceRemaining -= velocity;
+        if (Math.abs(distanceRemaining) < 1e-9) distanceRemaining = 0;
+    }
+
+    /**
+     * Stops the robot dead, as happens after a collision.
+     */
+    void stop()
+    {
+        velocity = 0;
+        distanceRemaining = 0;
+    }
+
+    private static double clamp(double value, double limit)
+    {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+
+    private static double normaliseHeading(double degrees)
+    {
+        if (degrees >= 360) return degrees - 360;
+        if (degrees < 0) return degrees + 360;
+        return degrees;
+    }
+}
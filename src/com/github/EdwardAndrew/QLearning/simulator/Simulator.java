@@ -0,0 +1,293 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunction;
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunctionFile;
+import com.github.EdwardAndrew.QLearning.approximation.TileCoder;
+import com.github.EdwardAndrew.QLearning.planning.PrioritizedSweeping;
+import com.github.EdwardAndrew.QLearning.state.StateLayout;
+import com.github.EdwardAndrew.QLearning.table.PersistentQFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.SparseQTable;
+import com.github.EdwardAndrew.QLearning.traces.EligibilityTraces;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/***
+ * Trains a QTable against a scripted opponent without the Robocode engine,
+ * then writes a QValues.data file the QLearningRobot can load.
+ *
+ * Usage:
+ * <pre>
+ *   java com.github.EdwardAndrew.QLearning.simulator.Simulator
+ *        --opponent spinbot|corners|walls  --episodes 100000  --output QValues.data
+ *        [--input QValues.data] [--seed 1] [--epsilon 1.0] [--epsilon-decrement 0.00001]
+ *        [--width 800] [--height 600] [--max-ticks 10000] [--layout QLearningRobot.properties]
+ *        [--backend dense|sparse|int8|float16] [--learner table|tiles] [--decision-ticks 0] [--lambda 0.8] [--trace-capacity 32] [--trace-cutoff 0.01]
+ *        [--planning-backups 0] [--planning-slots 4] [--planning-threshold 0.1]
+ * </pre>
+ * The state layout is read from the given properties file, the same as
+ * the robot's, and defaults to the robot's original layout. The
+ * <code>--backend</code> chooses the table, and the input and output are
+ * in its format: QValues.data for dense, QValues.sparse for sparse, where
+ * only visited states are kept, and QValues.int8 or QValues.half for the
+ * quantised tables. <code>--sparse true</code> is the same as
+ * <code>--backend sparse</code>. With
+ * <code>--learner tiles</code> the values are approximated from the
+ * tilings in the properties file instead, and the input and output are
+ * in the QValues.tiles format. A <code>--lambda</code> above 0 learns
+ * tables with Watkins's Q(lambda) instead of the one step update.
+ * <code>--decision-ticks</code> decides every so many ticks, as the
+ * robot's decision.ticks, instead of each time ahead(100) finishes.
+ * <code>--planning-backups</code> above 0 makes that many prioritized
+ * sweeping backups each tick, in place of the robot's planning.budget,
+ * so runs can be repeated.
+ */
+public class Simulator {
+
+    String opponent = "spinbot";
+    long episodes = 100000;
+    File output = new File("QValues.data");
+    File input = null;
+    long seed = System.nanoTime();
+    float epsilon = 1.0f;
+    float epsilonDecrement = 0.00001f;
+    double battleFieldWidth = 800;
+    double battleFieldHeight = 600;
+    int maximumTicks = 10000;
+    StateLayout stateLayout = StateLayout.getDefault();
+    TileCoder tileCoder = TileCoder.getDefault();
+    String backend = QFunctions.DENSE;
+    boolean tileCoding = false;
+    float lambda = 0;
+    int traceCapacity = 32;
+    float traceCutoff = 0.01f;
+    int decisionTicks = 0;
+    int planningBackups = 0;
+    int planningSlots = 4;
+    float planningThreshold = 0.1f;
+
+    public static void main(String[] args) throws IOException
+    {
+        Simulator simulator = new Simulator();
+        simulator.parse(args);
+        simulator.run();
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args Command line arguments.
+     */
+    void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i += 2)
+        {
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            if (!parseOption(args[i], args[i + 1])) throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+    }
+
+    /**
+     * @param name Option name, including the leading dashes.
+     * @param value Option value.
+     * @return false if the option isn't recognised.
+     */
+    boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--opponent": opponent = value; break;
+            case "--episodes": episodes = Long.parseLong(value); break;
+            case "--output": output = new File(value); break;
+            case "--input": input = new File(value); break;
+            case "--seed": seed = Long.parseLong(value); break;
+            case "--epsilon": epsilon = Float.parseFloat(value); break;
+            case "--epsilon-decrement": epsilonDecrement = Float.parseFloat(value); break;
+            case "--width": battleFieldWidth = Double.parseDouble(value); break;
+            case "--height": battleFieldHeight = Double.parseDouble(value); break;
+            case "--max-ticks": maximumTicks = Integer.parseInt(value); break;
+            case "--layout": loadLayout(new File(value)); break;
+            case "--backend": backend = value; break;
+            case "--sparse": backend = Boolean.parseBoolean(value) ? QFunctions.SPARSE : QFunctions.DENSE; break;
+            case "--learner": tileCoding = parseLearner(value); break;
+            case "--lambda": lambda = Float.parseFloat(value); break;
+            case "--trace-capacity": traceCapacity = Integer.parseInt(value); break;
+            case "--trace-cutoff": traceCutoff = Float.parseFloat(value); break;
+            case "--decision-ticks": decisionTicks = Integer.parseInt(value); break;
+            case "--planning-backups": planningBackups = Integer.parseInt(value); break;
+            case "--planning-slots": planningSlots = Integer.parseInt(value); break;
+            case "--planning-threshold": planningThreshold = Float.parseFloat(value); break;
+            default: return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads the starting table if there is one, trains it and saves the result.
+     * @throws IOException If the table can't be loaded or saved.
+     */
+    void run() throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        PersistentQFunction qTable = null;
+        LinearQFunction linearFunction = null;
+        QLearningController learner;
+        if (tileCoding)
+        {
+            linearFunction = new LinearQFunction(tileCoder, QLearningController.ACTION_COUNT);
+            if (input != null)
+            {
+                epsilon = LinearQFunctionFile.read(input, linearFunction);
+            }
+            learner = new QLearningController(linearFunction, random.split());
+        }
+        else
+        {
+            qTable = createTable();
+            if (input != null)
+            {
+                epsilon = qTable.read(input);
+            }
+            learner = new QLearningController(qTable, stateLayout, random.split());
+            learner.setPlanner(createPlanner(qTable), planningBackups);
+        }
+        learner.setTraces(createTraces());
+        learner.setDecisionTicks(decisionTicks);
+        learner.setEpsilon(epsilon);
+        learner.setEpsilonDecrement(epsilonDecrement);
+
+        SimulatedBattle battle = new SimulatedBattle(battleFieldWidth, battleFieldHeight, maximumTicks,
+                learner, ScriptedOpponent.create(opponent), random.split());
+
+        long wins = 0;
+        long ticks = 0;
+        long start = System.nanoTime();
+        for (long episode = 0; episode < episodes; episode++)
+        {
+            if (battle.runRound() == 0) wins++;
+            ticks += battle.getTime();
+            // The robot normalises its table at the end of every round.
+            if (qTable != null)
+            {
+                qTable.normalise(99.99f);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (linearFunction != null)
+        {
+            save(linearFunction, learner.getEpsilon());
+        }
+        else
+        {
+            save(qTable, learner.getEpsilon());
+        }
+
+        System.out.printf("%d episodes against %s in %.1fs (%.0f episodes/s, %.0f ticks/s), won %.1f%%, epsilon %.5f%n",
+                episodes, opponent, seconds, episodes / seconds, ticks / seconds, 100.0 * wins / episodes, learner.getEpsilon());
+        System.out.printf("%.1f ticks per round, a decision every %.1f ticks%n", (double)ticks / episodes, (double)ticks / learner.getUpdateCount());
+        if (learner.getPlanner() != null)
+        {
+            System.out.printf("%d planning backups, %.1f per decision%n", learner.getPlanner().getBackupCount(),
+                    (double)learner.getPlanner().getBackupCount() / learner.getUpdateCount());
+        }
+        if (qTable instanceof SparseQTable)
+        {
+            SparseQTable sparseTable = (SparseQTable)qTable;
+            System.out.printf("Visited %d of %d states, %.1f MB%n", sparseTable.getVisitedStateCount(), sparseTable.getStateCount(),
+                    sparseTable.getMemoryUsage() / 1e6);
+        }
+        else if (qTable != null)
+        {
+            System.out.printf("Table %.1f KB in memory, %.1f KB saved%n", qTable.getMemoryUsage() / 1e3, qTable.getFileSize() / 1e3);
+        }
+        System.out.println("Saved " + output.getPath());
+    }
+
+    /**
+     * @return An empty table of the chosen backend, with the state layout's states.
+     */
+    PersistentQFunction createTable()
+    {
+        return QFunctions.create(backend, stateLayout.getStateDimensions(), QLearningController.ACTION_COUNT, stateLayout.getDescription());
+    }
+
+    /**
+     * @return Traces for Q(lambda), or null for the one step update when lambda is 0.
+     */
+    EligibilityTraces createTraces()
+    {
+        return lambda > 0 ? new EligibilityTraces(traceCapacity, lambda, traceCutoff) : null;
+    }
+
+    /**
+     * @return A planner for the table, or null when there are no planning backups.
+     */
+    PrioritizedSweeping createPlanner(QFunction qTable)
+    {
+        if (planningBackups == 0) return null;
+        return new PrioritizedSweeping(qTable.getStateCount(), qTable.getActionCount(), planningSlots, planningThreshold);
+    }
+
+    /**
+     * Writes the table to the output file, in the format that matches its type.
+     */
+    void save(PersistentQFunction qTable, float epsilon) throws IOException
+    {
+        try (FileOutputStream outputStream = new FileOutputStream(output))
+        {
+            qTable.write(epsilon, outputStream);
+        }
+    }
+
+    /**
+     * Writes the tile coding weights to the output file.
+     */
+    void save(LinearQFunction linearFunction, float epsilon) throws IOException
+    {
+        try (FileOutputStream outputStream = new FileOutputStream(output))
+        {
+            LinearQFunctionFile.write(linearFunction, epsilon, outputStream);
+        }
+    }
+
+    /**
+     * Reads the state layout and tilings from a properties file.
+     */
+    private void loadLayout(File file)
+    {
+        Properties properties = new Properties();
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            properties.load(inputStream);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        stateLayout = StateLayout.fromProperties(properties);
+        tileCoder = TileCoder.fromProperties(properties);
+    }
+
+    /**
+     * @return true for tile coding, false for a table.
+     */
+    private static boolean parseLearner(String value)
+    {
+        switch (value)
+        {
+            case "table": return false;
+            case "tiles": return true;
+            default: throw new IllegalArgumentException("Unknown learner: " + value);
+        }
+    }
+}
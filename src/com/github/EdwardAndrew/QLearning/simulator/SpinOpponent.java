@@ -0,0 +1,23 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+/***
+ * Drives in circles with the gun fixed to the body, firing at full
+ * power whenever the enemy passes in front of it. Modelled on the
+ * SpinBot sample robot.
+ */
+public class SpinOpponent extends ScriptedOpponent {
+
+    @Override public void onRoundStarted(SimulatedBattle battle, SimulatedRobot self) {}
+
+    @Override public void onTick(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        self.setMaxVelocity(5);
+        self.setTurnRight(10000);
+        self.setAhead(10000);
+        self.setTurnGunTowards(self.getHeading());
+        fireWhenAimed(self, enemy, 3, 10);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.simulator;
+
+/***
+ * Drives clockwise around the edge of the battlefield with the gun
+ * pointing into the middle, firing whenever the enemy is in front of
+ * it. Modelled on the Walls sample robot.
+ */
+public class WallsOpponent extends ScriptedOpponent {
+
+    @Override public void onRoundStarted(SimulatedBattle battle, SimulatedRobot self) {}
+
+    @Override public void onTick(SimulatedBattle battle, SimulatedRobot self, SimulatedRobot enemy)
+    {
+        double margin = SimulatedRobot.HALF_SIZE + 1;
+        double width = battle.getBattleFieldWidth();
+        double height = battle.getBattleFieldHeight();
+
+        // Head along whichever wall the robot is nearest, going clockwise.
+        double toLeft = self.getX();
+        double toRight = width - self.getX();
+        double toBottom = self.getY();
+        double toTop = height - self.getY();
+        double nearest = Math.min(Math.min(toLeft, toRight), Math.min(toBottom, toTop));
+
+        double heading;
+        if (nearest > margin)
+        {
+            // Not at a wall yet, drive straight to the nearest one.
+            heading = nearest == toLeft ? 270 : nearest == toRight ? 90 : nearest == toBottom ? 180 : 0;
+        }
+        else if (toTop <= margin && toRight > margin)
+        {
+            heading = 90;
+        }
+        else if (toRight <= margin && toBottom > margin)
+        {
+            heading = 180;
+        }
+        else if (toBottom <= margin && toLeft > margin)
+        {
+            heading = 270;
+        }
+        else
+        {
+            heading = 0;
+        }
+
+        self.setTurnTowards(heading);
+        self.setAhead(Math.abs(self.getTurnRemaining()) < 1 ? 10000 : 0);
+
+        // The gun faces into the battlefield, at right angles to the wall.
+        self.setTurnGunTowards(heading + 90);
+        fireWhenAimed(self, enemy, 2, 5);
+    }
+}
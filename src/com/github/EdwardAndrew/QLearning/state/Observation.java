@@ -0,0 +1,71 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.state;
+
+/***
+ * The things the robot can observe, which a StateLayout can divide
+ * into state dimensions. Observations are passed to the layout in an
+ * array indexed by <code>ordinal()</code>.
+ */
+public enum Observation {
+
+    // The robot's position, as a fraction of the battlefield's width and height.
+    POSITION_X("positionX", 0, 1, false),
+    POSITION_Y("positionY", 0, 1, false),
+    // Absolute bearing to the enemy in degrees, 0 is north.
+    ENEMY_BEARING("enemyBearing", 0, 360, true),
+    // Distance to the enemy. Has no upper limit, so must be given edges.
+    ENEMY_DISTANCE("enemyDistance", Double.NaN, Double.NaN, false),
+    // Absolute heading of the enemy in degrees.
+    ENEMY_HEADING("enemyHeading", 0, 360, true),
+    // Velocity of the enemy, negative when it's reversing.
+    ENEMY_VELOCITY("enemyVelocity", -8, 8, false);
+
+    private final String name;
+    private final double minimum;
+    private final double maximum;
+    private final boolean circular;
+
+    Observation(String name, double minimum, double maximum, boolean circular)
+    {
+        this.name = name;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.circular = circular;
+    }
+
+    /**
+     * @return The name used in QLearningRobot.properties.
+     */
+    public String getName() { return name; }
+
+    /**
+     * @return Smallest value, NaN if the observation has no fixed range.
+     */
+    public double getMinimum() { return minimum; }
+
+    /**
+     * @return Largest value, NaN if the observation has no fixed range.
+     */
+    public double getMaximum() { return maximum; }
+
+    /**
+     * @return true for angles, where the largest value wraps round to the smallest.
+     */
+    public boolean isCircular() { return circular; }
+
+    /**
+     * @param name A name used in QLearningRobot.properties.
+     * @return The observation with that name.
+     * @throws IllegalArgumentException If there isn't one.
+     */
+    public static Observation forName(String name)
+    {
+        for (Observation observation : values())
+        {
+            if (observation.name.equals(name)) return observation;
+        }
+        throw new IllegalArgumentException("Unknown state dimension: " + name);
+    }
+}
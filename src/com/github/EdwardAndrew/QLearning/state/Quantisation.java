@@ -0,0 +1,67 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.state;
+
+/***
+ * Functions that turn the robot's continuous observations into
+ * quantised states. Shared by the robot and the simulator so both
+ * see the battlefield in exactly the same way.
+ */
+public final class Quantisation {
+
+    private Quantisation() {}
+
+    /**
+     * Quantises the enemy enemyDistance.
+     * @param enemyDistance
+     * @return quantised integer.
+     */
+    public static int getQuantisedEnemyDistance(double enemyDistance){
+        if( enemyDistance < 80 ) return 0;
+        if( enemyDistance < 300 ) return 1;
+        if( enemyDistance < 600 ) return 2;
+        return 3;
+    }
+
+    /**
+     * Quantise a bearing.
+     * @param bearing Bearing to be quantised.
+     * @param totalQuantisedValues How many quantised values there are.
+     * @return Quantised value between 0 and <code>totalQuantisedValues - 1</code>.
+     */
+    public static int getQuantisedBearing(double bearing, int totalQuantisedValues){
+        double stateSize = 360 / totalQuantisedValues;
+        bearing += stateSize / 2;
+
+        while (bearing >= 360) bearing -= 360;
+        while (bearing < 0) bearing += 360;
+
+        return (int)Math.floor( bearing / stateSize );
+    }
+
+    /**
+     * Takes a one dimensional position and returns a quantised value.
+     * @param position Robot's X or Y position on the battlefield.
+     * @param battleFieldSize Battlefield X or Y size.
+     * @param totalQuantisedValues The amount of quantised values.
+     * @return <code>int</code> between 0 and <code>totalQuantisedValues - 1</code>
+     */
+    public static int getQuantisedBattlefieldPosition(double position, double battleFieldSize, int totalQuantisedValues ){
+        double gridXSize = battleFieldSize / totalQuantisedValues;
+        return (int)Math.floor( position / gridXSize );
+    }
+
+    /**
+     * Normalises a bearing
+     * This function is provided by third party.
+     * @see <a href="http://mark.random-article.com/weber/java/robocode/lesson4.html">Function Source</a>
+     * @param degrees Bearing to be normalised
+     * @return Angle normalised between -180 and 180 degrees.
+     */
+    public static double normaliseBearing(double degrees){
+        while (degrees >=  180) degrees -= 360;
+        while (degrees < -180) degrees += 360;
+        return degrees;
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.state;
+
+/***
+ * Divides one observation into buckets, at a list of ascending edges.
+ * A value belongs to the bucket after the last edge it is equal to or
+ * above. For circular observations the buckets wrap round, so values
+ * above the last edge fall in the same bucket as those below the first.
+ *
+ * Finding the bucket uses a lookup table of evenly sized cells, narrow
+ * enough that a cell rarely holds more than one edge. The cell gives
+ * the bucket straight away, and at most the edges inside the cell are
+ * compared. This costs the same however many buckets there are.
+ */
+public final class StateDimension {
+
+    // The lookup table never has more cells than this.
+    private static final int MAXIMUM_CELLS = 4096;
+
+    private final Observation observation;
+    private final double[] edges;
+    private final int bucketCount;
+    private final String description;
+
+    // The lookup table. cellStarts[cell] is the number of edges in cells before it.
+    private final double lookupStart;
+    private final double inverseCellWidth;
+    private final int lastCell;
+    private final int[] cellStarts;
+
+    private StateDimension(Observation observation, double[] edges, String description)
+    {
+        this.observation = observation;
+        this.edges = edges;
+        this.description = description;
+        this.bucketCount = observation.isCircular() ? edges.length : edges.length + 1;
+
+        if (edges.length == 0)
+        {
+            lookupStart = 0;
+            inverseCellWidth = 0;
+            lastCell = 0;
+            cellStarts = new int[1];
+            return;
+        }
+
+        double cellWidth = 1;
+        if (edges.length > 1)
+        {
+            cellWidth = Double.MAX_VALUE;
+            for (int i = 1; i < edges.length; i++)
+            {
+                cellWidth = Math.min(cellWidth, edges[i] - edges[i - 1]);
+            }
+        }
+        double span = edges[edges.length - 1] - edges[0];
+        cellWidth = Math.max(cellWidth, span / (MAXIMUM_CELLS - 2));
+
+        lookupStart = edges[0] - cellWidth;
+        inverseCellWidth = 1 / cellWidth;
+        lastCell = (int)Math.min(MAXIMUM_CELLS - 1, Math.ceil(span * inverseCellWidth) + 1);
+        cellStarts = new int[lastCell + 1];
+
+        // Count the edges using the same arithmetic as getBucket, so no cell
+        // ever starts after an edge that a value in it could be below.
+        for (double edge : edges)
+        {
+            int cell = getCell(edge);
+            for (int later = cell + 1; later <= lastCell; later++)
+            {
+                cellStarts[later]++;
+            }
+        }
+    }
+
+    /**
+     * @param observation The observation to divide.
+     * @param bucketCount Number of equally sized buckets. For circular
+     *                    observations the first bucket is centred on the
+     *                    smallest value, so bearings of 0 fall in the
+     *                    middle of it.
+     * @return The dimension.
+     * @throws IllegalArgumentException If the observation has no fixed range.
+     */
+    public static StateDimension uniform(Observation observation, int bucketCount)
+    {
+        if (bucketCount <= 0) throw new IllegalArgumentException(observation.getName() + " needs at least one bucket.");
+        if (Double.isNaN(observation.getMinimum())) throw new IllegalArgumentException(observation.getName() + " has no fixed range, give its edges instead.");
+
+        // Each edge is worked out from the whole range rather than by adding up bucket sizes,
+        // so the rounding error in the size doesn't push edges such as 0.3 just past where they are.
+        double range = observation.getMaximum() - observation.getMinimum();
+        double[] edges;
+        if (observation.isCircular())
+        {
+            edges = new double[bucketCount];
+            for (int i = 0; i < bucketCount; i++)
+            {
+                edges[i] = observation.getMinimum() + (2 * i + 1) * range / (2 * bucketCount);
+            }
+        }
+        else
+        {
+            edges = new double[bucketCount - 1];
+            for (int i = 0; i < edges.length; i++)
+            {
+                edges[i] = observation.getMinimum() + (i + 1) * range / bucketCount;
+            }
+        }
+        return new StateDimension(observation, edges, "buckets:" + bucketCount);
+    }
+
+    /**
+     * @param observation The observation to divide.
+     * @param edges Ascending edges between buckets. For circular observations
+     *              they must be within the observation's range.
+     * @return The dimension.
+     * @throws IllegalArgumentException If the edges aren't valid.
+     */
+    public static StateDimension withEdges(Observation observation, double[] edges)
+    {
+        if (edges.length == 0 && observation.isCircular()) throw new IllegalArgumentException(observation.getName() + " needs at least one edge.");
+
+        StringBuilder description = new StringBuilder("edges:");
+        for (int i = 0; i < edges.length; i++)
+        {
+            double edge = edges[i];
+            if (Double.isNaN(edge) || Double.isInfinite(edge)) throw new IllegalArgumentException(observation.getName() + " has an invalid edge.");
+            if (i > 0 && edge <= edges[i - 1]) throw new IllegalArgumentException(observation.getName() + " edges must be in ascending order.");
+            if (observation.isCircular() && (edge < observation.getMinimum() || edge >= observation.getMaximum()))
+            {
+                throw new IllegalArgumentException(observation.getName() + " edges must be between " + observation.getMinimum() + " and " + observation.getMaximum() + ".");
+            }
+
+            if (i > 0) description.append(',');
+            description.append(edge == Math.rint(edge) ? Long.toString((long)edge) : Double.toString(edge));
+        }
+        return new StateDimension(observation, edges.clone(), description.toString());
+    }
+
+    public Observation getObservation() { return observation; }
+
+    /**
+     * @return Number of buckets, the size of this dimension of the table.
+     */
+    public int getBucketCount() { return bucketCount; }
+
+    /**
+     * @return How the buckets are defined, e.g. "buckets:8" or "edges:80,300,600".
+     */
+    public String getDescription() { return description; }
+
+    /**
+     * @param value An observed value.
+     * @return The bucket it falls in, between 0 and <code>getBucketCount() - 1</code>.
+     */
+    public int getBucket(double value)
+    {
+        if (observation.isCircular() && (value < observation.getMinimum() || value >= observation.getMaximum()))
+        {
+            value = wrap(value);
+        }
+
+        int bucket = cellStarts[getCell(value)];
+        while (bucket < edges.length && value >= edges[bucket])
+        {
+            bucket++;
+        }
+        return bucket == bucketCount ? 0 : bucket;
+    }
+
+    private int getCell(double value)
+    {
+        double offset = (value - lookupStart) * inverseCellWidth;
+        if (offset >= lastCell) return lastCell;
+        // NaN and values before the first cell end up in the first cell.
+        return offset > 0 ? (int)offset : 0;
+    }
+
+    private double wrap(double value)
+    {
+        double range = observation.getMaximum() - observation.getMinimum();
+        value -= range * Math.floor((value - observation.getMinimum()) / range);
+        return value >= observation.getMaximum() ? observation.getMinimum() : value;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.state;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/***
+ * The dimensions of the robot's state, and how each observation is
+ * divided into them. Maps a set of observations straight to the index
+ * of a state's row in a QTable, in the same row-major order.
+ *
+ * Layouts are read from properties like these, which give the default:
+ * <pre>
+ *   state.dimensions=positionX,positionY,enemyBearing,enemyDistance
+ *   state.positionX.buckets=10
+ *   state.positionY.buckets=10
+ *   state.enemyBearing.buckets=8
+ *   state.enemyDistance.edges=80,300,600
+ * </pre>
+ * Each dimension takes either a number of equally sized buckets or a
+ * list of edges between buckets. See Observation for the dimensions
+ * available.
+ */
+public final class StateLayout {
+
+    private final StateDimension[] dimensions;
+    // For each dimension, its observation's index in the observations array.
+    private final int[] observationIndices;
+    // How far apart neighbouring buckets of each dimension are, in states.
+    private final int[] strides;
+    private final int[] stateDimensions;
+    private final int stateCount;
+    private final String description;
+
+    /***
+     * Constructor.
+     * @param dimensions The dimensions, the last varies fastest.
+     */
+    public StateLayout(StateDimension... dimensions)
+    {
+        if (dimensions.length == 0) throw new IllegalArgumentException("A state layout needs at least one dimension.");
+
+        this.dimensions = dimensions.clone();
+        this.observationIndices = new int[dimensions.length];
+        this.strides = new int[dimensions.length];
+        this.stateDimensions = new int[dimensions.length];
+
+        long count = 1;
+        for (int dimension = dimensions.length - 1; dimension >= 0; dimension--)
+        {
+            observationIndices[dimension] = dimensions[dimension].getObservation().ordinal();
+            stateDimensions[dimension] = dimensions[dimension].getBucketCount();
+            strides[dimension] = (int)count;
+            count *= stateDimensions[dimension];
+            if (count > Integer.MAX_VALUE) throw new IllegalArgumentException("State space too large.");
+        }
+        this.stateCount = (int)count;
+
+        StringBuilder builder = new StringBuilder();
+        for (StateDimension dimension : dimensions)
+        {
+            if (builder.length() > 0) builder.append(';');
+            builder.append(dimension.getObservation().getName()).append('=').append(dimension.getDescription());
+        }
+        this.description = builder.toString();
+    }
+
+    /**
+     * @return The layout the robot has always used: a 10 by 10 grid of
+     *         positions, 8 enemy bearings and 4 enemy distances.
+     */
+    public static StateLayout getDefault()
+    {
+        return new StateLayout(
+                StateDimension.uniform(Observation.POSITION_X, 10),
+                StateDimension.uniform(Observation.POSITION_Y, 10),
+                StateDimension.uniform(Observation.ENEMY_BEARING, 8),
+                StateDimension.withEdges(Observation.ENEMY_DISTANCE, new double[] {80, 300, 600}));
+    }
+
+    /**
+     * @param properties Properties holding a layout, as described above.
+     * @return The layout, or the default if the properties don't define one.
+     * @throws IllegalArgumentException If the layout isn't valid.
+     */
+    public static StateLayout fromProperties(Properties properties)
+    {
+        String names = properties.getProperty("state.dimensions");
+        if (names == null || names.trim().isEmpty()) return getDefault();
+
+        String[] nameList = names.split(",");
+        StateDimension[] dimensions = new StateDimension[nameList.length];
+        for (int i = 0; i < nameList.length; i++)
+        {
+            Observation observation = Observation.forName(nameList[i].trim());
+            for (int j = 0; j < i; j++)
+            {
+                if (dimensions[j].getObservation() == observation) throw new IllegalArgumentException(observation.getName() + " is listed twice.");
+            }
+
+            String buckets = properties.getProperty("state." + observation.getName() + ".buckets");
+            String edges = properties.getProperty("state." + observation.getName() + ".edges");
+            if ((buckets == null) == (edges == null)) throw new IllegalArgumentException(observation.getName() + " needs either buckets or edges.");
+
+            try
+            {
+                dimensions[i] = buckets != null
+                        ? StateDimension.uniform(observation, Integer.parseInt(buckets.trim()))
+                        : StateDimension.withEdges(observation, parseEdges(edges));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException(observation.getName() + " has an invalid number.", e);
+            }
+        }
+        return new StateLayout(dimensions);
+    }
+
+    /**
+     * Reads a layout from a properties file.
+     * @param inputStream The properties file, closed when done. May be null.
+     * @return The layout, or the default if there's no file or it doesn't define one.
+     * @throws IOException If the file can't be read.
+     * @throws IllegalArgumentException If the layout isn't valid.
+     */
+    public static StateLayout load(InputStream inputStream) throws IOException
+    {
+        if (inputStream == null) return getDefault();
+
+        Properties properties = new Properties();
+        try (InputStream stream = inputStream)
+        {
+            properties.load(stream);
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * @return Number of buckets in each dimension, the shape of the QTable.
+     */
+    public int[] getStateDimensions() { return stateDimensions.clone(); }
+
+    public int getDimensionCount() { return dimensions.length; }
+    public StateDimension getDimension(int dimension) { return dimensions[dimension]; }
+    public int getStateCount() { return stateCount; }
+
+    /**
+     * @return true if one of the dimensions divides the observation.
+     */
+    public boolean uses(Observation observation)
+    {
+        for (StateDimension dimension : dimensions)
+        {
+            if (dimension.getObservation() == observation) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The layout as a single line, e.g. "positionX=buckets:10;enemyDistance=edges:80,300,600".
+     *         Saved with the QTable, so a table isn't loaded into a different layout.
+     */
+    public String getDescription() { return description; }
+
+    /**
+     * @param observations Observed values, indexed by <code>Observation.ordinal()</code>.
+     *                     Observations the layout doesn't use are ignored.
+     * @return Index of the state's row in the QTable.
+     */
+    public int getStateIndex(double[] observations)
+    {
+        int stateIndex = 0;
+        for (int dimension = 0; dimension < dimensions.length; dimension++)
+        {
+            stateIndex += dimensions[dimension].getBucket(observations[observationIndices[dimension]]) * strides[dimension];
+        }
+        return stateIndex;
+    }
+
+    @Override public String toString()
+    {
+        return description;
+    }
+
+    private static double[] parseEdges(String edges)
+    {
+        String[] tokens = edges.split(",");
+        double[] values = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+        {
+            values[i] = Double.parseDouble(tokens[i].trim());
+        }
+        return values;
+    }
+}
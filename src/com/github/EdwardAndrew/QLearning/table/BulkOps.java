@@ -0,0 +1,182 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+/***
+ * Loops over a table's values, for normalising, materialising,
+ * combining and compiling tables, and finding a state's best action.
+ * Each backend calls these rather than keeping a copy of the loop.
+ *
+ * They're kept as plain loops over the array, with no calls or extra
+ * branches in them. HotSpot turns scale() and addScaled() into SIMD
+ * instructions as they are, and runs the comparisons in the others
+ * faster than unrolled or tree-shaped versions of them, as
+ * BulkOpsBenchmark measures.
+ */
+public final class BulkOps {
+
+    private BulkOps() {}
+
+    /**
+     * @param values The values to scan.
+     * @param from First index to scan.
+     * @param to Index after the last one to scan.
+     * @return Index of the first of the largest absolute values, from if they're all 0.
+     */
+    public static int indexOfMaxAbs(float[] values, int from, int to)
+    {
+        float maxAbsValue = 0;
+        int maxAbsIndex = from;
+        for (int i = from; i < to; i++)
+        {
+            float magnitude = Math.abs(values[i]);
+            if (magnitude > maxAbsValue)
+            {
+                maxAbsValue = magnitude;
+                maxAbsIndex = i;
+            }
+        }
+        return maxAbsIndex;
+    }
+
+    /**
+     * Multiplies values by a factor.
+     * @param values The values to scale.
+     * @param from First index to scale.
+     * @param to Index after the last one to scale.
+     * @param factor The factor to multiply by.
+     */
+    public static void scale(float[] values, int from, int to, float factor)
+    {
+        for (int i = from; i < to; i++)
+        {
+            values[i] *= factor;
+        }
+    }
+
+    /**
+     * @param values The values to scan.
+     * @param from First index to scan.
+     * @param to Index after the last one to scan.
+     * @return The largest absolute value, 0 if there are none.
+     */
+    public static int maxAbs(byte[] values, int from, int to)
+    {
+        int maxAbsValue = 0;
+        for (int i = from; i < to; i++)
+        {
+            maxAbsValue = Math.max(maxAbsValue, Math.abs(values[i]));
+        }
+        return maxAbsValue;
+    }
+
+    /**
+     * Adds a multiple of some values to others.
+     * destination[destinationOffset + i] += weight * source[sourceOffset + i]
+     * @param destination The values to add to.
+     * @param destinationOffset Index of the first value to add to.
+     * @param source The values to add.
+     * @param sourceOffset Index of the first value to add.
+     * @param length Number of values.
+     * @param weight The multiple of the source to add.
+     */
+    public static void addScaled(float[] destination, int destinationOffset, float[] source, int sourceOffset, int length, float weight)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            destination[destinationOffset + i] += weight * source[sourceOffset + i];
+        }
+    }
+
+    /**
+     * Ties are resolved towards the lowest action index.
+     * @param values The rows of values.
+     * @param offset Index of the row's first value.
+     * @param actionCount Number of actions in the row.
+     * @return The action with the highest value.
+     */
+    public static int argmax(float[] values, int offset, int actionCount)
+    {
+        int highestAction = 0;
+        float highestValue = values[offset];
+        for (int action = 1; action < actionCount; action++)
+        {
+            if (values[offset + action] > highestValue)
+            {
+                highestValue = values[offset + action];
+                highestAction = action;
+            }
+        }
+        return highestAction;
+    }
+
+    /**
+     * Ties are resolved towards the lowest action index.
+     * @param values The rows of values.
+     * @param offset Index of the row's first value.
+     * @param actionCount Number of actions in the row.
+     * @return The action with the highest value.
+     */
+    public static int argmax(byte[] values, int offset, int actionCount)
+    {
+        int highestAction = 0;
+        byte highestValue = values[offset];
+        for (int action = 1; action < actionCount; action++)
+        {
+            if (values[offset + action] > highestValue)
+            {
+                highestValue = values[offset + action];
+                highestAction = action;
+            }
+        }
+        return highestAction;
+    }
+
+    /**
+     * @param values The rows of values.
+     * @param offset Index of the row's first value.
+     * @param actionCount Number of actions in the row.
+     * @return The highest value in the row.
+     */
+    public static float max(float[] values, int offset, int actionCount)
+    {
+        float highestValue = values[offset];
+        for (int action = 1; action < actionCount; action++)
+        {
+            highestValue = Math.max(highestValue, values[offset + action]);
+        }
+        return highestValue;
+    }
+
+    /**
+     * @param values The rows of values.
+     * @param offset Index of the row's first value.
+     * @param actionCount Number of actions in the row.
+     * @return The highest value in the row.
+     */
+    public static byte max(byte[] values, int offset, int actionCount)
+    {
+        byte highestValue = values[offset];
+        for (int action = 1; action < actionCount; action++)
+        {
+            highestValue = (byte)Math.max(highestValue, values[offset + action]);
+        }
+        return highestValue;
+    }
+
+    /**
+     * Works out the best action of every row.
+     * @param values The rows of values.
+     * @param rowStride Number of values between the start of one row and the next.
+     * @param actionCount Number of actions in each row, at most 256.
+     * @param actions Where to write each row's best action, one for each row.
+     */
+    public static void argmaxRows(float[] values, int rowStride, int actionCount, byte[] actions)
+    {
+        for (int row = 0; row < actions.length; row++)
+        {
+            actions[row] = (byte)argmax(values, row * rowStride, actionCount);
+        }
+    }
+}
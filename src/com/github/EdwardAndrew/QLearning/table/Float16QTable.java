@@ -0,0 +1,349 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/***
+ * State -> Action -> Reward values stored as 16 bit floats, for a table
+ * half the size of a QTable.
+ *
+ * Half precision floats keep about three significant figures, and the
+ * robot's values are normalised to within +-99.99 and saved to two
+ * decimal places, so little is lost. As in QTable, the stored values
+ * are multiplied by a scale factor when read, so normalising doesn't
+ * round every value again. Once the scale drifts too far from 1, the
+ * values are rewritten at a scale of 1, before they can overflow.
+ *
+ * The best action is found by comparing the stored bits, mapped to
+ * integers in the same order as the values they hold.
+ */
+public class Float16QTable implements PersistentQFunction {
+
+    private final int stateCount;
+    private final int actionCount;
+    // Describes how observations were divided into the states, empty if unknown.
+    private String layout = "";
+
+    // Half precision bits of the values before scaling, indexed stateIndex * actionCount + action.
+    final short[] values;
+
+    // A value's real value is toFloat(values[i]) * scale.
+    float scale = 1;
+    private float inverseScale = 1;
+    // The stored values are rewritten once the scale leaves this range. Narrower than
+    // QTable's, as a half overflows above 65504: values normalised to 99.99 are stored
+    // below 6400, leaving room for them to grow between normalisations.
+    private static final float MIN_SCALE = 1 / 64f;
+    private static final float MAX_SCALE = 64f;
+    // Largest finite half, stored values are clamped to it.
+    private static final float MAX_HALF = 65504f;
+
+    /***
+     * Constructor, creates a table with every value set to zero.
+     * @param stateCount Number of states.
+     * @param actionCount Number of actions available in every state.
+     */
+    public Float16QTable(int stateCount, int actionCount)
+    {
+        if (stateCount <= 0 || actionCount <= 0) throw new IllegalArgumentException();
+
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.values = new short[stateCount * actionCount];
+    }
+
+    @Override public int getStateCount() { return stateCount; }
+    @Override public int getActionCount() { return actionCount; }
+
+    /**
+     * @return Description of how observations are divided into the states, empty if unknown.
+     */
+    @Override public String getLayout() { return layout; }
+
+    /**
+     * @param layout Description of how observations are divided into the states.
+     */
+    @Override public void setLayout(String layout) { this.layout = layout == null ? "" : layout; }
+
+    @Override public String getFileName() { return "QValues.half"; }
+
+    @Override public float read(File file) throws IOException
+    {
+        return QuantisedQTableFile.read(file, this);
+    }
+
+    @Override public int write(float epsilon, OutputStream outputStream) throws IOException
+    {
+        return QuantisedQTableFile.write(this, epsilon, outputStream);
+    }
+
+    @Override public long getFileSize()
+    {
+        return QuantisedQTableFile.getFileSize(this);
+    }
+
+    /**
+     * @return Bytes used by the array holding the table.
+     */
+    @Override public long getMemoryUsage()
+    {
+        return values.length * 2L;
+    }
+
+    @Override public float get(int stateIndex, int action)
+    {
+        return toFloat(values[stateIndex * actionCount + action]) * scale;
+    }
+
+    /**
+     * Sets the value of taking an action in a state.
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @param value The new value.
+     */
+    public void set(int stateIndex, int action, float value)
+    {
+        values[stateIndex * actionCount + action] = toStored(value * inverseScale);
+    }
+
+    /**
+     * Ties are resolved towards the lowest action index.
+     */
+    @Override public int argmax(int stateIndex)
+    {
+        int offset = stateIndex * actionCount;
+        int highestAction = 0;
+        int highestKey = sortKey(values[offset]);
+        for (int action = 1; action < actionCount; action++)
+        {
+            int key = sortKey(values[offset + action]);
+            if (key > highestKey)
+            {
+                highestKey = key;
+                highestAction = action;
+            }
+        }
+        return highestAction;
+    }
+
+    @Override public float max(int stateIndex)
+    {
+        return get(stateIndex, argmax(stateIndex));
+    }
+
+    @Override public float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        float value = (1 - alpha) * get(stateIndex, action) + alpha * (reward + gamma * max(nextStateIndex));
+        set(stateIndex, action, value);
+        return value;
+    }
+
+    @Override public void add(int stateIndex, int action, float amount)
+    {
+        set(stateIndex, action, get(stateIndex, action) + amount);
+    }
+
+    /**
+     * @return The largest absolute value in the table.
+     */
+    public float maxAbs()
+    {
+        // Without the sign bit, larger magnitudes have larger bits.
+        int highestBits = 0;
+        for (short value : values)
+        {
+            highestBits = Math.max(highestBits, value & 0x7fff);
+        }
+        return toFloat((short)highestBits) * scale;
+    }
+
+    /**
+     * Scales the table so the largest absolute value becomes the limit.
+     * @param limit The largest absolute value after normalising.
+     * @return The factor the table was scaled by, 1 if it was left unchanged.
+     */
+    @Override public float normalise(float limit)
+    {
+        float highestValue = maxAbs();
+        if (highestValue == 0) return 1;
+        if (Math.abs(highestValue - limit) <= Math.ulp(limit)) return 1;
+
+        float factor = limit / highestValue;
+        setScale(scale * factor);
+        return factor;
+    }
+
+    /**
+     * Rewrites the stored values so they hold the real values and the
+     * scale is 1. The real values only change by rounding.
+     */
+    public void materialise()
+    {
+        if (scale == 1) return;
+
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = toStored(toFloat(values[i]) * scale);
+        }
+        scale = 1;
+        inverseScale = 1;
+    }
+
+    @Override public void copyFrom(PersistentQFunction source)
+    {
+        if (source instanceof Float16QTable)
+        {
+            ((Float16QTable)source).copyTo(this);
+            return;
+        }
+        if (source.getStateCount() != stateCount || source.getActionCount() != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        layout = source.getLayout();
+        scale = 1;
+        inverseScale = 1;
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                set(stateIndex, action, source.get(stateIndex, action));
+            }
+        }
+    }
+
+    @Override public void clear()
+    {
+        Arrays.fill(values, (short)0);
+        scale = 1;
+        inverseScale = 1;
+    }
+
+    @Override public void setRow(int stateIndex, float[] rowValues, int offset)
+    {
+        for (int action = 0; action < actionCount; action++)
+        {
+            set(stateIndex, action, rowValues[offset + action]);
+        }
+    }
+
+    /**
+     * Replaces the contents of another table with a copy of this one.
+     * @param destination A table with the same number of states and actions.
+     */
+    public void copyTo(Float16QTable destination)
+    {
+        if (destination.stateCount != stateCount || destination.actionCount != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        System.arraycopy(values, 0, destination.values, 0, values.length);
+        destination.setScale(scale);
+        destination.layout = layout;
+    }
+
+    /**
+     * Sets the scale factor, as when the stored values are read from a file.
+     * A scale outside the range, as saved before it was kept to one, is
+     * applied to the values straight away.
+     */
+    void setScale(float scale)
+    {
+        this.scale = scale;
+        this.inverseScale = 1 / scale;
+        if (scale < MIN_SCALE || scale > MAX_SCALE)
+        {
+            materialise();
+        }
+    }
+
+    /**
+     * @return The half to store for a value before scaling, clamped to the
+     *         largest finite half. NaN is stored as 0.
+     */
+    private static short toStored(float value)
+    {
+        if (Float.isNaN(value)) return 0;
+        return toHalf(Math.max(-MAX_HALF, Math.min(MAX_HALF, value)));
+    }
+
+    /**
+     * Maps half precision bits to an int in the same order as their values.
+     * Negative values have their magnitude bits flipped, so larger magnitudes sort lower.
+     */
+    private static int sortKey(short bits)
+    {
+        return bits ^ ((bits >> 15) & 0x7fff);
+    }
+
+    /**
+     * @param value A float.
+     * @return The nearest half precision float, as its bits. Ties round to even.
+     */
+    static short toHalf(float value)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        if (Float.isNaN(value)) return (short)(sign | 0x7e00);
+
+        float magnitude = Math.abs(value);
+        // Halfway between the largest half and the next power of two rounds up to infinity.
+        if (magnitude >= 65520f) return (short)(sign | 0x7c00);
+        // Half the smallest subnormal or less rounds down to zero.
+        if (magnitude <= 0x1.0p-25f) return (short)sign;
+
+        int exponent = Math.getExponent(value);
+        int shift = 13;
+        int significand = bits & 0x007fffff;
+        if (exponent < -14)
+        {
+            // Subnormal, shift the implicit leading bit in.
+            shift += -14 - exponent;
+            exponent = -15;
+            significand |= 0x00800000;
+        }
+
+        int halfSignificand = significand >> shift;
+        int lowest = significand & (1 << shift);
+        int round = significand & (1 << (shift - 1));
+        int sticky = significand & ((1 << (shift - 1)) - 1);
+        if (round != 0 && (lowest | sticky) != 0) halfSignificand++;
+
+        // Carrying out of the significand moves into the exponent, as it should.
+        return (short)(sign | (((exponent + 15) << 10) + halfSignificand));
+    }
+
+    /**
+     * @param half Half precision bits.
+     * @return The value they hold.
+     */
+    static float toFloat(short half)
+    {
+        int mantissa = half & 0x03ff;
+        int exponent = half & 0x7c00;
+        if (exponent == 0x7c00)
+        {
+            // Infinite or NaN.
+            exponent = 0x3fc00;
+        }
+        else if (exponent != 0)
+        {
+            // Normal, rebias the exponent.
+            exponent += 0x1c000;
+        }
+        else if (mantissa != 0)
+        {
+            // Subnormal, normalise it.
+            exponent = 0x1c400;
+            do
+            {
+                mantissa <<= 1;
+                exponent -= 0x400;
+            }
+            while ((mantissa & 0x400) == 0);
+            mantissa &= 0x3ff;
+        }
+        return Float.intBitsToFloat((half & 0x8000) << 16 | (exponent | mantissa) << 13);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+/***
+ * The best action for every state of a table, worked out once so that a
+ * decision is a single array read.
+ *
+ * Only for tables that have stopped learning, as it doesn't follow
+ * changes to the values. Ties are resolved towards the lowest action
+ * index, as QFunction.argmax does, so the same table always compiles to
+ * the same policy.
+ */
+public class GreedyPolicy {
+
+    // The best action for each state.
+    private final byte[] actions;
+
+    private GreedyPolicy(byte[] actions)
+    {
+        this.actions = actions;
+    }
+
+    /**
+     * @param qFunction The values to pick the actions from, with at most 256 actions.
+     * @return The greedy policy of the values as they are now.
+     */
+    public static GreedyPolicy compile(QFunction qFunction)
+    {
+        if (qFunction.getActionCount() > 256) throw new IllegalArgumentException("Too many actions to compile.");
+
+        byte[] actions = new byte[qFunction.getStateCount()];
+        if (qFunction instanceof QTable)
+        {
+            QTable qTable = (QTable)qFunction;
+            BulkOps.argmaxRows(qTable.values, qTable.getRowStride(), qTable.getActionCount(), actions);
+            return new GreedyPolicy(actions);
+        }
+
+        for (int stateIndex = 0; stateIndex < actions.length; stateIndex++)
+        {
+            actions[stateIndex] = (byte)qFunction.argmax(stateIndex);
+        }
+        return new GreedyPolicy(actions);
+    }
+
+    public int getStateCount() { return actions.length; }
+
+    /**
+     * @param stateIndex Index of the state.
+     * @return The action with the highest value in the state.
+     */
+    public int getAction(int stateIndex)
+    {
+        return actions[stateIndex] & 0xff;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/***
+ * A table for each opponent, kept in a folder named after it in the
+ * data directory, e.g. SpinBot/QValues.data. This is the same layout as
+ * the bundled data sets.
+ *
+ * Tables are only loaded the first time an opponent is seen, and then
+ * kept in memory for the rest of the battle. Only the most recently used
+ * are kept, and a table is saved before it's dropped. An opponent
+ * without a table of its own starts from a copy of the generic one, and
+ * is saved under its own name from then on.
+ *
+ * Each table is saved in its backend's format, e.g. QValues.data for a
+ * dense table or QValues.int8 for a quantised one. Each table is written
+ * whole, there's no journal.
+ */
+public class OpponentTableCache {
+
+    private final File dataDirectory;
+    private final SnapshotWriter.Destination destination;
+    private final Supplier<PersistentQFunction> tableFactory;
+    private final int capacity;
+
+    // Least recently used first.
+    private final LinkedHashMap<String, Entry> entries;
+
+    /***
+     * Constructor.
+     * @param dataDirectory The robot's data directory.
+     * @param destination Opens the files tables are saved to.
+     * @param tableFactory Creates an empty table of any backend.
+     * @param capacity The most tables kept in memory.
+     */
+    public OpponentTableCache(File dataDirectory, SnapshotWriter.Destination destination, Supplier<PersistentQFunction> tableFactory, int capacity)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException();
+
+        this.dataDirectory = dataDirectory;
+        this.destination = destination;
+        this.tableFactory = tableFactory;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+    }
+
+    /**
+     * Turns the name Robocode gives a robot into a folder name. The
+     * package, version and the number added to duplicates in melee
+     * battles are dropped, so "sample.SpinBot (2)" becomes "SpinBot".
+     * @param robotName Name from <code>ScannedRobotEvent.getName()</code>.
+     * @return The opponent's name, only letters, digits, '_' and '-'.
+     */
+    public static String getOpponentName(String robotName)
+    {
+        String name = robotName.trim();
+        int space = name.indexOf(' ');
+        if (space >= 0) name = name.substring(0, space);
+        name = name.substring(name.lastIndexOf('.') + 1);
+
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            builder.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+        }
+        return builder.length() > 0 ? builder.toString() : "_";
+    }
+
+    /**
+     * @return Number of tables held in memory.
+     */
+    public int size() { return entries.size(); }
+
+    /**
+     * @param opponentName Name from <code>getOpponentName</code>.
+     * @return true if the opponent's table is held in memory.
+     */
+    public boolean contains(String opponentName) { return entries.containsKey(opponentName); }
+
+    /**
+     * Finds an opponent's table, loading it if it isn't in memory.
+     * @param opponentName Name from <code>getOpponentName</code>.
+     * @param generic The table to copy if the opponent doesn't have one yet.
+     * @param genericEpsilon The epsilon value to start it with.
+     * @return The opponent's table. Call <code>save</code> after changing it.
+     */
+    public PersistentQFunction get(String opponentName, PersistentQFunction generic, float genericEpsilon)
+    {
+        return getEntry(opponentName, generic, genericEpsilon).table;
+    }
+
+    /**
+     * @param opponentName An opponent whose table is in memory.
+     * @return The epsilon value the table was last saved or loaded with.
+     */
+    public float getEpsilon(String opponentName)
+    {
+        return entries.get(opponentName).epsilon;
+    }
+
+    /**
+     * Saves an opponent's table.
+     * @param opponentName An opponent whose table is in memory.
+     * @param epsilon The epsilon value to save with it.
+     */
+    public void save(String opponentName, float epsilon)
+    {
+        Entry entry = entries.get(opponentName);
+        entry.epsilon = epsilon;
+        write(opponentName, entry);
+    }
+
+    /**
+     * Reads an opponent's table without keeping it in the cache, for a
+     * table that won't be changed or saved.
+     * @param opponentName Name from <code>getOpponentName</code>.
+     * @param generic The table to copy if the opponent doesn't have one yet.
+     * @return The opponent's table.
+     */
+    public PersistentQFunction read(String opponentName, PersistentQFunction generic)
+    {
+        Entry entry = new Entry(tableFactory.get());
+        if (!load(opponentName, entry))
+        {
+            entry.table.copyFrom(generic);
+        }
+        return entry.table;
+    }
+
+    private Entry getEntry(String opponentName, PersistentQFunction generic, float genericEpsilon)
+    {
+        Entry entry = entries.get(opponentName);
+        if (entry != null) return entry;
+
+        entry = new Entry(tableFactory.get());
+        if (!load(opponentName, entry))
+        {
+            entry.table.copyFrom(generic);
+            entry.epsilon = genericEpsilon;
+        }
+
+        makeRoom();
+        entries.put(opponentName, entry);
+        return entry;
+    }
+
+    /**
+     * Reads the opponent's file into the entry, if it has one.
+     * @return false if there's no file or it can't be read.
+     */
+    private boolean load(String opponentName, Entry entry)
+    {
+        File file = getFile(opponentName, entry.table);
+        if (!file.exists() || file.length() == 0) return false;
+
+        try
+        {
+            entry.epsilon = entry.table.read(file);
+            return true;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            System.out.println("Unable to load " + file.getPath() + ", starting from the generic table: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Drops the least recently used tables until there's room for one more.
+     */
+    private void makeRoom()
+    {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() >= capacity && iterator.hasNext())
+        {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            write(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    private void write(String opponentName, Entry entry)
+    {
+        File file = getFile(opponentName, entry.table);
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            System.out.println("Unable to create " + directory.getPath());
+            return;
+        }
+
+        try (OutputStream outputStream = destination.open(file))
+        {
+            entry.table.write(entry.epsilon, outputStream);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private File getFile(String opponentName, PersistentQFunction table)
+    {
+        return new File(new File(dataDirectory, opponentName), table.getFileName());
+    }
+
+    /***
+     * An opponent's table and its epsilon value.
+     */
+    private static class Entry {
+        final PersistentQFunction table;
+        float epsilon;
+
+        Entry(PersistentQFunction table)
+        {
+            this.table = table;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/***
+ * A table backend that can be saved, loaded, copied and normalised, so
+ * callers don't need to know which backend they hold.
+ * <pre>
+ *   dense    QTable,           QValues.data
+ *   sparse   SparseQTable,     QValues.sparse
+ *   int8     QuantisedQTable,  QValues.int8
+ *   float16  Float16QTable,    QValues.half
+ * </pre>
+ */
+public interface PersistentQFunction extends QFunction {
+
+    /**
+     * @return Description of how observations are divided into the states, empty if unknown.
+     */
+    String getLayout();
+
+    /**
+     * @param layout Description of how observations are divided into the states.
+     */
+    void setLayout(String layout);
+
+    /**
+     * @return The name of the file the table is saved to, e.g. QValues.data.
+     */
+    String getFileName();
+
+    /**
+     * Reads a file in the table's format, replacing its contents.
+     * @param file The file to read.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the table.
+     */
+    float read(File file) throws IOException;
+
+    /**
+     * Writes the table in its format. The stream is not closed.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @return The checksum stored in the header.
+     * @throws IOException If writing fails.
+     */
+    int write(float epsilon, OutputStream outputStream) throws IOException;
+
+    /**
+     * @return Bytes the table would take up in its file.
+     */
+    long getFileSize();
+
+    /**
+     * @return Bytes used by the arrays holding the table.
+     */
+    long getMemoryUsage();
+
+    /**
+     * Scales the table so the largest absolute value becomes the limit.
+     * @param limit The largest absolute value after normalising.
+     * @return The factor the table was scaled by, 1 if it was left unchanged.
+     */
+    float normalise(float limit);
+
+    /**
+     * Sets every value to zero.
+     */
+    void clear();
+
+    /**
+     * Replaces a state's values, e.g. with a row read from a file.
+     * @param stateIndex Index of the state.
+     * @param rowValues Holds the state's values, one for each action.
+     * @param offset Index of the first action's value in rowValues.
+     */
+    void setRow(int stateIndex, float[] rowValues, int offset);
+
+    /**
+     * Replaces the contents with another table's. A table of the same
+     * backend is copied exactly, anything else value by value.
+     * @param source A table with the same number of states and actions.
+     */
+    void copyFrom(PersistentQFunction source);
+}
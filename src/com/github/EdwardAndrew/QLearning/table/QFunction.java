@@ -0,0 +1,63 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+/***
+ * State -> Action -> Reward values, as seen by a learner.
+ * States are identified by a single index, see <code>QTable.getStateIndex</code>.
+ */
+public interface QFunction {
+
+    /**
+     * @return Number of states.
+     */
+    int getStateCount();
+
+    /**
+     * @return Number of actions in each state.
+     */
+    int getActionCount();
+
+    /**
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @return The value of taking the action in the state.
+     */
+    float get(int stateIndex, int action);
+
+    /**
+     * Ties are resolved towards the lowest action index.
+     * @param stateIndex Index of the state.
+     * @return The action that yields the highest value for the state.
+     */
+    int argmax(int stateIndex);
+
+    /**
+     * @param stateIndex Index of the state.
+     * @return The highest value that can be obtained from the state.
+     */
+    float max(int stateIndex);
+
+    /**
+     * Performs a single QLearning update.
+     * Q(St,At) = (1-alpha) * Q(St,At) + alpha * (Rt + gamma * Max(Q(St+1,a)))
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received for taking the action.
+     * @param nextStateIndex The state the action led to.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return The updated value.
+     */
+    float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma);
+
+    /**
+     * Adds to the value of taking an action in a state.
+     * Used by learners that update several values from one reward.
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @param amount How much to add, may be negative.
+     */
+    void add(int stateIndex, int action, float amount);
+}
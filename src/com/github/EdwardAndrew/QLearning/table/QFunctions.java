@@ -0,0 +1,111 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+
+/***
+ * Creates tables of any of the backends by name, as given by the
+ * table.backend setting. Once created, they're saved, loaded and copied
+ * through PersistentQFunction.
+ */
+public final class QFunctions {
+
+    public static final String DENSE = "dense";
+    public static final String SPARSE = "sparse";
+    public static final String INT8 = "int8";
+    public static final String FLOAT16 = "float16";
+
+    // States read at a time when importing QValues.data.
+    private static final int IMPORT_CHUNK_STATES = 4096;
+
+    private QFunctions() {}
+
+    /**
+     * @param backend One of dense, sparse, int8 or float16.
+     * @param stateDimensions The number of quantised values of each state dimension.
+     * @param actionCount Number of actions available in every state.
+     * @param layout Description of how observations are divided into the states.
+     * @return An empty table.
+     */
+    public static PersistentQFunction create(String backend, int[] stateDimensions, int actionCount, String layout)
+    {
+        int stateCount = 1;
+        for (int size : stateDimensions)
+        {
+            stateCount *= size;
+        }
+
+        switch (backend)
+        {
+            case DENSE:
+            {
+                QTable table = new QTable(stateDimensions, actionCount);
+                table.setLayout(layout);
+                return table;
+            }
+            case SPARSE:
+            {
+                SparseQTable table = new SparseQTable(stateCount, actionCount);
+                table.setLayout(layout);
+                return table;
+            }
+            case INT8:
+            {
+                QuantisedQTable table = new QuantisedQTable(stateCount, actionCount);
+                table.setLayout(layout);
+                return table;
+            }
+            case FLOAT16:
+            {
+                Float16QTable table = new Float16QTable(stateCount, actionCount);
+                table.setLayout(layout);
+                return table;
+            }
+            default: throw new IllegalArgumentException("Unknown table backend: " + backend);
+        }
+    }
+
+    /**
+     * Imports QValues.data, in the binary or the old text format, into a
+     * table of any backend. It's streamed a few states at a time, so no
+     * dense table is built, and a layout too large for one can still
+     * import a file of its own shape. The table is cleared first, so it
+     * may be left partly filled if the file turns out to be corrupt.
+     * @param file The QValues.data file.
+     * @param table The table to import into.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt, or doesn't match the table's shape or layout.
+     */
+    public static float importDense(File file, PersistentQFunction table) throws IOException
+    {
+        int actionCount = table.getActionCount();
+        try (QTableFileReader reader = new QTableFileReader(file, new int[] { table.getStateCount() }, actionCount))
+        {
+            if (reader.getStateCount() != table.getStateCount() || reader.getActionCount() != actionCount)
+            {
+                throw new IOException(file + " does not match the table's dimensions.");
+            }
+            if (!reader.getLayout().isEmpty() && !table.getLayout().isEmpty() && !reader.getLayout().equals(table.getLayout()))
+            {
+                throw new IOException(file + " was saved with a different state layout: " + reader.getLayout());
+            }
+
+            table.clear();
+            float[] chunk = new float[IMPORT_CHUNK_STATES * actionCount];
+            int firstState = 0;
+            int states;
+            while ((states = reader.read(chunk, IMPORT_CHUNK_STATES)) > 0)
+            {
+                for (int state = 0; state < states; state++)
+                {
+                    table.setRow(firstState + state, chunk, state * actionCount);
+                }
+                firstState += states;
+            }
+            return reader.getEpsilon();
+        }
+    }
+}
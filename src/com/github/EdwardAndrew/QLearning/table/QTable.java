@@ -0,0 +1,547 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/***
+ * State -> Action -> Reward values stored in a single flat array.
+ *
+ * Each state owns one row of action values. Rows are laid out row-major
+ * in the order of the state dimensions, so the last dimension varies
+ * fastest. This is the same order the nested loops in the old save file
+ * used. Rows are padded to a power of two so that a single decision only
+ * ever reads one small, contiguous block of memory.
+ *
+ * The stored values are multiplied by a scale factor when read, so
+ * scaling and normalising the whole table takes constant time. The
+ * largest absolute value is tracked as values are written, and the
+ * stored values are only rewritten when the scale factor gets extreme
+ * or the table is saved.
+ */
+public class QTable implements PersistentQFunction {
+
+    // Size of each state dimension, e.g. {10, 10, 8, 4}.
+    private final int[] stateDimensions;
+    // How far apart neighbouring values of each dimension are, in states.
+    private final int[] stateStrides;
+    // Total number of states (product of the dimensions).
+    private final int stateCount;
+    // Number of actions that can be taken in each state.
+    private final int actionCount;
+    // Number of floats between the start of one row and the next.
+    private final int rowStride;
+    // Describes how observations were divided into the states, empty if unknown.
+    private String layout = "";
+    // Seed of the random numbers the table was last trained with, 0 if unknown.
+    private long seed = 0;
+
+    // The values, row-major, before scaling. Padding slots are always zero.
+    final float[] values;
+
+    // A value's real value is values[i] * scale.
+    private float scale = 1;
+    private float inverseScale = 1;
+    // The stored values are rewritten once the scale leaves this range,
+    // so they stay well inside the range a float can hold.
+    private static final float MIN_SCALE = 1e-4f;
+    private static final float MAX_SCALE = 1e4f;
+
+    // Largest absolute stored value, and where it is. If the value at that
+    // index has since shrunk, the tracker is stale and only an upper bound.
+    private float maxAbsValue = 0;
+    private int maxAbsIndex = 0;
+    private boolean maxAbsStale = false;
+
+    // One bit per state, set when any value in the state's row changes.
+    private final long[] dirtyBits;
+    // The states whose bits are set, in the order they were first changed.
+    private final int[] dirtyStates;
+    private int dirtyStateCount = 0;
+
+    /***
+     * Constructor, creates a table with every value set to zero.
+     * @param stateDimensions The number of quantised values of each state dimension.
+     * @param actionCount The number of actions available in every state.
+     */
+    public QTable(int[] stateDimensions, int actionCount)
+    {
+        if (stateDimensions.length == 0 || actionCount <= 0) throw new IllegalArgumentException();
+
+        this.stateDimensions = stateDimensions.clone();
+        this.stateStrides = new int[stateDimensions.length];
+        this.actionCount = actionCount;
+        this.rowStride = getPaddedRowStride(actionCount);
+
+        long count = 1;
+        for (int dimension = stateDimensions.length - 1; dimension >= 0; dimension--)
+        {
+            if (stateDimensions[dimension] <= 0) throw new IllegalArgumentException();
+            stateStrides[dimension] = (int)count;
+            count *= stateDimensions[dimension];
+            if (count * rowStride > Integer.MAX_VALUE) throw new IllegalArgumentException("State space too large.");
+        }
+        this.stateCount = (int)count;
+        this.values = new float[stateCount * rowStride];
+        this.dirtyBits = new long[(stateCount + 63) >>> 6];
+        this.dirtyStates = new int[stateCount];
+    }
+
+    /**
+     * @return Number of states in the table.
+     */
+    @Override public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+     * @return Number of actions in each state.
+     */
+    @Override public int getActionCount()
+    {
+        return actionCount;
+    }
+
+    /**
+     * @return Number of floats each row occupies, including padding.
+     */
+    public int getRowStride()
+    {
+        return rowStride;
+    }
+
+    /**
+     * @return A copy of the state dimensions this table was created with.
+     */
+    public int[] getStateDimensions()
+    {
+        return stateDimensions.clone();
+    }
+
+    /**
+     * @return Description of how observations are divided into the states,
+     *         saved with the table. Empty if unknown.
+     */
+    @Override public String getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * @param layout Description of how observations are divided into the states.
+     */
+    @Override public void setLayout(String layout)
+    {
+        this.layout = layout == null ? "" : layout;
+    }
+
+    @Override public String getFileName()
+    {
+        return "QValues.data";
+    }
+
+    /**
+     * Reads a file in the binary or the old text format.
+     */
+    @Override public float read(File file) throws IOException
+    {
+        return QTableFile.load(file, this);
+    }
+
+    @Override public int write(float epsilon, OutputStream outputStream) throws IOException
+    {
+        return QTableFile.write(this, epsilon, outputStream);
+    }
+
+    @Override public long getFileSize()
+    {
+        return QTableFile.getFileSize(this);
+    }
+
+    @Override public long getMemoryUsage()
+    {
+        return values.length * 4L;
+    }
+
+    /**
+     * @return Seed of the random numbers the table was last trained with,
+     *         saved with the table. 0 if unknown.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * @param seed Seed of the random numbers the table is being trained with.
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Converts a set of quantised states into a single state index.
+     * @param state One quantised value per state dimension.
+     * @return Index of the row for this state.
+     */
+    public int getStateIndex(int[] state)
+    {
+        int index = 0;
+        for (int dimension = 0; dimension < stateStrides.length; dimension++)
+        {
+            index += state[dimension] * stateStrides[dimension];
+        }
+        return index;
+    }
+
+    /**
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @return The value of taking the action in the state.
+     */
+    @Override public float get(int stateIndex, int action)
+    {
+        return values[stateIndex * rowStride + action] * scale;
+    }
+
+    /**
+     * Sets the value of taking an action in a state.
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @param value The new value.
+     */
+    public void set(int stateIndex, int action, float value)
+    {
+        store(stateIndex * rowStride + action, value);
+        markDirty(stateIndex);
+    }
+
+    @Override public void add(int stateIndex, int action, float amount)
+    {
+        int index = stateIndex * rowStride + action;
+        store(index, values[index] * scale + amount);
+        markDirty(stateIndex);
+    }
+
+    /**
+     * The scale is always positive, so the stored values have the
+     * same order as the real ones.
+     * Ties are resolved towards the lowest action index.
+     * @param stateIndex Index of the state.
+     * @return The action that yields the highest value for the state.
+     */
+    @Override public int argmax(int stateIndex)
+    {
+        return BulkOps.argmax(values, stateIndex * rowStride, actionCount);
+    }
+
+    /**
+     * @param stateIndex Index of the state.
+     * @return The highest value that can be obtained from the state.
+     */
+    @Override public float max(int stateIndex)
+    {
+        return BulkOps.max(values, stateIndex * rowStride, actionCount) * scale;
+    }
+
+    /**
+     * Performs a single QLearning update.
+     * Q(St,At) = (1-alpha) * Q(St,At) + alpha * (Rt + gamma * Max(Q(St+1,a)))
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received for taking the action.
+     * @param nextStateIndex The state the action led to.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return The updated value.
+     */
+    @Override public float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        int index = stateIndex * rowStride + action;
+        float value = (1 - alpha) * values[index] * scale + alpha * (reward + gamma * max(nextStateIndex));
+        store(index, value);
+        markDirty(stateIndex);
+        return value;
+    }
+
+    /**
+     * Usually takes constant time. The table is only scanned if the
+     * largest value has shrunk since it was last found.
+     * @return The largest absolute value in the table.
+     */
+    public float maxAbs()
+    {
+        if (maxAbsStale)
+        {
+            findMaxAbs();
+        }
+        return maxAbsValue * scale;
+    }
+
+    /**
+     * Scales the table so the largest absolute value becomes the limit.
+     * @param limit The largest absolute value after normalising.
+     * @return The factor the table was scaled by, 1 if it was left unchanged.
+     */
+    @Override public float normalise(float limit)
+    {
+        float highestValue = maxAbs();
+
+        // Nothing has been learnt yet, avoid dividing by zero.
+        if (highestValue == 0) return 1;
+        // Already normalised, scaling again would only add rounding error.
+        if (Math.abs(highestValue - limit) <= Math.ulp(limit)) return 1;
+
+        float factor = limit / highestValue;
+        if (factor != 1) scale(factor);
+        return factor;
+    }
+
+    /**
+     * Multiplies every value in the table by a factor, in constant time
+     * for positive factors.
+     * Rows are not marked as dirty, callers that track changes
+     * should record the scale as a single operation instead.
+     * @param factor The factor to multiply by.
+     */
+    public void scale(float factor)
+    {
+        if (factor > 0)
+        {
+            setScale(scale * factor);
+            return;
+        }
+
+        // A negative or zero scale would break the ordering argmax relies on.
+        materialise();
+        BulkOps.scale(values, 0, values.length, factor);
+        maxAbsValue *= Math.abs(factor);
+    }
+
+    /**
+     * Applies the scale factor to the stored values, so they hold the
+     * real values and the scale is 1. The real values don't change.
+     */
+    public void materialise()
+    {
+        if (scale == 1) return;
+
+        BulkOps.scale(values, 0, values.length, scale);
+        maxAbsValue *= scale;
+        scale = 1;
+        inverseScale = 1;
+    }
+
+    @Override public void clear()
+    {
+        fill(0);
+    }
+
+    @Override public void setRow(int stateIndex, float[] rowValues, int offset)
+    {
+        for (int action = 0; action < actionCount; action++)
+        {
+            set(stateIndex, action, rowValues[offset + action]);
+        }
+    }
+
+    /**
+     * Sets every value in the table.
+     * @param value The value to use.
+     */
+    public void fill(float value)
+    {
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            int offset = stateIndex * rowStride;
+            Arrays.fill(values, offset, offset + actionCount, value);
+        }
+        scale = 1;
+        inverseScale = 1;
+        maxAbsValue = Math.abs(value);
+        maxAbsIndex = 0;
+        maxAbsStale = false;
+        markAllDirty();
+    }
+
+    @Override public void copyFrom(PersistentQFunction source)
+    {
+        if (source instanceof QTable && hasSameShape((QTable)source))
+        {
+            ((QTable)source).copyTo(this);
+            return;
+        }
+        if (source.getStateCount() != stateCount || source.getActionCount() != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        layout = source.getLayout();
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                set(stateIndex, action, source.get(stateIndex, action));
+            }
+        }
+    }
+
+    /**
+     * Copies every value into another table of the same shape.
+     * @param destination The table to copy into.
+     */
+    public void copyTo(QTable destination)
+    {
+        if (!hasSameShape(destination)) throw new IllegalArgumentException("Tables have different shapes.");
+        System.arraycopy(values, 0, destination.values, 0, values.length);
+        destination.layout = layout;
+        destination.seed = seed;
+        destination.scale = scale;
+        destination.inverseScale = inverseScale;
+        destination.maxAbsValue = maxAbsValue;
+        destination.maxAbsIndex = maxAbsIndex;
+        destination.maxAbsStale = maxAbsStale;
+        destination.markAllDirty();
+    }
+
+    /**
+     * @param stateIndex Index of the state.
+     * @return true if the state's row has changed since the last call to <code>clearDirty()</code>.
+     */
+    public boolean isDirty(int stateIndex)
+    {
+        return (dirtyBits[stateIndex >>> 6] & (1L << stateIndex)) != 0;
+    }
+
+    /**
+     * @return Number of states whose rows have changed.
+     */
+    public int getDirtyStateCount()
+    {
+        return dirtyStateCount;
+    }
+
+    /**
+     * @param i Position in the dirty list, between 0 and <code>getDirtyStateCount() - 1</code>.
+     * @return Index of a state whose row has changed.
+     */
+    public int getDirtyState(int i)
+    {
+        return dirtyStates[i];
+    }
+
+    /**
+     * Forgets which rows have changed. Costs time proportional to the
+     * number of dirty rows, not the size of the table.
+     */
+    public void clearDirty()
+    {
+        for (int i = 0; i < dirtyStateCount; i++)
+        {
+            dirtyBits[dirtyStates[i] >>> 6] = 0;
+        }
+        dirtyStateCount = 0;
+    }
+
+    /**
+     * Prepares for the stored values to be overwritten directly, as when a
+     * file is read straight into them. Sets the scale to 1 and the largest
+     * value to be found again.
+     */
+    void beginRawWrite()
+    {
+        scale = 1;
+        inverseScale = 1;
+        maxAbsStale = true;
+    }
+
+    /**
+     * Stores a real value, keeping track of the largest one.
+     * @param index Position in the values array.
+     * @param value The real value.
+     */
+    private void store(int index, float value)
+    {
+        float storedValue = value * inverseScale;
+        values[index] = storedValue;
+
+        float magnitude = Math.abs(storedValue);
+        if (magnitude >= maxAbsValue)
+        {
+            // At least as large as an upper bound, so this is the largest value.
+            maxAbsValue = magnitude;
+            maxAbsIndex = index;
+            maxAbsStale = false;
+        }
+        else if (index == maxAbsIndex)
+        {
+            maxAbsStale = true;
+        }
+    }
+
+    private void setScale(float newScale)
+    {
+        scale = newScale;
+        inverseScale = 1 / newScale;
+        if (scale < MIN_SCALE || scale > MAX_SCALE)
+        {
+            materialise();
+        }
+    }
+
+    private void findMaxAbs()
+    {
+        maxAbsIndex = BulkOps.indexOfMaxAbs(values, 0, values.length);
+        maxAbsValue = Math.abs(values[maxAbsIndex]);
+        maxAbsStale = false;
+    }
+
+    /**
+     * Records that a state's row has changed.
+     * @param stateIndex Index of the state.
+     */
+    private void markDirty(int stateIndex)
+    {
+        long bit = 1L << stateIndex;
+        int word = stateIndex >>> 6;
+        if ((dirtyBits[word] & bit) == 0)
+        {
+            dirtyBits[word] |= bit;
+            dirtyStates[dirtyStateCount++] = stateIndex;
+        }
+    }
+
+    /**
+     * Records that every row has changed.
+     */
+    private void markAllDirty()
+    {
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            markDirty(stateIndex);
+        }
+    }
+
+    /**
+     * @param other Table to compare with.
+     * @return true if both tables have the same state dimensions and actions.
+     */
+    public boolean hasSameShape(QTable other)
+    {
+        return actionCount == other.actionCount && Arrays.equals(stateDimensions, other.stateDimensions);
+    }
+
+    /**
+     * Rows are rounded up to the next power of two, so a 9 action row
+     * occupies 16 floats (64 bytes, a typical cache line).
+     * @param actionCount Number of actions in each row.
+     * @return The padded row length.
+     */
+    private static int getPaddedRowStride(int actionCount)
+    {
+        return Integer.highestOneBit(actionCount) == actionCount ? actionCount : Integer.highestOneBit(actionCount) << 1;
+    }
+}
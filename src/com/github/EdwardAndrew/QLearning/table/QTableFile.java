@@ -0,0 +1,396 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Reads and writes QTables in the binary QValues.data format.
+ *
+ * Layout, all values little-endian:
+ * <pre>
+ *   int   magic           'QTBL'
+ *   int   version
+ *   float epsilon
+ *   int   checksum        CRC32 of the values
+ *   int   actionCount
+ *   int   dimensionCount
+ *   int[] stateDimensions
+ *   int   layoutLength    bytes in the layout, version 2 onwards
+ *   byte[] layout         UTF-8 description of the state layout, padded to a multiple of 4 bytes
+ *   long  seed            seed of the random numbers the values were last trained with, 0 if
+ *                         unknown, version 3 onwards
+ *   float[stateCount * actionCount] values, without row padding
+ * </pre>
+ *
+ * A file is only read into a table with the same dimensions. If both the
+ * file and the table know their layout, those must match too. Version 1
+ * files have no layout and are read into any table of the right shape.
+ * The seed is only a record of the training run, it isn't read into the
+ * table, see readSeed().
+ *
+ * The old text format (epsilon followed by one value per line) can still
+ * be imported, so existing trained data sets keep working. It doesn't
+ * record its shape, so it's only imported into a table of the shape it
+ * was always written from, 3200 states of 9 actions.
+ */
+public final class QTableFile {
+
+    // 'QTBL' when read as little-endian bytes.
+    public static final int MAGIC = 0x4C425451;
+    public static final int VERSION = 3;
+
+    // Size of the fixed part of the header, before the state dimensions.
+    static final int FIXED_HEADER_SIZE = 6 * 4;
+    // Where the checksum is in the header.
+    static final int CHECKSUM_POSITION = 3 * 4;
+
+    // Shape of every table saved in the old text format.
+    public static final int TEXT_STATE_COUNT = 3200;
+    public static final int TEXT_ACTION_COUNT = 9;
+
+    private QTableFile() {}
+
+    /**
+     * @param table The table to be written.
+     * @return The size of the file in bytes.
+     */
+    public static int getFileSize(QTable table)
+    {
+        return FIXED_HEADER_SIZE + table.getStateDimensions().length * 4 + 4 + getPaddedLength(encodeLayout(table).length) + 8
+                + table.getStateCount() * table.getActionCount() * 4;
+    }
+
+    /**
+     * Writes a table to a stream in the binary format.
+     * The stream is not closed.
+     * @param table The table to write.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @return The checksum stored in the header.
+     * @throws IOException If writing fails.
+     */
+    public static int write(QTable table, float epsilon, OutputStream outputStream) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(table)).order(ByteOrder.LITTLE_ENDIAN);
+        int checksum = encode(table, epsilon, buffer);
+        buffer.flip();
+
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        outputStream.flush();
+        return checksum;
+    }
+
+    /**
+     * Encodes a table into a buffer at its current position.
+     * @param table The table to encode.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param buffer A little-endian buffer with at least
+     *               <code>getFileSize(table)</code> bytes remaining.
+     * @return The checksum stored in the header.
+     */
+    public static int encode(QTable table, float epsilon, ByteBuffer buffer)
+    {
+        int[] stateDimensions = table.getStateDimensions();
+        int start = buffer.position();
+
+        // Write the real values rather than scaled ones.
+        table.materialise();
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putFloat(epsilon);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(table.getActionCount());
+        buffer.putInt(stateDimensions.length);
+        for (int dimension : stateDimensions)
+        {
+            buffer.putInt(dimension);
+        }
+        byte[] layout = encodeLayout(table);
+        buffer.putInt(layout.length);
+        buffer.put(layout);
+        buffer.position(buffer.position() + getPaddedLength(layout.length) - layout.length);
+        buffer.putLong(table.getSeed());
+
+        int payloadStart = buffer.position();
+        FloatBuffer floats = buffer.asFloatBuffer();
+        int rowStride = table.getRowStride();
+        for (int stateIndex = 0; stateIndex < table.getStateCount(); stateIndex++)
+        {
+            floats.put(table.values, stateIndex * rowStride, table.getActionCount());
+        }
+        buffer.position(payloadStart + floats.position() * 4);
+
+        int checksum = checksum(buffer, payloadStart, buffer.position());
+        buffer.putInt(checksumPosition, checksum);
+        if (buffer.position() - start != getFileSize(table)) throw new IllegalStateException();
+        return checksum;
+    }
+
+    /**
+     * Reads a binary file into a table.
+     * @param file The file to read.
+     * @param table The table to read into, must have the same shape as the file.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the table.
+     */
+    public static float read(File file, QTable table) throws IOException
+    {
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            FileChannel channel = inputStream.getChannel();
+            // Read into a buffer rather than mapping the file, a mapped file
+            // can't be rewritten on Windows until the mapping is collected.
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+            return decode(buffer, table);
+        }
+    }
+
+    /**
+     * Decodes a table from a buffer at its current position.
+     * @param buffer A little-endian buffer holding a binary file.
+     * @param table The table to decode into, must have the same shape as the file.
+     * @return The epsilon value stored in the buffer.
+     * @throws IOException If the data is corrupt or doesn't match the table.
+     */
+    public static float decode(ByteBuffer buffer, QTable table) throws IOException
+    {
+        if (buffer.remaining() < FIXED_HEADER_SIZE || buffer.getInt() != MAGIC) throw new IOException("Not a binary QValues file.");
+
+        int version = buffer.getInt();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported QValues file version: " + version);
+
+        float epsilon = buffer.getFloat();
+        int checksum = buffer.getInt();
+        int actionCount = buffer.getInt();
+        int dimensionCount = buffer.getInt();
+
+        int[] stateDimensions = table.getStateDimensions();
+        boolean sameShape = actionCount == table.getActionCount() && dimensionCount == stateDimensions.length;
+        for (int dimension = 0; sameShape && dimension < dimensionCount; dimension++)
+        {
+            sameShape = buffer.getInt() == stateDimensions[dimension];
+        }
+        if (!sameShape) throw new IOException("QValues file does not match the table's dimensions.");
+
+        if (version >= 2)
+        {
+            int layoutLength = buffer.getInt();
+            if (layoutLength < 0 || buffer.remaining() < getPaddedLength(layoutLength)) throw new IOException("QValues file is truncated.");
+            byte[] layoutBytes = new byte[layoutLength];
+            buffer.get(layoutBytes);
+            buffer.position(buffer.position() + getPaddedLength(layoutLength) - layoutLength);
+
+            String layout = new String(layoutBytes, StandardCharsets.UTF_8);
+            if (!layout.isEmpty() && !table.getLayout().isEmpty() && !layout.equals(table.getLayout()))
+            {
+                throw new IOException("QValues file was saved with a different state layout: " + layout);
+            }
+        }
+        if (version >= 3)
+        {
+            if (buffer.remaining() < 8) throw new IOException("QValues file is truncated.");
+            buffer.getLong();
+        }
+
+        int payloadStart = buffer.position();
+        int payloadSize = table.getStateCount() * actionCount * 4;
+        if (buffer.remaining() < payloadSize) throw new IOException("QValues file is truncated.");
+        if (checksum(buffer, payloadStart, payloadStart + payloadSize) != checksum) throw new IOException("QValues file checksum mismatch.");
+
+        FloatBuffer floats = buffer.asFloatBuffer();
+        int rowStride = table.getRowStride();
+        table.beginRawWrite();
+        for (int stateIndex = 0; stateIndex < table.getStateCount(); stateIndex++)
+        {
+            floats.get(table.values, stateIndex * rowStride, actionCount);
+        }
+        buffer.position(payloadStart + payloadSize);
+
+        return epsilon;
+    }
+
+    /**
+     * @param file The file to check.
+     * @return true if the file starts with the binary format's magic number.
+     * @throws IOException If the file can't be read.
+     */
+    public static boolean isBinary(File file) throws IOException
+    {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file)))
+        {
+            return Integer.reverseBytes(inputStream.readInt()) == MAGIC;
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @param file A binary file.
+     * @return The checksum stored in the file's header.
+     * @throws IOException If the file can't be read or isn't binary.
+     */
+    public static int readChecksum(File file) throws IOException
+    {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file)))
+        {
+            if (Integer.reverseBytes(inputStream.readInt()) != MAGIC) throw new IOException("Not a binary QValues file.");
+            inputStream.skipBytes(8);
+            return Integer.reverseBytes(inputStream.readInt());
+        }
+    }
+
+    /**
+     * @param file A binary file.
+     * @return The seed stored in the file's header, 0 if it was saved before seeds were recorded.
+     * @throws IOException If the file can't be read or isn't binary.
+     */
+    public static long readSeed(File file) throws IOException
+    {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file)))
+        {
+            if (Integer.reverseBytes(inputStream.readInt()) != MAGIC) throw new IOException("Not a binary QValues file.");
+            int version = Integer.reverseBytes(inputStream.readInt());
+            if (version < 3) return 0;
+
+            inputStream.skipBytes(12);
+            int dimensionCount = Integer.reverseBytes(inputStream.readInt());
+            inputStream.skipBytes(dimensionCount * 4);
+            int layoutLength = Integer.reverseBytes(inputStream.readInt());
+            inputStream.skipBytes(getPaddedLength(layoutLength));
+            return Long.reverseBytes(inputStream.readLong());
+        }
+    }
+
+    /**
+     * Imports a file written in the old text format. The first line is the
+     * epsilon value, followed by one value per line in row-major order.
+     * The table is left unchanged if the import fails.
+     * @param file The file to read.
+     * @param table The table to read into, with the text format's shape.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is too short or too long, or the table has another shape.
+     */
+    public static float importText(File file, QTable table) throws IOException
+    {
+        checkTextShape(table.getStateDimensions(), table.getActionCount());
+
+        int line = 1;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file)))
+        {
+            float epsilon = Float.parseFloat(readLine(bufferedReader, line));
+            float[] values = new float[TEXT_STATE_COUNT * TEXT_ACTION_COUNT];
+            for (int i = 0; i < values.length; i++)
+            {
+                line++;
+                values[i] = Float.parseFloat(readLine(bufferedReader, line));
+            }
+            checkTextEnd(bufferedReader, line);
+
+            for (int stateIndex = 0; stateIndex < TEXT_STATE_COUNT; stateIndex++)
+            {
+                for (int action = 0; action < TEXT_ACTION_COUNT; action++)
+                {
+                    table.set(stateIndex, action, values[stateIndex * TEXT_ACTION_COUNT + action]);
+                }
+            }
+            return epsilon;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Invalid value at line " + line, e);
+        }
+    }
+
+    /**
+     * Loads a file in either format.
+     * @param file The file to read.
+     * @param table The table to read into.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read.
+     */
+    public static float load(File file, QTable table) throws IOException
+    {
+        return isBinary(file) ? read(file, table) : importText(file, table);
+    }
+
+    /**
+     * @throws IOException If a table of this shape can't have been saved in the text format.
+     */
+    static void checkTextShape(int[] stateDimensions, int actionCount) throws IOException
+    {
+        long stateCount = 1;
+        for (int dimension : stateDimensions)
+        {
+            stateCount *= dimension;
+        }
+        if (stateCount != TEXT_STATE_COUNT || actionCount != TEXT_ACTION_COUNT)
+        {
+            throw new IOException("Text QValues files hold " + TEXT_STATE_COUNT + " states of " + TEXT_ACTION_COUNT
+                    + " actions, not " + stateCount + " of " + actionCount + ".");
+        }
+    }
+
+    /**
+     * Checks nothing but blank lines follow the last value.
+     * @param line Line of the last value.
+     * @throws IOException If there are more values.
+     */
+    static void checkTextEnd(BufferedReader bufferedReader, int line) throws IOException
+    {
+        String token;
+        while ((token = bufferedReader.readLine()) != null)
+        {
+            line++;
+            if (!token.trim().isEmpty()) throw new IOException("Unexpected value after the last state at line " + line);
+        }
+    }
+
+    private static byte[] encodeLayout(QTable table)
+    {
+        return table.getLayout().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int getPaddedLength(int length)
+    {
+        return (length + 3) & ~3;
+    }
+
+    private static String readLine(BufferedReader bufferedReader, int line) throws IOException
+    {
+        String token = bufferedReader.readLine();
+        if (token == null) throw new IOException("Unexpected end of file at line " + line);
+        return token;
+    }
+
+    /**
+     * @return CRC32 of the bytes between start and end, the buffer's position is unchanged.
+     */
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+}
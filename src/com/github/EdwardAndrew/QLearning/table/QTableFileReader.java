@@ -0,0 +1,283 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Reads a QValues.data file a few states at a time, in either the binary
+ * or the old text format, so a table can be processed without holding it
+ * all in memory.
+ *
+ * A binary file describes its own shape. A text file doesn't, so the
+ * shape it's read as is given when it's opened, and must be the text
+ * format's 3200 states of 9 actions. The binary checksum is
+ * worked out as the values are read, and checked once the last state has
+ * been read.
+ */
+public class QTableFileReader implements Closeable {
+
+    // Bytes read from a binary file at a time.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int[] stateDimensions;
+    private final int stateCount;
+    private final int actionCount;
+    private final String layout;
+    private final long seed;
+    private final float epsilon;
+
+    // One of these is null, depending on the file's format.
+    private final FileChannel channel;
+    private final BufferedReader textReader;
+
+    // Holds the binary values read but not yet returned.
+    private final ByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private final int checksum;
+
+    private int statesRead = 0;
+    // Line of the text file last read, for error messages.
+    private int line = 1;
+
+    /***
+     * Constructor, opens a file and reads its header.
+     * @param file The file to read.
+     * @param textStateDimensions Shape to read the file as if it's in the text format.
+     * @param textActionCount Number of actions to read the file as if it's in the text format.
+     * @throws IOException If the file can't be read or has a broken header.
+     */
+    public QTableFileReader(File file, int[] textStateDimensions, int textActionCount) throws IOException
+    {
+        this.file = file;
+        if (!QTableFile.isBinary(file))
+        {
+            this.channel = null;
+            this.buffer = null;
+            this.checksum = 0;
+            this.stateDimensions = textStateDimensions.clone();
+            this.actionCount = textActionCount;
+            this.layout = "";
+            this.seed = 0;
+            QTableFile.checkTextShape(stateDimensions, actionCount);
+            this.textReader = new BufferedReader(new FileReader(file));
+            try
+            {
+                this.epsilon = Float.parseFloat(readLine());
+            }
+            catch (NumberFormatException | IOException e)
+            {
+                textReader.close();
+                throw new IOException(file + ": invalid epsilon value at line 1", e);
+            }
+        }
+        else
+        {
+            this.textReader = null;
+            this.channel = new FileInputStream(file).getChannel();
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            try
+            {
+                fill(QTableFile.FIXED_HEADER_SIZE);
+                buffer.getInt();
+                int version = buffer.getInt();
+                if (version < 1 || version > QTableFile.VERSION) throw new IOException(file + ": unsupported QValues file version: " + version);
+
+                this.epsilon = buffer.getFloat();
+                this.checksum = buffer.getInt();
+                this.actionCount = buffer.getInt();
+                int dimensionCount = buffer.getInt();
+                if (actionCount <= 0 || dimensionCount <= 0 || dimensionCount > 64) throw new IOException(file + ": QValues file has an invalid shape.");
+
+                fill(dimensionCount * 4);
+                this.stateDimensions = new int[dimensionCount];
+                for (int dimension = 0; dimension < dimensionCount; dimension++)
+                {
+                    stateDimensions[dimension] = buffer.getInt();
+                }
+
+                String fileLayout = "";
+                if (version >= 2)
+                {
+                    fill(4);
+                    int layoutLength = buffer.getInt();
+                    if (layoutLength < 0 || layoutLength > BUFFER_SIZE) throw new IOException(file + ": QValues file has an invalid layout.");
+                    int paddedLength = QTableFile.getPaddedLength(layoutLength);
+                    fill(paddedLength);
+                    byte[] layoutBytes = new byte[layoutLength];
+                    buffer.get(layoutBytes);
+                    buffer.position(buffer.position() + paddedLength - layoutLength);
+                    fileLayout = new String(layoutBytes, StandardCharsets.UTF_8);
+                }
+                this.layout = fileLayout;
+                if (version >= 3)
+                {
+                    fill(8);
+                    this.seed = buffer.getLong();
+                }
+                else
+                {
+                    this.seed = 0;
+                }
+                getStateCount(file, stateDimensions, actionCount);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+        this.stateCount = getStateCount(file, stateDimensions, actionCount);
+    }
+
+    public File getFile() { return file; }
+    public boolean isBinary() { return channel != null; }
+    public int[] getStateDimensions() { return stateDimensions.clone(); }
+    public int getStateCount() { return stateCount; }
+    public int getActionCount() { return actionCount; }
+    public float getEpsilon() { return epsilon; }
+
+    /**
+     * @return The state layout the file was saved with, empty if it doesn't say.
+     */
+    public String getLayout() { return layout; }
+
+    /**
+     * @return Seed of the random numbers the values were last trained with, 0 if it doesn't say.
+     */
+    public long getSeed() { return seed; }
+
+    /**
+     * @return Number of states read so far.
+     */
+    public int getStatesRead() { return statesRead; }
+
+    /**
+     * Reads the next states' values, actionCount values per state with no
+     * padding between them.
+     * @param values Where to write the values, from index 0.
+     * @param maximumStates The most states to read.
+     * @return Number of states read, 0 once every state has been read.
+     * @throws IOException If the file can't be read, is truncated or too long, or its checksum doesn't match.
+     */
+    public int read(float[] values, int maximumStates) throws IOException
+    {
+        int states = Math.min(maximumStates, stateCount - statesRead);
+        if (states <= 0) return 0;
+        if (values.length < states * actionCount) throw new IllegalArgumentException("values holds fewer than " + states + " states.");
+
+        if (channel != null)
+        {
+            readBinary(values, states * actionCount);
+        }
+        else
+        {
+            readText(values, states * actionCount);
+        }
+        statesRead += states;
+
+        if (channel != null && statesRead == stateCount && (int)crc.getValue() != checksum)
+        {
+            throw new IOException(file + ": QValues file checksum mismatch.");
+        }
+        if (textReader != null && statesRead == stateCount)
+        {
+            try
+            {
+                QTableFile.checkTextEnd(textReader, line);
+            }
+            catch (IOException e)
+            {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            }
+        }
+        return states;
+    }
+
+    @Override public void close() throws IOException
+    {
+        if (channel != null) channel.close();
+        if (textReader != null) textReader.close();
+    }
+
+    private static int getStateCount(File file, int[] stateDimensions, int actionCount) throws IOException
+    {
+        long count = 1;
+        for (int dimension : stateDimensions)
+        {
+            if (dimension <= 0) throw new IOException(file + ": QValues file has an invalid shape.");
+            count *= dimension;
+        }
+        if (count * actionCount > Integer.MAX_VALUE) throw new IOException(file + ": QValues file has too many values.");
+        return (int)count;
+    }
+
+    private void readBinary(float[] values, int count) throws IOException
+    {
+        int offset = 0;
+        while (offset < count)
+        {
+            fill(4);
+            int floats = Math.min(buffer.remaining() / 4, count - offset);
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(payload.position() + floats * 4);
+            crc.update(payload);
+
+            buffer.asFloatBuffer().get(values, offset, floats);
+            buffer.position(buffer.position() + floats * 4);
+            offset += floats;
+        }
+    }
+
+    private void readText(float[] values, int count) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            line++;
+            try
+            {
+                values[i] = Float.parseFloat(readLine());
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException(file + ": invalid value at line " + line, e);
+            }
+        }
+    }
+
+    private String readLine() throws IOException
+    {
+        String token = textReader.readLine();
+        if (token == null) throw new IOException(file + ": unexpected end of file at line " + line);
+        return token;
+    }
+
+    /**
+     * Reads from the file until at least the given number of bytes are
+     * waiting in the buffer, or the buffer is full.
+     */
+    private void fill(int bytes) throws IOException
+    {
+        if (buffer.remaining() >= bytes) return;
+
+        buffer.compact();
+        while (buffer.position() < bytes && buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                buffer.flip();
+                throw new IOException(file + ": QValues file is truncated.");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Writes a binary QValues.data file a few states at a time, for tables
+ * that are never held in memory all at once.
+ *
+ * The header is written with an empty checksum, which is filled in by
+ * close() once every state has been written. A file that was closed
+ * early keeps the empty checksum, so it won't load.
+ */
+public class QTableFileWriter implements Closeable {
+
+    // Bytes written to the file at a time.
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int stateCount;
+    private final int actionCount;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+
+    private int statesWritten = 0;
+
+    /***
+     * Constructor, creates the file and writes its header.
+     * @param file The file to write, replaced if it exists.
+     * @param stateDimensions The number of quantised values of each state dimension.
+     * @param actionCount The number of actions in every state.
+     * @param layout Description of the state layout, empty if unknown.
+     * @param epsilon The epsilon value to store alongside the values.
+     * @throws IOException If the file can't be written.
+     */
+    public QTableFileWriter(File file, int[] stateDimensions, int actionCount, String layout, float epsilon) throws IOException
+    {
+        long count = 1;
+        for (int dimension : stateDimensions)
+        {
+            if (dimension <= 0) throw new IllegalArgumentException();
+            count *= dimension;
+        }
+        if (stateDimensions.length == 0 || actionCount <= 0 || count * actionCount > Integer.MAX_VALUE) throw new IllegalArgumentException();
+
+        byte[] layoutBytes = layout.getBytes(StandardCharsets.UTF_8);
+        if (QTableFile.FIXED_HEADER_SIZE + stateDimensions.length * 4 + 4 + QTableFile.getPaddedLength(layoutBytes.length) + 8 > BUFFER_SIZE)
+        {
+            throw new IllegalArgumentException("The layout is too long.");
+        }
+
+        this.file = file;
+        this.stateCount = (int)count;
+        this.actionCount = actionCount;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        this.channel = randomAccessFile.getChannel();
+
+        buffer.putInt(QTableFile.MAGIC);
+        buffer.putInt(QTableFile.VERSION);
+        buffer.putFloat(epsilon);
+        buffer.putInt(0);
+        buffer.putInt(actionCount);
+        buffer.putInt(stateDimensions.length);
+        for (int dimension : stateDimensions)
+        {
+            buffer.putInt(dimension);
+        }
+        buffer.putInt(layoutBytes.length);
+        buffer.put(layoutBytes);
+        buffer.position(buffer.position() + QTableFile.getPaddedLength(layoutBytes.length) - layoutBytes.length);
+        // A merged table wasn't trained with any one seed.
+        buffer.putLong(0);
+    }
+
+    public File getFile() { return file; }
+
+    /**
+     * @return Number of states written so far.
+     */
+    public int getStatesWritten() { return statesWritten; }
+
+    /**
+     * Writes the next states' values.
+     * @param values actionCount values per state, from index 0, with no padding between states.
+     * @param states Number of states to write.
+     * @throws IOException If the file can't be written.
+     */
+    public void write(float[] values, int states) throws IOException
+    {
+        if (states < 0 || states > stateCount - statesWritten) throw new IllegalArgumentException("More states than the table holds.");
+
+        int count = states * actionCount;
+        int offset = 0;
+        while (offset < count)
+        {
+            if (buffer.remaining() < 4) flush();
+
+            int floats = Math.min(buffer.remaining() / 4, count - offset);
+            int payloadStart = buffer.position();
+            buffer.asFloatBuffer().put(values, offset, floats);
+            buffer.position(payloadStart + floats * 4);
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(buffer.position()).position(payloadStart);
+            crc.update(payload);
+            offset += floats;
+        }
+        statesWritten += states;
+    }
+
+    /**
+     * Writes whatever is buffered, then the checksum if every state was written.
+     * @throws IOException If the file can't be written.
+     */
+    @Override public void close() throws IOException
+    {
+        try
+        {
+            flush();
+            if (statesWritten == stateCount)
+            {
+                ByteBuffer checksum = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                checksum.putInt(0, (int)crc.getValue());
+                while (checksum.hasRemaining())
+                {
+                    channel.write(checksum, QTableFile.CHECKSUM_POSITION + checksum.position());
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/***
+ * Append-only log of the changes made to a QTable since its last snapshot.
+ *
+ * Layout, all values little-endian:
+ * <pre>
+ *   int magic             'QJNL'
+ *   int snapshotChecksum  checksum of the snapshot the journal applies to
+ *   records of (int stateIndex, int action, float value)
+ * </pre>
+ *
+ * Records with a negative state index are operations on the whole table,
+ * so a round's normalisation costs one record rather than a full rewrite.
+ * The snapshot checksum stops a journal from being replayed over a newer
+ * snapshot that it has already been compacted into.
+ */
+public class QTableJournal {
+
+    // 'QJNL' when read as little-endian bytes.
+    public static final int MAGIC = 0x4C4E4A51;
+
+    public static final int HEADER_SIZE = 2 * 4;
+    public static final int RECORD_SIZE = 3 * 4;
+
+    // Record state index for scaling every value by the record's value.
+    private static final int SCALE_RECORD = -1;
+    // Record state index for setting epsilon to the record's value.
+    private static final int EPSILON_RECORD = -2;
+
+    private final QTable table;
+
+    // Records waiting to be written. Sized so every row can be dirty at once.
+    private final ByteBuffer pending;
+
+    /***
+     * Constructor.
+     * @param table The table whose changes are journalled.
+     * @param maximumScalesPerFlush How many scale records can be held between flushes.
+     */
+    public QTableJournal(QTable table, int maximumScalesPerFlush)
+    {
+        this.table = table;
+        int records = table.getStateCount() * table.getActionCount() + maximumScalesPerFlush + 1;
+        this.pending = ByteBuffer.allocate(records * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Records that every value in the table has been scaled. Must be called
+     * straight after <code>QTable.scale</code>, in the same order.
+     * @param factor The factor the table was scaled by.
+     */
+    public void recordScale(float factor)
+    {
+        // Leave room for every row and the epsilon record written by flush().
+        if (pending.remaining() < (table.getStateCount() * table.getActionCount() + 2) * RECORD_SIZE)
+        {
+            throw new IllegalStateException("Too many scales recorded between flushes.");
+        }
+        putRecord(SCALE_RECORD, 0, factor);
+    }
+
+    /**
+     * Appends every dirty row and the current epsilon to the journal,
+     * then clears the table's dirty rows.
+     * @param epsilon The current epsilon value.
+     * @param outputStream Stream appending to the journal file. It is not closed.
+     * @return Number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    public int flush(float epsilon, OutputStream outputStream) throws IOException
+    {
+        // Rows are written after any scale records, so their values
+        // overwrite the scaled ones when the journal is replayed.
+        for (int i = 0; i < table.getDirtyStateCount(); i++)
+        {
+            int stateIndex = table.getDirtyState(i);
+            for (int action = 0; action < table.getActionCount(); action++)
+            {
+                putRecord(stateIndex, action, table.get(stateIndex, action));
+            }
+        }
+        putRecord(EPSILON_RECORD, 0, epsilon);
+
+        pending.flip();
+        int size = pending.remaining();
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (pending.hasRemaining())
+        {
+            channel.write(pending);
+        }
+        outputStream.flush();
+
+        pending.clear();
+        table.clearDirty();
+        return size;
+    }
+
+    /**
+     * Forgets any pending changes, used once they are part of a snapshot.
+     */
+    public void discard()
+    {
+        pending.clear();
+        table.clearDirty();
+    }
+
+    /**
+     * Writes the header of an empty journal.
+     * @param snapshotChecksum Checksum of the snapshot the journal applies to.
+     * @param outputStream Where to write to. It is not closed.
+     * @throws IOException If writing fails.
+     */
+    public static void writeHeader(int snapshotChecksum, OutputStream outputStream) throws IOException
+    {
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(Integer.reverseBytes(MAGIC));
+        dataOutputStream.writeInt(Integer.reverseBytes(snapshotChecksum));
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Replays a journal onto a table loaded from its snapshot. A journal
+     * that belongs to a different snapshot is ignored, and a record that
+     * was only partly written is dropped.
+     * @param file The journal file.
+     * @param snapshotChecksum Checksum of the snapshot the table was loaded from.
+     * @param table The table to apply the changes to.
+     * @param epsilon The epsilon value loaded from the snapshot.
+     * @return The latest epsilon value in the journal, or the passed in value.
+     * @throws IOException If the file can't be read.
+     */
+    public static float replay(File file, int snapshotChecksum, QTable table, float epsilon) throws IOException
+    {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            long recordCount = (file.length() - HEADER_SIZE) / RECORD_SIZE;
+            if (recordCount < 0
+                    || Integer.reverseBytes(inputStream.readInt()) != MAGIC
+                    || Integer.reverseBytes(inputStream.readInt()) != snapshotChecksum)
+            {
+                return epsilon;
+            }
+
+            for (long record = 0; record < recordCount; record++)
+            {
+                int stateIndex = Integer.reverseBytes(inputStream.readInt());
+                int action = Integer.reverseBytes(inputStream.readInt());
+                float value = Float.intBitsToFloat(Integer.reverseBytes(inputStream.readInt()));
+
+                if (stateIndex == SCALE_RECORD)
+                {
+                    table.scale(value);
+                }
+                else if (stateIndex == EPSILON_RECORD)
+                {
+                    epsilon = value;
+                }
+                else if (stateIndex >= 0 && stateIndex < table.getStateCount() && action >= 0 && action < table.getActionCount())
+                {
+                    table.set(stateIndex, action, value);
+                }
+                else
+                {
+                    throw new IOException("Invalid journal record " + record);
+                }
+            }
+            return epsilon;
+        }
+    }
+
+    private void putRecord(int stateIndex, int action, float value)
+    {
+        pending.putInt(stateIndex);
+        pending.putInt(action);
+        pending.putFloat(value);
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/***
+ * State -> Action -> Reward values stored as bytes, for a table about a
+ * quarter the size of a QTable.
+ *
+ * Each state's row has its own step, and a value is stored as the
+ * nearest whole number of steps between -127 and 127. The step is set
+ * by the largest value in the row, so every row keeps two or three
+ * significant figures whatever its scale. Writing a value too large for
+ * the row's step widens the step and rounds the rest of the row to it.
+ * Smaller values don't narrow it again.
+ *
+ * The steps are always positive, so the best action is found by
+ * comparing the stored bytes without converting them.
+ */
+public class QuantisedQTable implements PersistentQFunction {
+
+    // The largest number of steps a value can be stored as.
+    private static final int LEVELS = 127;
+
+    private final int stateCount;
+    private final int actionCount;
+    // Describes how observations were divided into the states, empty if unknown.
+    private String layout = "";
+
+    // Values in steps, indexed stateIndex * actionCount + action.
+    final byte[] values;
+    // The real size of a step in each state's row, 0 while the row is all zero.
+    final float[] steps;
+
+    /***
+     * Constructor, creates a table with every value set to zero.
+     * @param stateCount Number of states.
+     * @param actionCount Number of actions available in every state.
+     */
+    public QuantisedQTable(int stateCount, int actionCount)
+    {
+        if (stateCount <= 0 || actionCount <= 0) throw new IllegalArgumentException();
+
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.values = new byte[stateCount * actionCount];
+        this.steps = new float[stateCount];
+    }
+
+    @Override public int getStateCount() { return stateCount; }
+    @Override public int getActionCount() { return actionCount; }
+
+    /**
+     * @return Description of how observations are divided into the states, empty if unknown.
+     */
+    @Override public String getLayout() { return layout; }
+
+    /**
+     * @param layout Description of how observations are divided into the states.
+     */
+    @Override public void setLayout(String layout) { this.layout = layout == null ? "" : layout; }
+
+    @Override public String getFileName() { return "QValues.int8"; }
+
+    @Override public float read(File file) throws IOException
+    {
+        return QuantisedQTableFile.read(file, this);
+    }
+
+    @Override public int write(float epsilon, OutputStream outputStream) throws IOException
+    {
+        return QuantisedQTableFile.write(this, epsilon, outputStream);
+    }
+
+    @Override public long getFileSize()
+    {
+        return QuantisedQTableFile.getFileSize(this);
+    }
+
+    /**
+     * @return Bytes used by the arrays holding the table.
+     */
+    @Override public long getMemoryUsage()
+    {
+        return values.length + steps.length * 4L;
+    }
+
+    @Override public float get(int stateIndex, int action)
+    {
+        return values[stateIndex * actionCount + action] * steps[stateIndex];
+    }
+
+    /**
+     * Sets the value of taking an action in a state, rounded to the row's step.
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @param value The new value.
+     */
+    public void set(int stateIndex, int action, float value)
+    {
+        store(stateIndex, action, value);
+    }
+
+    /**
+     * Compares the stored bytes, as every row's step is positive.
+     * Ties are resolved towards the lowest action index.
+     */
+    @Override public int argmax(int stateIndex)
+    {
+        return BulkOps.argmax(values, stateIndex * actionCount, actionCount);
+    }
+
+    @Override public float max(int stateIndex)
+    {
+        return BulkOps.max(values, stateIndex * actionCount, actionCount) * steps[stateIndex];
+    }
+
+    @Override public float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        float value = (1 - alpha) * get(stateIndex, action) + alpha * (reward + gamma * max(nextStateIndex));
+        return store(stateIndex, action, value);
+    }
+
+    @Override public void add(int stateIndex, int action, float amount)
+    {
+        store(stateIndex, action, get(stateIndex, action) + amount);
+    }
+
+    /**
+     * Worked out from the stored values, as a row's step is only ever
+     * widened and may be larger than its values need.
+     * @return The largest absolute value in the table.
+     */
+    public float maxAbs()
+    {
+        float highestValue = 0;
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            int offset = stateIndex * actionCount;
+            highestValue = Math.max(highestValue, BulkOps.maxAbs(values, offset, offset + actionCount) * steps[stateIndex]);
+        }
+        return highestValue;
+    }
+
+    /**
+     * Scales the table so the largest absolute value becomes the limit.
+     * Only the steps change, so no value is rounded again.
+     * @param limit The largest absolute value after normalising.
+     * @return The factor the table was scaled by, 1 if it was left unchanged.
+     */
+    @Override public float normalise(float limit)
+    {
+        float highestValue = maxAbs();
+        if (highestValue == 0) return 1;
+        if (Math.abs(highestValue - limit) <= Math.ulp(limit)) return 1;
+
+        float factor = limit / highestValue;
+        BulkOps.scale(steps, 0, stateCount, factor);
+        return factor;
+    }
+
+    /**
+     * Another table's values are rounded to each row's step.
+     */
+    @Override public void copyFrom(PersistentQFunction source)
+    {
+        if (source instanceof QuantisedQTable)
+        {
+            ((QuantisedQTable)source).copyTo(this);
+            return;
+        }
+        if (source.getStateCount() != stateCount || source.getActionCount() != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        layout = source.getLayout();
+        float[] row = new float[actionCount];
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                row[action] = source.get(stateIndex, action);
+            }
+            setRow(stateIndex, row, 0);
+        }
+    }
+
+    @Override public void clear()
+    {
+        Arrays.fill(values, (byte)0);
+        Arrays.fill(steps, 0);
+    }
+
+    /**
+     * The row's step is sized for the whole row first, so each value is only rounded once.
+     */
+    @Override public void setRow(int stateIndex, float[] rowValues, int offset)
+    {
+        float highestValue = 0;
+        for (int action = 0; action < actionCount; action++)
+        {
+            highestValue = Math.max(highestValue, Math.abs(rowValues[offset + action]));
+        }
+        steps[stateIndex] = highestValue / LEVELS;
+        for (int action = 0; action < actionCount; action++)
+        {
+            values[stateIndex * actionCount + action] = quantise(rowValues[offset + action], steps[stateIndex]);
+        }
+    }
+
+    /**
+     * Replaces the contents of another table with a copy of this one.
+     * @param destination A table with the same number of states and actions.
+     */
+    public void copyTo(QuantisedQTable destination)
+    {
+        if (destination.stateCount != stateCount || destination.actionCount != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        System.arraycopy(values, 0, destination.values, 0, values.length);
+        System.arraycopy(steps, 0, destination.steps, 0, steps.length);
+        destination.layout = layout;
+    }
+
+    /**
+     * Stores a real value, widening the row's step first if it's too large.
+     * @return The value as stored, after rounding.
+     */
+    private float store(int stateIndex, int action, float value)
+    {
+        int offset = stateIndex * actionCount;
+        float step = steps[stateIndex];
+        float magnitude = Math.abs(value);
+        if (magnitude > step * LEVELS)
+        {
+            float newStep = magnitude / LEVELS;
+            float ratio = step / newStep;
+            for (int i = offset; i < offset + actionCount; i++)
+            {
+                values[i] = (byte)Math.round(values[i] * ratio);
+            }
+            steps[stateIndex] = newStep;
+            step = newStep;
+        }
+
+        byte storedValue = quantise(value, step);
+        values[offset + action] = storedValue;
+        return storedValue * step;
+    }
+
+    private static byte quantise(float value, float step)
+    {
+        if (step == 0) return 0;
+        int levels = Math.round(value / step);
+        return (byte)Math.max(-LEVELS, Math.min(LEVELS, levels));
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Reads and writes QuantisedQTables and Float16QTables. The stored
+ * values are written as they are, so a table reads back exactly.
+ *
+ * Layout, all values little-endian:
+ * <pre>
+ *   int    magic         'QQNT'
+ *   int    version
+ *   int    bits          8 for a QuantisedQTable, 16 for a Float16QTable
+ *   float  epsilon
+ *   int    checksum      CRC32 of the payload
+ *   int    stateCount
+ *   int    actionCount
+ *   int    layoutLength
+ *   byte[] layout        UTF-8 description of the state layout, padded to a multiple of 4 bytes
+ *   8 bits:  float[stateCount] steps, then byte[stateCount * actionCount] values
+ *   16 bits: float scale, then short[stateCount * actionCount] values
+ *   values are padded to a multiple of 4 bytes
+ * </pre>
+ */
+public final class QuantisedQTableFile {
+
+    // 'QQNT' when read as little-endian bytes.
+    public static final int MAGIC = 0x544E5151;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8 * 4;
+
+    private QuantisedQTableFile() {}
+
+    /**
+     * @param table The table to be written.
+     * @return The size of the file in bytes.
+     */
+    public static int getFileSize(QuantisedQTable table)
+    {
+        int valueCount = table.getStateCount() * table.getActionCount();
+        return HEADER_SIZE + padding(table.getLayout()) + table.getStateCount() * 4 + ((valueCount + 3) & ~3);
+    }
+
+    /**
+     * @param table The table to be written.
+     * @return The size of the file in bytes.
+     */
+    public static int getFileSize(Float16QTable table)
+    {
+        int valueCount = table.getStateCount() * table.getActionCount();
+        return HEADER_SIZE + padding(table.getLayout()) + 4 + ((valueCount * 2 + 3) & ~3);
+    }
+
+    /**
+     * Writes a table to a stream. The stream is not closed.
+     * @param table The table to write.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @return The checksum stored in the header.
+     * @throws IOException If writing fails.
+     */
+    public static int write(QuantisedQTable table, float epsilon, OutputStream outputStream) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(table)).order(ByteOrder.LITTLE_ENDIAN);
+        int checksumPosition = putHeader(buffer, 8, epsilon, table.getStateCount(), table.getActionCount(), table.getLayout());
+
+        int payloadStart = buffer.position();
+        for (float step : table.steps)
+        {
+            buffer.putFloat(step);
+        }
+        buffer.put(table.values);
+        buffer.position(buffer.capacity());
+
+        return finish(buffer, checksumPosition, payloadStart, outputStream);
+    }
+
+    /**
+     * Writes a table to a stream. The stream is not closed.
+     * @param table The table to write.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @return The checksum stored in the header.
+     * @throws IOException If writing fails.
+     */
+    public static int write(Float16QTable table, float epsilon, OutputStream outputStream) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(table)).order(ByteOrder.LITTLE_ENDIAN);
+        int checksumPosition = putHeader(buffer, 16, epsilon, table.getStateCount(), table.getActionCount(), table.getLayout());
+
+        int payloadStart = buffer.position();
+        buffer.putFloat(table.scale);
+        buffer.asShortBuffer().put(table.values);
+        buffer.position(buffer.capacity());
+
+        return finish(buffer, checksumPosition, payloadStart, outputStream);
+    }
+
+    /**
+     * Reads a file into a table, replacing its contents.
+     * @param file The file to read.
+     * @param table The table to read into, with the same number of states and actions as the file.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the table.
+     */
+    public static float read(File file, QuantisedQTable table) throws IOException
+    {
+        ByteBuffer buffer = readFile(file);
+        float epsilon = readHeader(buffer, 8, table.getStateCount(), table.getActionCount(), table.getLayout(), table.getStateCount() * 4 + table.values.length);
+        String layout = readLayout(buffer);
+
+        for (int stateIndex = 0; stateIndex < table.getStateCount(); stateIndex++)
+        {
+            table.steps[stateIndex] = buffer.getFloat();
+        }
+        buffer.get(table.values);
+        if (table.getLayout().isEmpty()) table.setLayout(layout);
+        return epsilon;
+    }
+
+    /**
+     * Reads a file into a table, replacing its contents.
+     * @param file The file to read.
+     * @param table The table to read into, with the same number of states and actions as the file.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the table.
+     */
+    public static float read(File file, Float16QTable table) throws IOException
+    {
+        ByteBuffer buffer = readFile(file);
+        float epsilon = readHeader(buffer, 16, table.getStateCount(), table.getActionCount(), table.getLayout(), 4 + table.values.length * 2);
+        String layout = readLayout(buffer);
+
+        float scale = buffer.getFloat();
+        buffer.asShortBuffer().get(table.values);
+        // Set once the values are read, as a scale out of range is applied to them.
+        table.setScale(scale);
+        if (table.getLayout().isEmpty()) table.setLayout(layout);
+        return epsilon;
+    }
+
+    private static int padding(String layout)
+    {
+        return (layout.getBytes(StandardCharsets.UTF_8).length + 3) & ~3;
+    }
+
+    /**
+     * @return The position of the checksum, filled in once the payload is written.
+     */
+    private static int putHeader(ByteBuffer buffer, int bits, float epsilon, int stateCount, int actionCount, String layout)
+    {
+        byte[] layoutBytes = layout.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(bits);
+        buffer.putFloat(epsilon);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(stateCount);
+        buffer.putInt(actionCount);
+        buffer.putInt(layoutBytes.length);
+        buffer.put(layoutBytes);
+        buffer.position(buffer.position() + ((layoutBytes.length + 3) & ~3) - layoutBytes.length);
+        return checksumPosition;
+    }
+
+    private static int finish(ByteBuffer buffer, int checksumPosition, int payloadStart, OutputStream outputStream) throws IOException
+    {
+        int checksum = checksum(buffer, payloadStart, buffer.position());
+        buffer.putInt(checksumPosition, checksum);
+        buffer.flip();
+
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        outputStream.flush();
+        return checksum;
+    }
+
+    private static ByteBuffer readFile(File file) throws IOException
+    {
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Checks the header and payload, leaving the buffer at the start of the layout.
+     * @return The epsilon value stored in the file.
+     */
+    private static float readHeader(ByteBuffer buffer, int bits, int stateCount, int actionCount, String tableLayout, int payloadSize) throws IOException
+    {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) throw new IOException("Not a quantised QValues file.");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported quantised QValues file version: " + version);
+        int fileBits = buffer.getInt();
+        if (fileBits != bits) throw new IOException("QValues file holds " + fileBits + " bit values, not " + bits + ".");
+
+        float epsilon = buffer.getFloat();
+        int checksum = buffer.getInt();
+        if (buffer.getInt() != stateCount || buffer.getInt() != actionCount) throw new IOException("QValues file does not match the table's dimensions.");
+
+        int layoutStart = buffer.position();
+        int layoutLength = buffer.getInt();
+        if (layoutLength < 0 || buffer.remaining() < ((layoutLength + 3) & ~3) + (long)payloadSize) throw new IOException("QValues file is truncated.");
+        int payloadStart = buffer.position() + ((layoutLength + 3) & ~3);
+        if (checksum(buffer, payloadStart, buffer.limit()) != checksum) throw new IOException("QValues file checksum mismatch.");
+
+        buffer.position(layoutStart);
+        String layout = readLayout(buffer);
+        if (!layout.isEmpty() && !tableLayout.isEmpty() && !layout.equals(tableLayout))
+        {
+            throw new IOException("QValues file was saved with a different state layout: " + layout);
+        }
+        buffer.position(layoutStart);
+        return epsilon;
+    }
+
+    /**
+     * Reads the layout, leaving the buffer at the start of the payload.
+     */
+    private static String readLayout(ByteBuffer buffer)
+    {
+        int layoutLength = buffer.getInt();
+        byte[] layoutBytes = new byte[layoutLength];
+        buffer.get(layoutBytes);
+        buffer.position(buffer.position() + ((layoutLength + 3) & ~3) - layoutLength);
+        return new String(layoutBytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+/***
+ * Lets several threads learn into one QTable at the same time.
+ *
+ * Updates lock one stripe of rows, so threads only wait for each other
+ * when they update rows in the same stripe. Reads take no lock: a float
+ * is always read whole, and a slightly stale value does no harm to the
+ * learning. Dirty rows and the table's largest value are not tracked,
+ * save the table as a snapshot.
+ */
+public class SharedQTable implements QFunction {
+
+    private final QTable table;
+    private final float[] values;
+    private final int rowStride;
+    private final Object[] locks;
+    private final int lockMask;
+
+    /***
+     * Constructor.
+     * @param table The table to share. It shouldn't be used directly while shared.
+     * @param stripes Number of locks, rounded up to a power of two.
+     */
+    public SharedQTable(QTable table, int stripes)
+    {
+        this.table = table;
+        this.values = table.values;
+        // Updates write the real values straight into the array.
+        table.materialise();
+        table.beginRawWrite();
+        this.rowStride = table.getRowStride();
+
+        int lockCount = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new Object[lockCount];
+        for (int i = 0; i < lockCount; i++)
+        {
+            locks[i] = new Object();
+        }
+        this.lockMask = lockCount - 1;
+    }
+
+    /**
+     * @return The underlying table.
+     */
+    public QTable getTable()
+    {
+        return table;
+    }
+
+    @Override public int getStateCount()
+    {
+        return table.getStateCount();
+    }
+
+    @Override public int getActionCount()
+    {
+        return table.getActionCount();
+    }
+
+    @Override public float get(int stateIndex, int action)
+    {
+        return table.get(stateIndex, action);
+    }
+
+    @Override public int argmax(int stateIndex)
+    {
+        return table.argmax(stateIndex);
+    }
+
+    @Override public float max(int stateIndex)
+    {
+        return table.max(stateIndex);
+    }
+
+    @Override public float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        // The next state's row may belong to another stripe, so read it before locking.
+        float target = reward + gamma * table.max(nextStateIndex);
+        int index = stateIndex * rowStride + action;
+
+        synchronized (locks[stateIndex & lockMask])
+        {
+            float value = (1 - alpha) * values[index] + alpha * target;
+            values[index] = value;
+            return value;
+        }
+    }
+
+    @Override public void add(int stateIndex, int action, float amount)
+    {
+        int index = stateIndex * rowStride + action;
+        synchronized (locks[stateIndex & lockMask])
+        {
+            values[index] += amount;
+        }
+    }
+}
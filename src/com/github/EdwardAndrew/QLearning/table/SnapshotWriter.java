@@ -0,0 +1,200 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/***
+ * Saves snapshots of a QTable on a background thread, so the thread
+ * that learns only pays for copying the table.
+ *
+ * Two tables of the same shape are allocated up front. submit() copies
+ * the live table into the pending one, and the writer thread swaps it
+ * with the one it writes from. A snapshot submitted before the last one
+ * was written replaces it, so at most one snapshot is ever waiting.
+ *
+ * Each snapshot is followed by an empty journal for it. A snapshot is
+ * only forgotten once it has been written, and flush() writes anything
+ * still waiting on the calling thread, even if the writer thread has
+ * been stopped.
+ */
+public class SnapshotWriter {
+
+    /***
+     * Opens the files the snapshot and journal are written to.
+     */
+    public interface Destination {
+        OutputStream open(File file) throws IOException;
+    }
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final Destination destination;
+
+    // Guards the fields below. Never held while writing.
+    private final Object stateLock = new Object();
+    private QTable pending;
+    private QTable writing;
+    private float pendingEpsilon;
+    private float writingEpsilon;
+    private boolean hasPending = false;
+    private boolean isWriting = false;
+    private Thread thread;
+
+    // Held while a snapshot is written, so only one thread writes at a time.
+    private final Object writeLock = new Object();
+
+    /***
+     * Constructor.
+     * @param shape A table with the shape of the tables that will be submitted.
+     * @param snapshotFile Where snapshots are written.
+     * @param journalFile Where the empty journal for each snapshot is written.
+     * @param destination Opens the files for writing.
+     */
+    public SnapshotWriter(QTable shape, File snapshotFile, File journalFile, Destination destination)
+    {
+        this.pending = new QTable(shape.getStateDimensions(), shape.getActionCount());
+        this.writing = new QTable(shape.getStateDimensions(), shape.getActionCount());
+        this.pending.setLayout(shape.getLayout());
+        this.writing.setLayout(shape.getLayout());
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.destination = destination;
+    }
+
+    /**
+     * Copies the table to be written in the background, replacing any
+     * snapshot that hasn't been written yet. Starts the writer thread if
+     * it isn't running.
+     * @param table The table to save.
+     * @param epsilon The epsilon value to save with it.
+     */
+    public void submit(QTable table, float epsilon)
+    {
+        synchronized (stateLock)
+        {
+            table.copyTo(pending);
+            pendingEpsilon = epsilon;
+            hasPending = true;
+
+            if (thread == null || !thread.isAlive())
+            {
+                thread = new Thread(this::runWriter, "QValues writer");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            stateLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return true if a snapshot is waiting or being written. A journal
+     *         shouldn't be appended to until it has been.
+     */
+    public boolean isBusy()
+    {
+        synchronized (stateLock)
+        {
+            return hasPending || isWriting;
+        }
+    }
+
+    /**
+     * Waits for the snapshot being written, then writes any snapshot still
+     * waiting on the calling thread.
+     * @return false if the snapshot couldn't be written.
+     */
+    public boolean flush()
+    {
+        synchronized (writeLock)
+        {
+            return writePending();
+        }
+    }
+
+    private void runWriter()
+    {
+        try
+        {
+            while (true)
+            {
+                synchronized (stateLock)
+                {
+                    while (!hasPending)
+                    {
+                        stateLock.wait();
+                    }
+                }
+                synchronized (writeLock)
+                {
+                    // Don't keep retrying a failed snapshot, leave it for flush() or the next submit().
+                    if (!writePending()) return;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Stopped, anything waiting is written by flush() or the next writer thread.
+        }
+    }
+
+    /**
+     * Writes the waiting snapshot, if there is one. If it fails the snapshot
+     * is kept, unless a newer one has replaced it.
+     * Must be called holding the write lock.
+     * @return false if the snapshot couldn't be written.
+     */
+    private boolean writePending()
+    {
+        synchronized (stateLock)
+        {
+            if (!hasPending) return true;
+
+            QTable table = writing;
+            writing = pending;
+            pending = table;
+            writingEpsilon = pendingEpsilon;
+            hasPending = false;
+            isWriting = true;
+        }
+
+        boolean written = false;
+        try
+        {
+            int checksum;
+            try (OutputStream outputStream = destination.open(snapshotFile))
+            {
+                checksum = QTableFile.write(writing, writingEpsilon, outputStream);
+            }
+            try (OutputStream outputStream = destination.open(journalFile))
+            {
+                QTableJournal.writeHeader(checksum, outputStream);
+            }
+            written = true;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            synchronized (stateLock)
+            {
+                if (!written && !hasPending)
+                {
+                    // Nothing newer has arrived, so try this one again later.
+                    QTable table = pending;
+                    pending = writing;
+                    writing = table;
+                    pendingEpsilon = writingEpsilon;
+                    hasPending = true;
+                }
+                isWriting = false;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/***
+ * State -> Action -> Reward values for only the states that have been
+ * visited, for state layouts too large to hold as a QTable.
+ *
+ * An open-addressing hash table with linear probing maps each visited
+ * state to a row in one packed array of values, so there are no boxed
+ * keys or per-entry objects. States that were never visited read as
+ * zero, and a row is only added when a value other than zero is first
+ * written.
+ *
+ * Like QTable, values are multiplied by a scale factor when read, so
+ * normalising takes constant time.
+ */
+public class SparseQTable implements PersistentQFunction {
+
+    // Marks an empty slot in the hash table. State keys are never negative.
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int stateCount;
+    private final int actionCount;
+    // Describes how observations were divided into the states, empty if unknown.
+    private String layout = "";
+
+    // Hash table from state key to row, its length is a power of two.
+    private long[] keys;
+    private int[] rows;
+    private int mask;
+
+    // The rows, actionCount values each, in the order the states were first visited.
+    private float[] values;
+    private int[] rowStates;
+    private int rowCount = 0;
+
+    // A value's real value is values[i] * scale.
+    private float scale = 1;
+    private float inverseScale = 1;
+    private static final float MIN_SCALE = 1e-4f;
+    private static final float MAX_SCALE = 1e4f;
+
+    // Largest absolute stored value, and where it is. Stale if that value has since shrunk.
+    private float maxAbsValue = 0;
+    private int maxAbsIndex = 0;
+    private boolean maxAbsStale = false;
+
+    /***
+     * Constructor, creates a table with every value set to zero.
+     * @param stateCount Number of states, from the state layout.
+     * @param actionCount Number of actions available in every state.
+     */
+    public SparseQTable(int stateCount, int actionCount)
+    {
+        if (stateCount <= 0 || actionCount <= 0) throw new IllegalArgumentException();
+
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        clear();
+    }
+
+    @Override public int getStateCount() { return stateCount; }
+    @Override public int getActionCount() { return actionCount; }
+
+    /**
+     * @return Description of how observations are divided into the states, empty if unknown.
+     */
+    @Override public String getLayout() { return layout; }
+
+    /**
+     * @param layout Description of how observations are divided into the states.
+     */
+    @Override public void setLayout(String layout) { this.layout = layout == null ? "" : layout; }
+
+    @Override public String getFileName() { return "QValues.sparse"; }
+
+    @Override public float read(File file) throws IOException
+    {
+        return SparseQTableFile.read(file, this);
+    }
+
+    @Override public int write(float epsilon, OutputStream outputStream) throws IOException
+    {
+        return SparseQTableFile.write(this, epsilon, outputStream);
+    }
+
+    @Override public long getFileSize()
+    {
+        return SparseQTableFile.getFileSize(this);
+    }
+
+    /**
+     * @return Number of states that have a row.
+     */
+    public int getVisitedStateCount() { return rowCount; }
+
+    /**
+     * @param row Between 0 and <code>getVisitedStateCount() - 1</code>.
+     * @return The state with that row, rows are in the order states were first visited.
+     */
+    public int getVisitedState(int row) { return rowStates[row]; }
+
+    /**
+     * @return Approximate bytes used by the arrays holding the table.
+     */
+    @Override public long getMemoryUsage()
+    {
+        return keys.length * 8L + rows.length * 4L + values.length * 4L + rowStates.length * 4L;
+    }
+
+    @Override public float get(int stateIndex, int action)
+    {
+        int row = findRow(stateIndex);
+        return row < 0 ? 0 : values[row * actionCount + action] * scale;
+    }
+
+    /**
+     * Sets the value of taking an action in a state. Setting a value of
+     * zero in a state without a row doesn't add one.
+     * @param stateIndex Index of the state.
+     * @param action Index of the action.
+     * @param value The new value.
+     */
+    public void set(int stateIndex, int action, float value)
+    {
+        if (value == 0 && findRow(stateIndex) < 0) return;
+        store(getOrAddRow(stateIndex) * actionCount + action, value);
+    }
+
+    /**
+     * Adding zero to a state without a row doesn't add one.
+     */
+    @Override public void add(int stateIndex, int action, float amount)
+    {
+        if (amount == 0) return;
+        int index = getOrAddRow(stateIndex) * actionCount + action;
+        store(index, values[index] * scale + amount);
+    }
+
+    /**
+     * Ties, including states never visited, are resolved towards the lowest action index.
+     */
+    @Override public int argmax(int stateIndex)
+    {
+        int row = findRow(stateIndex);
+        if (row < 0) return 0;
+
+        return BulkOps.argmax(values, row * actionCount, actionCount);
+    }
+
+    @Override public float max(int stateIndex)
+    {
+        int row = findRow(stateIndex);
+        if (row < 0) return 0;
+
+        return BulkOps.max(values, row * actionCount, actionCount) * scale;
+    }
+
+    @Override public float update(int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        float target = reward + gamma * max(nextStateIndex);
+        // A state that would only hold zeros doesn't need a row.
+        if (alpha * target == 0 && findRow(stateIndex) < 0) return 0;
+
+        int index = getOrAddRow(stateIndex) * actionCount + action;
+        float value = (1 - alpha) * values[index] * scale + alpha * target;
+        store(index, value);
+        return value;
+    }
+
+    /**
+     * @return The largest absolute value in the table.
+     */
+    public float maxAbs()
+    {
+        if (maxAbsStale)
+        {
+            maxAbsIndex = BulkOps.indexOfMaxAbs(values, 0, rowCount * actionCount);
+            maxAbsValue = Math.abs(values[maxAbsIndex]);
+            maxAbsStale = false;
+        }
+        return maxAbsValue * scale;
+    }
+
+    /**
+     * Scales the table so the largest absolute value becomes the limit.
+     * @param limit The largest absolute value after normalising.
+     * @return The factor the table was scaled by, 1 if it was left unchanged.
+     */
+    @Override public float normalise(float limit)
+    {
+        float highestValue = maxAbs();
+        if (highestValue == 0) return 1;
+        if (Math.abs(highestValue - limit) <= Math.ulp(limit)) return 1;
+
+        float factor = limit / highestValue;
+        scale = scale * factor;
+        inverseScale = 1 / scale;
+        if (scale < MIN_SCALE || scale > MAX_SCALE)
+        {
+            materialise();
+        }
+        return factor;
+    }
+
+    /**
+     * Applies the scale factor to the stored values, so they hold the real values.
+     */
+    public void materialise()
+    {
+        if (scale == 1) return;
+
+        BulkOps.scale(values, 0, rowCount * actionCount, scale);
+        maxAbsValue *= scale;
+        scale = 1;
+        inverseScale = 1;
+    }
+
+    /**
+     * Removes every row.
+     */
+    @Override public void clear()
+    {
+        keys = new long[INITIAL_CAPACITY];
+        Arrays.fill(keys, EMPTY);
+        rows = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        values = new float[(INITIAL_CAPACITY / 2) * actionCount];
+        rowStates = new int[INITIAL_CAPACITY / 2];
+        rowCount = 0;
+        scale = 1;
+        inverseScale = 1;
+        maxAbsValue = 0;
+        maxAbsIndex = 0;
+        maxAbsStale = false;
+    }
+
+    /**
+     * A row of zeros in a state without a row doesn't add one.
+     */
+    @Override public void setRow(int stateIndex, float[] rowValues, int offset)
+    {
+        for (int action = 0; action < actionCount; action++)
+        {
+            set(stateIndex, action, rowValues[offset + action]);
+        }
+    }
+
+    /**
+     * Another table's values are copied one by one, so only the rows that
+     * aren't all zero are added.
+     */
+    @Override public void copyFrom(PersistentQFunction source)
+    {
+        if (source instanceof SparseQTable)
+        {
+            ((SparseQTable)source).copyTo(this);
+            return;
+        }
+        if (source.getStateCount() != stateCount || source.getActionCount() != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        clear();
+        layout = source.getLayout();
+        for (int stateIndex = 0; stateIndex < stateCount; stateIndex++)
+        {
+            for (int action = 0; action < actionCount; action++)
+            {
+                set(stateIndex, action, source.get(stateIndex, action));
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of another table with a copy of this one.
+     * @param destination A table with the same number of states and actions.
+     */
+    public void copyTo(SparseQTable destination)
+    {
+        if (destination.stateCount != stateCount || destination.actionCount != actionCount) throw new IllegalArgumentException("Tables have different shapes.");
+
+        destination.keys = keys.clone();
+        destination.rows = rows.clone();
+        destination.mask = mask;
+        destination.values = values.clone();
+        destination.rowStates = rowStates.clone();
+        destination.rowCount = rowCount;
+        destination.scale = scale;
+        destination.inverseScale = inverseScale;
+        destination.maxAbsValue = maxAbsValue;
+        destination.maxAbsIndex = maxAbsIndex;
+        destination.maxAbsStale = maxAbsStale;
+        destination.layout = layout;
+    }
+
+    /**
+     * @param stateIndex Index of the state.
+     * @return The state's row, or -1 if it hasn't been visited.
+     */
+    private int findRow(int stateIndex)
+    {
+        long key = stateIndex;
+        int slot = hash(key) & mask;
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key) return rows[slot];
+            if (slotKey == EMPTY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int getOrAddRow(int stateIndex)
+    {
+        if (stateIndex < 0 || stateIndex >= stateCount) throw new IndexOutOfBoundsException("State " + stateIndex);
+
+        long key = stateIndex;
+        int slot = hash(key) & mask;
+        while (true)
+        {
+            long slotKey = keys[slot];
+            if (slotKey == key) return rows[slot];
+            if (slotKey == EMPTY) break;
+            slot = (slot + 1) & mask;
+        }
+
+        if (rowCount == rowStates.length)
+        {
+            rowStates = Arrays.copyOf(rowStates, rowCount * 2);
+            values = Arrays.copyOf(values, rowCount * 2 * actionCount);
+        }
+        int row = rowCount++;
+        rowStates[row] = stateIndex;
+        keys[slot] = key;
+        rows[slot] = row;
+
+        // Keep the hash table at most half full, so probes stay short.
+        if (rowCount * 2 > keys.length)
+        {
+            rehash(keys.length * 2);
+        }
+        return row;
+    }
+
+    private void rehash(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        rows = new int[capacity];
+        mask = capacity - 1;
+
+        for (int row = 0; row < rowCount; row++)
+        {
+            long key = rowStates[row];
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            rows[slot] = row;
+        }
+    }
+
+    /**
+     * Stores a real value, keeping track of the largest one.
+     */
+    private void store(int index, float value)
+    {
+        float storedValue = value * inverseScale;
+        values[index] = storedValue;
+
+        float magnitude = Math.abs(storedValue);
+        if (magnitude >= maxAbsValue)
+        {
+            maxAbsValue = magnitude;
+            maxAbsIndex = index;
+            maxAbsStale = false;
+        }
+        else if (index == maxAbsIndex)
+        {
+            maxAbsStale = true;
+        }
+    }
+
+    /**
+     * Mixes the key's bits, so neighbouring states spread across the table.
+     */
+    private static int hash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+}
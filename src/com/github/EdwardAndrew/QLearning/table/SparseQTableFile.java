@@ -0,0 +1,183 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.table;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/***
+ * Reads and writes SparseQTables. Only the visited states are saved.
+ *
+ * Layout, all values little-endian:
+ * <pre>
+ *   int    magic         'QSPR'
+ *   int    version
+ *   float  epsilon
+ *   int    checksum      CRC32 of the rows
+ *   int    stateCount
+ *   int    actionCount
+ *   int    layoutLength
+ *   byte[] layout        UTF-8 description of the state layout, padded to a multiple of 4 bytes
+ *   int    rowCount
+ *   rowCount rows of (int stateIndex, float[actionCount] values)
+ * </pre>
+ */
+public final class SparseQTableFile {
+
+    // 'QSPR' when read as little-endian bytes.
+    public static final int MAGIC = 0x52505351;
+    public static final int VERSION = 1;
+
+    private SparseQTableFile() {}
+
+    /**
+     * @param table The table to be written.
+     * @return The size of the file in bytes.
+     */
+    public static int getFileSize(SparseQTable table)
+    {
+        int layoutLength = table.getLayout().getBytes(StandardCharsets.UTF_8).length;
+        return 7 * 4 + ((layoutLength + 3) & ~3) + 4 + table.getVisitedStateCount() * (1 + table.getActionCount()) * 4;
+    }
+
+    /**
+     * Writes a table to a stream. The stream is not closed.
+     * @param table The table to write.
+     * @param epsilon The epsilon value to store alongside it.
+     * @param outputStream Where to write to.
+     * @return The checksum stored in the header.
+     * @throws IOException If writing fails.
+     */
+    public static int write(SparseQTable table, float epsilon, OutputStream outputStream) throws IOException
+    {
+        table.materialise();
+
+        ByteBuffer buffer = ByteBuffer.allocate(getFileSize(table)).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] layout = table.getLayout().getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putFloat(epsilon);
+        int checksumPosition = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(table.getStateCount());
+        buffer.putInt(table.getActionCount());
+        buffer.putInt(layout.length);
+        buffer.put(layout);
+        buffer.position(buffer.position() + ((layout.length + 3) & ~3) - layout.length);
+        buffer.putInt(table.getVisitedStateCount());
+
+        int payloadStart = buffer.position();
+        for (int row = 0; row < table.getVisitedStateCount(); row++)
+        {
+            int stateIndex = table.getVisitedState(row);
+            buffer.putInt(stateIndex);
+            for (int action = 0; action < table.getActionCount(); action++)
+            {
+                buffer.putFloat(table.get(stateIndex, action));
+            }
+        }
+        int checksum = checksum(buffer, payloadStart, buffer.position());
+        buffer.putInt(checksumPosition, checksum);
+        buffer.flip();
+
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        outputStream.flush();
+        return checksum;
+    }
+
+    /**
+     * Reads a file into a table, replacing its contents.
+     * @param file The file to read.
+     * @param table The table to read into, with the same number of states and actions as the file.
+     * @return The epsilon value stored in the file.
+     * @throws IOException If the file can't be read, is corrupt or doesn't match the table.
+     */
+    public static float read(File file, SparseQTable table) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileInputStream inputStream = new FileInputStream(file))
+        {
+            FileChannel channel = inputStream.getChannel();
+            buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) { }
+            buffer.flip();
+        }
+
+        if (buffer.remaining() < 8 * 4 || buffer.getInt() != MAGIC) throw new IOException("Not a sparse QValues file.");
+        int version = buffer.getInt();
+        if (version != VERSION) throw new IOException("Unsupported sparse QValues file version: " + version);
+
+        float epsilon = buffer.getFloat();
+        int checksum = buffer.getInt();
+        int stateCount = buffer.getInt();
+        int actionCount = buffer.getInt();
+        if (stateCount != table.getStateCount() || actionCount != table.getActionCount()) throw new IOException("QValues file does not match the table's dimensions.");
+
+        int layoutLength = buffer.getInt();
+        if (layoutLength < 0 || buffer.remaining() < ((layoutLength + 3) & ~3) + 4) throw new IOException("QValues file is truncated.");
+        byte[] layoutBytes = new byte[layoutLength];
+        buffer.get(layoutBytes);
+        buffer.position(buffer.position() + ((layoutLength + 3) & ~3) - layoutLength);
+        String layout = new String(layoutBytes, StandardCharsets.UTF_8);
+        if (!layout.isEmpty() && !table.getLayout().isEmpty() && !layout.equals(table.getLayout()))
+        {
+            throw new IOException("QValues file was saved with a different state layout: " + layout);
+        }
+
+        int rowCount = buffer.getInt();
+        int payloadStart = buffer.position();
+        if (rowCount < 0 || buffer.remaining() < (long)rowCount * (1 + actionCount) * 4) throw new IOException("QValues file is truncated.");
+        if (checksum(buffer, payloadStart, payloadStart + rowCount * (1 + actionCount) * 4) != checksum) throw new IOException("QValues file checksum mismatch.");
+
+        String tableLayout = table.getLayout();
+        table.clear();
+        table.setLayout(tableLayout.isEmpty() ? layout : tableLayout);
+        for (int row = 0; row < rowCount; row++)
+        {
+            int stateIndex = buffer.getInt();
+            if (stateIndex < 0 || stateIndex >= stateCount) throw new IOException("QValues file has an invalid state: " + stateIndex);
+            for (int action = 0; action < actionCount; action++)
+            {
+                table.set(stateIndex, action, buffer.getFloat());
+            }
+        }
+        return epsilon;
+    }
+
+    /**
+     * @param file The file to check.
+     * @return true if the file starts with the sparse format's magic number.
+     * @throws IOException If the file can't be read.
+     */
+    public static boolean isSparse(File file) throws IOException
+    {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file)))
+        {
+            return Integer.reverseBytes(inputStream.readInt()) == MAGIC;
+        }
+        catch (EOFException e)
+        {
+            return false;
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(end).position(start);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.targeting;
+
+/***
+ * Sine, cosine and atan2 in degrees, the unit Robocode's headings and
+ * bearings are in, without calling into Math.
+ *
+ * Sine and cosine are read from a table of one period, interpolating
+ * between entries, and are within 1e-6 of Math's. atan2 uses a
+ * polynomial and is within 0.0001 degrees, about a thousandth of a
+ * pixel at the longest firing distance.
+ */
+public final class FastTrig {
+
+    // Table entries per full turn, a power of two so angles wrap with a mask.
+    private static final int SIZE = 4096;
+    private static final double ENTRIES_PER_DEGREE = SIZE / 360.0;
+    // One extra entry, so interpolating the last entry doesn't need to wrap.
+    private static final double[] SINE = new double[SIZE + 1];
+
+    static
+    {
+        for (int i = 0; i <= SIZE; i++)
+        {
+            SINE[i] = Math.sin(2 * Math.PI * i / SIZE);
+        }
+    }
+
+    private FastTrig() {}
+
+    /**
+     * @param degrees Any angle in degrees.
+     * @return The sine of the angle.
+     */
+    public static double sin(double degrees)
+    {
+        double position = degrees * ENTRIES_PER_DEGREE;
+        // Round towards minus infinity, casting rounds towards zero.
+        long whole = (long)position;
+        if (position < whole) whole--;
+        double fraction = position - whole;
+        int index = (int)whole & (SIZE - 1);
+        return SINE[index] + (SINE[index + 1] - SINE[index]) * fraction;
+    }
+
+    /**
+     * @param degrees Any angle in degrees.
+     * @return The cosine of the angle.
+     */
+    public static double cos(double degrees)
+    {
+        return sin(degrees + 90);
+    }
+
+    /**
+     * Takes x first, as Robocode measures bearings clockwise from north,
+     * so this is <code>Math.toDegrees(Math.atan2(x, y))</code>.
+     * @param x Distance east.
+     * @param y Distance north.
+     * @return Bearing of the point in degrees, between -180 and 180.
+     */
+    public static double bearing(double x, double y)
+    {
+        double absoluteX = Math.abs(x);
+        double absoluteY = Math.abs(y);
+        if (absoluteX == 0 && absoluteY == 0) return 0;
+
+        // atan of a ratio between 0 and 1, from the angle nearest either axis.
+        boolean nearerNorth = absoluteX <= absoluteY;
+        double ratio = nearerNorth ? absoluteX / absoluteY : absoluteY / absoluteX;
+        double squared = ratio * ratio;
+        double radians = ratio * (0.99997726 + squared * (-0.33262347 + squared * (0.19354346
+                + squared * (-0.11643287 + squared * (0.05265332 + squared * -0.01172120)))));
+        double degrees = radians * (180 / Math.PI);
+
+        if (!nearerNorth) degrees = 90 - degrees;
+        if (y < 0) degrees = 180 - degrees;
+        return x < 0 ? -degrees : degrees;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.targeting;
+
+import java.awt.geom.Point2D;
+
+/***
+ * Predicts where to aim so a bullet meets the enemy.
+ *
+ * <code>getInterceptBearing</code> follows the enemy along a circle at
+ * its current speed and turn rate, a straight line when it isn't
+ * turning. It guesses the bullet's flight time, predicts where the
+ * enemy will be by then, and corrects the guess by how far the bullet
+ * would fall short or overshoot, using Newton's method. Enemies are
+ * always slower than bullets, so this settles in two or three steps,
+ * and is capped at a fixed number so it always costs about the same.
+ * It only uses FastTrig, so it doesn't allocate or call into Math's
+ * trigonometry.
+ */
+public final class LeadTargeting {
+
+    // The robot only fires at enemies closer than this.
+    public static final double MAXIMUM_FIRING_DISTANCE = 600;
+    // Half the width of a robot.
+    public static final double ROBOT_HALF_SIZE = 18;
+
+    // Most guesses at the flight time, and the change in it small enough to stop early, in ticks.
+    private static final int MAXIMUM_ITERATIONS = 8;
+    private static final double TIME_TOLERANCE = 0.01;
+
+    private LeadTargeting() {}
+
+    /**
+     * Select appropriate firepower for distance.
+     * @param enemyDistance Distance to the enemy.
+     * @return Fire power between 0 and 3.
+     */
+    public static double getFirePower(double enemyDistance){
+        return Math.min(500/enemyDistance,3);
+    }
+
+    /**
+     * @param enemyBearing Absolute bearing of the enemy in degrees.
+     * @param enemyDistance Distance to the enemy.
+     * @param enemyHeading Absolute heading of the enemy in degrees.
+     * @param enemyVelocity Velocity of the enemy.
+     * @param firePower Power the bullet will be fired with.
+     * @return Absolute bearing to aim the gun at, in degrees.
+     */
+    public static double getPredictedBearing(double enemyBearing, double enemyDistance, double enemyHeading, double enemyVelocity, double firePower){
+        // Don't take our own velocity into account (bullets do not seem to inherit velocity).
+        double myXVelocity = 0;
+        double myYVelocity = 0;
+
+        // The velocity of the enemy robot's movement.
+        double enemyXVelocity = Math.sin(Math.toRadians(enemyHeading)) * enemyVelocity;
+        double enemyYVelocity = Math.cos(Math.toRadians(enemyHeading)) * enemyVelocity;
+
+        // Relative velocity of both our robots movement.
+        double relativeXVelocity = enemyXVelocity - myXVelocity;
+        double relativeYVelocity = enemyYVelocity  -myYVelocity;
+
+        // The enemies position coordinates, relative to us.
+        double currentRelativeEnemyX = Math.sin(Math.toRadians(enemyBearing)) * enemyDistance;
+        double currentRelativeEnemyY = Math.cos(Math.toRadians(enemyBearing)) * enemyDistance;
+
+        // Calculate bullet speed.
+        double bulletSpeed = 20 - firePower * 3;
+
+        // Calculate bullet travel time.
+        double timeForBulletToHit = enemyDistance / (bulletSpeed + Point2D.distance(0,0,relativeXVelocity,relativeYVelocity));
+
+        // Predict enemy location at this time.
+        double predicatedRelativeEnemyX = currentRelativeEnemyX + (relativeXVelocity * timeForBulletToHit);
+        double predicatedRelativeEnemyY = currentRelativeEnemyY + (relativeYVelocity * timeForBulletToHit);
+
+        // Convert the relative coordinates of the enemy to a bearing to aim at.
+        return Math.atan2(predicatedRelativeEnemyX, predicatedRelativeEnemyY) * 180 / 3.141592653589;
+    }
+
+    /**
+     * @param enemyBearing Absolute bearing of the enemy in degrees.
+     * @param enemyDistance Distance to the enemy.
+     * @param enemyHeading Absolute heading of the enemy in degrees.
+     * @param enemyVelocity Velocity of the enemy.
+     * @param enemyTurnRate How far the enemy turns each tick in degrees, clockwise. 0 for a straight line.
+     * @param firePower Power the bullet will be fired with.
+     * @return Absolute bearing to aim the gun at, in degrees.
+     */
+    public static double getInterceptBearing(double enemyBearing, double enemyDistance, double enemyHeading, double enemyVelocity, double enemyTurnRate, double firePower){
+        double bulletSpeed = 20 - firePower * 3;
+
+        // The enemy's position relative to us.
+        double enemyX = FastTrig.sin(enemyBearing) * enemyDistance;
+        double enemyY = FastTrig.cos(enemyBearing) * enemyDistance;
+
+        boolean turning = Math.abs(enemyTurnRate) > 1e-4;
+        // Radius of the enemy's circle, in pixels per degree of turn.
+        double radius = turning ? enemyVelocity / Math.toRadians(enemyTurnRate) : 0;
+        double startSin = FastTrig.sin(enemyHeading);
+        double startCos = FastTrig.cos(enemyHeading);
+
+        double predictedX = enemyX;
+        double predictedY = enemyY;
+        double time = enemyDistance / bulletSpeed;
+        for (int iteration = 0; iteration < MAXIMUM_ITERATIONS; iteration++)
+        {
+            // Where the enemy is after the guessed time, and its velocity there.
+            double velocityX;
+            double velocityY;
+            if (turning)
+            {
+                double heading = enemyHeading + enemyTurnRate * time;
+                double sin = FastTrig.sin(heading);
+                double cos = FastTrig.cos(heading);
+                predictedX = enemyX + radius * (startCos - cos);
+                predictedY = enemyY + radius * (sin - startSin);
+                velocityX = sin * enemyVelocity;
+                velocityY = cos * enemyVelocity;
+            }
+            else
+            {
+                velocityX = startSin * enemyVelocity;
+                velocityY = startCos * enemyVelocity;
+                predictedX = enemyX + velocityX * time;
+                predictedY = enemyY + velocityY * time;
+            }
+
+            // How far the bullet falls short of the enemy, and how that changes with time.
+            // The enemy is slower than the bullet, so the slope is never 0.
+            double distance = Math.sqrt(predictedX * predictedX + predictedY * predictedY);
+            double shortfall = distance - bulletSpeed * time;
+            double slope = (predictedX * velocityX + predictedY * velocityY) / distance - bulletSpeed;
+            double step = shortfall / slope;
+            time = Math.max(0, time - step);
+            if (Math.abs(step) < TIME_TOLERANCE) break;
+        }
+        return FastTrig.bearing(predictedX, predictedY);
+    }
+
+    /**
+     * Works out the enemy's turn rate from two scans, limited to the
+     * fastest a robot at its speed can turn.
+     * @param previousHeading The enemy's heading at the last scan, in degrees.
+     * @param heading The enemy's heading now, in degrees.
+     * @param elapsedTicks Ticks since the last scan.
+     * @param velocity The enemy's velocity.
+     * @return Degrees turned each tick, clockwise.
+     */
+    public static double getTurnRate(double previousHeading, double heading, long elapsedTicks, double velocity){
+        if (elapsedTicks <= 0) return 0;
+
+        double change = heading - previousHeading;
+        if (change >= 180) change -= 360;
+        if (change < -180) change += 360;
+
+        double maximumTurnRate = 10 - 0.75 * Math.abs(velocity);
+        return Math.max(-maximumTurnRate, Math.min(maximumTurnRate, change / elapsedTicks));
+    }
+
+    /**
+     * @param enemyDistance Distance to the enemy.
+     * @return How far off the gun can be, in degrees, and still hit the enemy where it was predicted to be.
+     */
+    public static double getAimTolerance(double enemyDistance){
+        return FastTrig.bearing(ROBOT_HALF_SIZE, enemyDistance);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.team;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/***
+ * Decisions a robot has learnt from, packed into bytes to send to its
+ * teammates, so they can learn from them too.
+ *
+ * Each decision is 13 bytes, little-endian:
+ * <pre>
+ *   int   stateIndex      the state the action was taken in
+ *   byte  action
+ *   float reward
+ *   int   nextStateIndex  the state it led to
+ * </pre>
+ * A robot fills one batch as it learns, and sends a trimmed copy made
+ * by drain(), so the message is a single byte array with no more in it
+ * than was learnt.
+ *
+ * A batch also carries a hash of the sender's state layout, as a
+ * teammate with another layout of the same size would read the state
+ * indices as different states.
+ */
+public final class TransitionBatch implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    public static final int RECORD_SIZE = 4 + 1 + 4 + 4;
+
+    // Hash of the description of the state layout the decisions were made in.
+    private final int layoutHash;
+    private final byte[] records;
+    private int size = 0;
+
+    /***
+     * Constructor, creates an empty batch.
+     * @param capacity The most decisions it holds.
+     * @param layout Description of how observations are divided into the states.
+     */
+    public TransitionBatch(int capacity, String layout)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        this.layoutHash = layout.hashCode();
+        this.records = new byte[capacity * RECORD_SIZE];
+    }
+
+    private TransitionBatch(int layoutHash, byte[] records, int size)
+    {
+        this.layoutHash = layoutHash;
+        this.records = records;
+        this.size = size;
+    }
+
+    /**
+     * @return Number of decisions in the batch.
+     */
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public boolean isFull() { return (size + 1) * RECORD_SIZE > records.length; }
+
+    /**
+     * Adds a decision, if there's room.
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken, below 256.
+     * @param reward The reward received.
+     * @param nextStateIndex The state it led to.
+     * @return false if the batch is full and the decision wasn't added.
+     */
+    public boolean add(int stateIndex, int action, float reward, int nextStateIndex)
+    {
+        if (isFull()) return false;
+
+        int offset = size * RECORD_SIZE;
+        putInt(offset, stateIndex);
+        records[offset + 4] = (byte)action;
+        putInt(offset + 5, Float.floatToRawIntBits(reward));
+        putInt(offset + 9, nextStateIndex);
+        size++;
+        return true;
+    }
+
+    public int getStateIndex(int i) { return getInt(i * RECORD_SIZE); }
+    public int getAction(int i) { return records[i * RECORD_SIZE + 4] & 0xff; }
+    public float getReward(int i) { return Float.intBitsToFloat(getInt(i * RECORD_SIZE + 5)); }
+    public int getNextStateIndex(int i) { return getInt(i * RECORD_SIZE + 9); }
+
+    /**
+     * @return A copy of the decisions, sized to fit them, to send. This batch is emptied.
+     */
+    public TransitionBatch drain()
+    {
+        TransitionBatch message = new TransitionBatch(layoutHash, Arrays.copyOf(records, size * RECORD_SIZE), size);
+        size = 0;
+        return message;
+    }
+
+    /**
+     * @param layout Description of how the receiver divides observations into states.
+     * @param stateCount Number of states in the receiver's table.
+     * @param actionCount Number of actions in the receiver's table.
+     * @return true if the batch was sent with the same layout and every decision is within a table of this shape.
+     */
+    public boolean fits(String layout, int stateCount, int actionCount)
+    {
+        if (layoutHash != layout.hashCode()) return false;
+        if (size < 0 || size * RECORD_SIZE > records.length) return false;
+        for (int i = 0; i < size; i++)
+        {
+            int stateIndex = getStateIndex(i);
+            int nextStateIndex = getNextStateIndex(i);
+            if (stateIndex < 0 || stateIndex >= stateCount || nextStateIndex < 0 || nextStateIndex >= stateCount || getAction(i) >= actionCount) return false;
+        }
+        return true;
+    }
+
+    private void putInt(int offset, int value)
+    {
+        records[offset] = (byte)value;
+        records[offset + 1] = (byte)(value >>> 8);
+        records[offset + 2] = (byte)(value >>> 16);
+        records[offset + 3] = (byte)(value >>> 24);
+    }
+
+    private int getInt(int offset)
+    {
+        return (records[offset] & 0xff) | (records[offset + 1] & 0xff) << 8
+                | (records[offset + 2] & 0xff) << 16 | (records[offset + 3] & 0xff) << 24;
+    }
+}
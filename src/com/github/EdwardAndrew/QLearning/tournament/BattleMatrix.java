@@ -0,0 +1,103 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.tournament;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * Every combination of opponent, battlefield size and number of rounds
+ * to fight, in a fixed order so each battle keeps the same index however
+ * the matrix is split between shards.
+ */
+public class BattleMatrix {
+
+    private final List<Battle> battles = new ArrayList<>();
+
+    /***
+     * Constructor, lists every combination with the opponents outermost.
+     * @param opponents Class names of the opponents, e.g. sample.SpinBot.
+     * @param battlefields Battlefield sizes as width x height, e.g. 800x600.
+     * @param rounds Numbers of rounds.
+     */
+    public BattleMatrix(List<String> opponents, List<String> battlefields, List<Integer> rounds)
+    {
+        if (opponents.isEmpty() || battlefields.isEmpty() || rounds.isEmpty()) throw new IllegalArgumentException("The battle matrix is empty.");
+
+        for (String opponent : opponents)
+        {
+            for (String battlefield : battlefields)
+            {
+                int[] size = parseBattlefield(battlefield);
+                for (int roundCount : rounds)
+                {
+                    if (roundCount <= 0) throw new IllegalArgumentException("Rounds must be at least 1: " + roundCount);
+                    battles.add(new Battle(battles.size(), opponent, size[0], size[1], roundCount));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Every battle, in index order.
+     */
+    public List<Battle> getBattles() { return Collections.unmodifiableList(battles); }
+
+    /**
+     * Battles are dealt to the shards in turn, so each shard gets a
+     * similar mix of opponents and sizes.
+     * @param shard Index of the shard, from 0.
+     * @param shardCount Number of shards.
+     * @return The shard's battles, in index order.
+     */
+    public List<Battle> getShard(int shard, int shardCount)
+    {
+        if (shardCount <= 0 || shard < 0 || shard >= shardCount) throw new IllegalArgumentException("No shard " + shard + " of " + shardCount);
+
+        List<Battle> shardBattles = new ArrayList<>();
+        for (int i = shard; i < battles.size(); i += shardCount)
+        {
+            shardBattles.add(battles.get(i));
+        }
+        return shardBattles;
+    }
+
+    /**
+     * @param battlefield Width x height, e.g. 800x600.
+     * @return The width and height.
+     */
+    static int[] parseBattlefield(String battlefield)
+    {
+        String[] parts = battlefield.trim().toLowerCase().split("x");
+        if (parts.length != 2) throw new IllegalArgumentException("Battlefield isn't width x height: " + battlefield);
+
+        int width = Integer.parseInt(parts[0].trim());
+        int height = Integer.parseInt(parts[1].trim());
+        // Robocode's limits.
+        if (width < 400 || width > 5000 || height < 400 || height > 5000) throw new IllegalArgumentException("Battlefield sides must be from 400 to 5000: " + battlefield);
+        return new int[] { width, height };
+    }
+
+    /***
+     * One battle of the matrix.
+     */
+    public static class Battle {
+
+        public final int index;
+        public final String opponent;
+        public final int width;
+        public final int height;
+        public final int rounds;
+
+        Battle(int index, String opponent, int width, int height, int rounds)
+        {
+            this.index = index;
+            this.opponent = opponent;
+            this.width = width;
+            this.height = height;
+            this.rounds = rounds;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.tournament;
+
+import robocode.BattleResults;
+import robocode.control.BattleSpecification;
+import robocode.control.BattlefieldSpecification;
+import robocode.control.RobocodeEngine;
+import robocode.control.RobotSpecification;
+import robocode.control.events.BattleAdaptor;
+import robocode.control.events.BattleCompletedEvent;
+import robocode.control.events.BattleErrorEvent;
+import robocode.control.events.RoundEndedEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/***
+ * Fights a list of battles in one RobocodeEngine, with no display, and
+ * writes a CSV row for each.
+ *
+ * A row holds the battle, how long it took, both robots' BattleResults
+ * and the robot's own measurements from its Metrics.csv, which it writes
+ * at the end of every battle. The Metrics.csv columns are left empty if
+ * the robot didn't write one.
+ */
+public class BattleRunner {
+
+    static final String HEADER = "battle,opponent,width,height,rounds,seconds,rounds/s,turns/s,"
+            + "rank,score,survival,bulletDamage,ramDamage,firsts,opponentScore,opponentFirsts,"
+            + "decisions,decisionMean,decisionP99,decisionMax,eventP99,skippedTurnsMean,allocationMean";
+
+    // Columns of Metrics.csv.
+    private static final int COUNT = 2;
+    private static final int MEAN = 3;
+    private static final int P99 = 6;
+    private static final int MAX = 8;
+
+    private final File robocodeHome;
+    private final String robot;
+
+    // Collects what the engine reports about the battle in progress.
+    private final Listener listener = new Listener();
+
+    /***
+     * Constructor.
+     * @param robocodeHome Robocode folder, holding the robots folder.
+     * @param robot The robot being tested, as Robocode names it, e.g. com.github.EdwardAndrew.QLearningRobot*.
+     */
+    public BattleRunner(File robocodeHome, String robot)
+    {
+        this.robocodeHome = robocodeHome;
+        this.robot = robot;
+    }
+
+    /**
+     * Fights the battles in order, writing each row as soon as it's done.
+     * @param battles The battles to fight.
+     * @param output Where to write the CSV, starting with the header.
+     */
+    public void run(List<BattleMatrix.Battle> battles, PrintStream output)
+    {
+        RobocodeEngine.setLogMessagesEnabled(false);
+        RobocodeEngine engine = new RobocodeEngine(robocodeHome);
+        try
+        {
+            engine.setVisible(false);
+            engine.addBattleListener(listener);
+
+            output.print(HEADER + "\n");
+            for (BattleMatrix.Battle battle : battles)
+            {
+                RobotSpecification[] robots = engine.getLocalRepository(robot + "," + battle.opponent);
+                if (robots.length != 2) throw new IllegalArgumentException("Robocode can't find both " + robot + " and " + battle.opponent + " in " + robocodeHome);
+
+                RobotSpecification robotSpecification = robots[getRobotClassName().equals(robots[0].getClassName()) ? 0 : 1];
+                // Don't report the last battle's metrics if this one doesn't write any.
+                File metricsFile = getMetricsFile(robotSpecification);
+                if (metricsFile.exists() && !metricsFile.delete())
+                {
+                    System.out.println("Unable to delete " + metricsFile);
+                }
+
+                listener.reset();
+                long start = System.nanoTime();
+                engine.runBattle(new BattleSpecification(battle.rounds, new BattlefieldSpecification(battle.width, battle.height), robots), true);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                if (listener.results == null)
+                {
+                    System.out.println("Battle " + battle.index + " against " + battle.opponent + " didn't finish.");
+                    continue;
+                }
+                // The robot's data folder may only have been made during the battle.
+                output.print(formatRow(battle, seconds, readMetrics(getMetricsFile(robotSpecification))) + "\n");
+                output.flush();
+                System.out.printf("Battle %d against %s on %dx%d, %d rounds in %.1fs%n", battle.index, battle.opponent, battle.width, battle.height, battle.rounds, seconds);
+            }
+        }
+        finally
+        {
+            engine.removeBattleListener(listener);
+            engine.close();
+        }
+    }
+
+    private String formatRow(BattleMatrix.Battle battle, double seconds, Map<String, String[]> metrics)
+    {
+        BattleResults robotResults = null;
+        BattleResults opponentResults = null;
+        for (BattleResults results : listener.results)
+        {
+            if (robotResults == null && results.getTeamLeaderName().startsWith(getRobotClassName()))
+            {
+                robotResults = results;
+            }
+            else if (opponentResults == null)
+            {
+                opponentResults = results;
+            }
+        }
+        if (robotResults == null || opponentResults == null) throw new IllegalStateException("No results for " + robot + " in battle " + battle.index);
+
+        return String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%.3f,%.2f,%.0f,%d,%.0f,%.0f,%.0f,%.0f,%d,%.0f,%d,%s,%s,%s,%s,%s,%s,%s",
+                battle.index, battle.opponent, battle.width, battle.height, battle.rounds,
+                seconds, battle.rounds / seconds, listener.turns / seconds,
+                robotResults.getRank(), robotResults.getScore(), robotResults.getSurvival(), robotResults.getBulletDamage(),
+                robotResults.getRamDamage(), robotResults.getFirsts(), opponentResults.getScore(), opponentResults.getFirsts(),
+                getMetric(metrics, "decision", COUNT), getMetric(metrics, "decision", MEAN), getMetric(metrics, "decision", P99),
+                getMetric(metrics, "decision", MAX), getMetric(metrics, "event", P99),
+                getMetric(metrics, "skippedTurns", MEAN), getMetric(metrics, "allocation", MEAN));
+    }
+
+    /**
+     * @return The robot's class name, without the version or the * marking a robot in development.
+     */
+    private String getRobotClassName()
+    {
+        String className = robot.trim();
+        int end = className.indexOf(' ');
+        if (end >= 0) className = className.substring(0, end);
+        return className.endsWith("*") ? className.substring(0, className.length() - 1) : className;
+    }
+
+    private static String getMetric(Map<String, String[]> metrics, String metric, int column)
+    {
+        String[] row = metrics.get(metric);
+        return row == null || row.length <= column ? "" : row[column];
+    }
+
+    /**
+     * @param metricsFile The robot's Metrics.csv.
+     * @return Each row by its metric name, empty if there's no file.
+     */
+    private static Map<String, String[]> readMetrics(File metricsFile)
+    {
+        Map<String, String[]> metrics = new HashMap<>();
+        if (!metricsFile.exists()) return metrics;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(metricsFile), StandardCharsets.US_ASCII)))
+        {
+            // Skip the header.
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null)
+            {
+                String[] row = line.split(",");
+                metrics.put(row[0], row);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        return metrics;
+    }
+
+    /**
+     * Robots in their own folders keep their data beside their classes,
+     * robots from a jar keep it in robots/.data.
+     * @return Where the robot writes Metrics.csv.
+     */
+    private File getMetricsFile(RobotSpecification robotSpecification)
+    {
+        String path = robotSpecification.getClassName().replace('.', File.separatorChar) + ".data";
+        File robots = new File(robocodeHome, "robots");
+        File dataFolder = new File(robots, path);
+        if (!dataFolder.isDirectory())
+        {
+            dataFolder = new File(new File(robots, ".data"), path);
+        }
+        return new File(dataFolder, "Metrics.csv");
+    }
+
+    /***
+     * Keeps the results and turn count of the battle in progress, and
+     * prints the engine's errors.
+     */
+    private static class Listener extends BattleAdaptor {
+
+        BattleResults[] results;
+        long turns;
+
+        void reset()
+        {
+            results = null;
+            turns = 0;
+        }
+
+        @Override public void onRoundEnded(RoundEndedEvent event)
+        {
+            turns += event.getTurns();
+        }
+
+        @Override public void onBattleCompleted(BattleCompletedEvent event)
+        {
+            results = event.getSortedResults();
+        }
+
+        @Override public void onBattleError(BattleErrorEvent event)
+        {
+            System.out.println("Robocode error: " + event.getError());
+        }
+    }
+}
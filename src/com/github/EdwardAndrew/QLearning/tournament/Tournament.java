@@ -0,0 +1,336 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.tournament;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/***
+ * Fights the robot against every combination of opponent, battlefield
+ * size and number of rounds in the headless Robocode engine, and collects
+ * the results into one CSV file.
+ *
+ * Usage, with Robocode's libs on the classpath:
+ * <pre>
+ *   java -cp "out/production/CHA2555-Artificial-Intelligence:G:/robocode/libs/*"
+ *        com.github.EdwardAndrew.QLearning.tournament.Tournament --robocode G:/robocode
+ *        [--robot com.github.EdwardAndrew.QLearningRobot*] [--opponents sample.SpinBot,sample.Corners,sample.Walls]
+ *        [--battlefields 800x600,1000x1000] [--rounds 100] [--shards 4] [--work tournament] [--output results.csv]
+ * </pre>
+ * The matrix is dealt between <code>--shards</code> engine processes.
+ * Each shard fights in its own folder under <code>--work</code>, holding
+ * a fresh copy of Robocode's robots folder, so the shards don't write
+ * over each other's data files and the originals are left as they were.
+ * Each shard's Robocode config asks for the maximum TPS. The rows are
+ * written to <code>--output</code> in battle order once every shard has
+ * finished.
+ */
+public class Tournament {
+
+    // Robocode's setting for running as fast as it can.
+    private static final String MAXIMUM_TPS = "10000";
+
+    File robocodeHome = null;
+    String robot = "com.github.EdwardAndrew.QLearningRobot*";
+    List<String> opponents = Arrays.asList("sample.SpinBot", "sample.Corners", "sample.Walls");
+    List<String> battlefields = Arrays.asList("800x600");
+    List<Integer> rounds = Arrays.asList(100);
+    int shards = 1;
+    File work = new File("tournament");
+    File output = new File("results.csv");
+    // The shard this process fights, or -1 to set up and start all of them.
+    int shard = -1;
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Tournament tournament = new Tournament();
+        tournament.parse(args);
+
+        if (tournament.shard >= 0)
+        {
+            tournament.runShard();
+        }
+        else
+        {
+            System.exit(tournament.run(args) ? 0 : 1);
+        }
+    }
+
+    /**
+     * Reads the command line options.
+     * @param args Command line arguments.
+     */
+    void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i += 2)
+        {
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + args[i]);
+            if (!parseOption(args[i], args[i + 1])) throw new IllegalArgumentException("Unknown option: " + args[i]);
+        }
+        if (robocodeHome == null) throw new IllegalArgumentException("--robocode must be set to Robocode's folder.");
+        if (shards <= 0) throw new IllegalArgumentException("--shards must be at least 1.");
+    }
+
+    /**
+     * @param name Option name, including the leading dashes.
+     * @param value Option value.
+     * @return false if the option isn't recognised.
+     */
+    boolean parseOption(String name, String value)
+    {
+        switch (name)
+        {
+            case "--robocode": robocodeHome = new File(value); break;
+            case "--robot": robot = value; break;
+            case "--opponents": opponents = parseList(value); break;
+            case "--battlefields": battlefields = parseList(value); break;
+            case "--rounds": rounds = parseRounds(value); break;
+            case "--shards": shards = Integer.parseInt(value); break;
+            case "--work": work = new File(value); break;
+            case "--output": output = new File(value); break;
+            case "--shard": shard = Integer.parseInt(value); break;
+            default: return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets up a folder for each shard, fights them in separate processes,
+     * or in this one if there's only one, and merges their results.
+     * @param args The command line, passed on to each shard.
+     * @return false if any shard failed.
+     */
+    boolean run(String[] args) throws IOException, InterruptedException
+    {
+        BattleMatrix matrix = new BattleMatrix(opponents, battlefields, rounds);
+        int shardCount = Math.min(shards, matrix.getBattles().size());
+        System.out.printf("%d battles on %d shards%n", matrix.getBattles().size(), shardCount);
+
+        for (int i = 0; i < shardCount; i++)
+        {
+            createShardHome(getShardHome(i));
+        }
+
+        boolean succeeded = true;
+        long start = System.nanoTime();
+        if (shardCount == 1)
+        {
+            shard = 0;
+            shards = 1;
+            runShard();
+        }
+        else
+        {
+            Process[] processes = new Process[shardCount];
+            for (int i = 0; i < shardCount; i++)
+            {
+                processes[i] = startShard(args, i, shardCount);
+            }
+            for (int i = 0; i < shardCount; i++)
+            {
+                int exitCode = processes[i].waitFor();
+                if (exitCode != 0)
+                {
+                    System.out.println("Shard " + i + " failed with exit code " + exitCode);
+                    succeeded = false;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int rowCount = mergeResults(shardCount);
+        System.out.printf("%d of %d battles in %.1fs, saved %s%n", rowCount, matrix.getBattles().size(), seconds, output.getPath());
+        return succeeded && rowCount == matrix.getBattles().size();
+    }
+
+    /**
+     * Fights this process's share of the matrix, in its shard's folder.
+     */
+    void runShard() throws IOException
+    {
+        List<BattleMatrix.Battle> battles = new BattleMatrix(opponents, battlefields, rounds).getShard(shard, shards);
+        try (PrintStream results = new PrintStream(new FileOutputStream(getShardResults(shard)), false, "US-ASCII"))
+        {
+            new BattleRunner(getShardHome(shard), robot).run(battles, results);
+        }
+    }
+
+    /**
+     * Starts a JVM with this one's classpath to fight a shard. Its output
+     * goes to this process's console.
+     */
+    private Process startShard(String[] args, int shardIndex, int shardCount) throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-Xmx512M");
+        command.add("-DNOSOUND=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Tournament.class.getName());
+        command.addAll(Arrays.asList(args));
+        command.add("--shards");
+        command.add(Integer.toString(shardCount));
+        command.add("--shard");
+        command.add(Integer.toString(shardIndex));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Replaces the shard's folder with a copy of Robocode's robots folder,
+     * and a config that runs at the maximum TPS.
+     */
+    private void createShardHome(File shardHome) throws IOException
+    {
+        if (shardHome.exists()) delete(shardHome.toPath());
+
+        Path robots = new File(robocodeHome, "robots").toPath();
+        if (!Files.isDirectory(robots)) throw new IOException("No robots folder in " + robocodeHome);
+        copy(robots, new File(shardHome, "robots").toPath());
+
+        // Keep the rest of Robocode's settings, so it doesn't measure the CPU again.
+        Properties config = new Properties();
+        File configFile = new File(new File(robocodeHome, "config"), "robocode.properties");
+        if (configFile.exists())
+        {
+            try (FileInputStream inputStream = new FileInputStream(configFile))
+            {
+                config.load(inputStream);
+            }
+        }
+        config.setProperty("robocode.options.battle.desiredTPS", MAXIMUM_TPS);
+        File shardConfigFile = new File(new File(shardHome, "config"), "robocode.properties");
+        Files.createDirectories(shardConfigFile.getParentFile().toPath());
+        try (FileOutputStream outputStream = new FileOutputStream(shardConfigFile))
+        {
+            config.store(outputStream, "Written by Tournament");
+        }
+    }
+
+    /**
+     * Writes every shard's rows to the output, in battle order.
+     * @return The number of rows written.
+     */
+    private int mergeResults(int shardCount) throws IOException
+    {
+        Map<Integer, String> rows = new TreeMap<>();
+        for (int i = 0; i < shardCount; i++)
+        {
+            File shardResults = getShardResults(i);
+            if (!shardResults.exists()) continue;
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(shardResults), StandardCharsets.US_ASCII)))
+            {
+                // Skip the header.
+                String line = reader.readLine();
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.isEmpty()) continue;
+                    rows.put(Integer.parseInt(line.substring(0, line.indexOf(','))), line);
+                }
+            }
+        }
+
+        try (PrintStream printStream = new PrintStream(new FileOutputStream(output), false, "US-ASCII"))
+        {
+            printStream.print(BattleRunner.HEADER + "\n");
+            for (String row : rows.values())
+            {
+                printStream.print(row + "\n");
+            }
+        }
+        return rows.size();
+    }
+
+    private File getShardHome(int shardIndex)
+    {
+        return new File(work, "shard-" + shardIndex);
+    }
+
+    private File getShardResults(int shardIndex)
+    {
+        return new File(getShardHome(shardIndex), "results.csv");
+    }
+
+    /**
+     * Copies a folder, leaving out Robocode's caches of the robots it found,
+     * which hold the original folder's paths.
+     */
+    private static void copy(final Path source, final Path destination) throws IOException
+    {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException
+            {
+                if (directory.getFileName().toString().equals(".robotcache")) return FileVisitResult.SKIP_SUBTREE;
+                Files.createDirectories(destination.resolve(source.relativize(directory).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+            {
+                if (file.getFileName().toString().equals("robot.database")) return FileVisitResult.CONTINUE;
+                Files.copy(file, destination.resolve(source.relativize(file).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void delete(Path folder) throws IOException
+    {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>()
+        {
+            @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException
+            {
+                if (e != null) throw e;
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static List<String> parseList(String value)
+    {
+        List<String> list = new ArrayList<>();
+        for (String item : value.split(","))
+        {
+            if (!item.trim().isEmpty()) list.add(item.trim());
+        }
+        return list;
+    }
+
+    private static List<Integer> parseRounds(String value)
+    {
+        List<Integer> list = new ArrayList<>();
+        for (String item : parseList(value))
+        {
+            list.add(Integer.parseInt(item));
+        }
+        return list;
+    }
+}
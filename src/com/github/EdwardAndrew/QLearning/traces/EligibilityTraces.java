@@ -0,0 +1,134 @@
+/**
+ * @author Edward Andrew
+ */
+package com.github.EdwardAndrew.QLearning.traces;
+
+import com.github.EdwardAndrew.QLearning.table.QFunction;
+
+/***
+ * Watkins's Q(lambda): each reward updates every recent decision, not
+ * just the last one, so it travels back along the path that led to it
+ * in a single step.
+ *
+ * Each decision leaves a trace that fades by gamma * lambda every step.
+ * Traces are kept in a small fixed-size list of parallel primitive
+ * arrays, and dropped once they fade below the cutoff, so an update
+ * only ever touches a bounded number of values instead of sweeping the
+ * table. If the list fills up, the faintest trace makes room.
+ *
+ * Traces only follow greedy decisions. Call <code>cut()</code> when an
+ * exploratory action is taken, as the rewards after it say nothing
+ * about the decisions before it.
+ *
+ * With lambda set to 0 this is the same as the one step update.
+ */
+public class EligibilityTraces {
+
+    private final int[] stateIndices;
+    private final int[] actions;
+    private final float[] traces;
+    private int count = 0;
+
+    private final float lambda;
+    private final float cutoff;
+
+    /***
+     * Constructor.
+     * @param capacity The most traces that are kept.
+     * @param lambda How much of each trace is kept each step, before discounting. Between 0 and 1.
+     * @param cutoff Traces below this are dropped.
+     */
+    public EligibilityTraces(int capacity, float lambda, float cutoff)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException();
+        if (!(lambda >= 0 && lambda <= 1)) throw new IllegalArgumentException("lambda must be between 0 and 1.");
+
+        this.stateIndices = new int[capacity];
+        this.actions = new int[capacity];
+        this.traces = new float[capacity];
+        this.lambda = lambda;
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * @return Number of traces currently held.
+     */
+    public int size() { return count; }
+
+    public float getLambda() { return lambda; }
+
+    /**
+     * Learns from a decision, updating it and every decision still traced.
+     * delta = Rt + gamma * Max(Q(St+1,a)) - Q(St,At)
+     * Q(s,a) = Q(s,a) + alpha * delta * e(s,a), for every traced (s,a)
+     * @param qFunction The values to update.
+     * @param stateIndex The state the action was taken in.
+     * @param action The action that was taken.
+     * @param reward The reward received for taking the action.
+     * @param nextStateIndex The state the action led to.
+     * @param alpha Learning parameter.
+     * @param gamma Discount factor.
+     * @return The updated value of the action taken.
+     */
+    public float update(QFunction qFunction, int stateIndex, int action, float reward, int nextStateIndex, float alpha, float gamma)
+    {
+        float delta = reward + gamma * qFunction.max(nextStateIndex) - qFunction.get(stateIndex, action);
+        replace(stateIndex, action);
+
+        float decay = gamma * lambda;
+        int i = 0;
+        while (i < count)
+        {
+            qFunction.add(stateIndices[i], actions[i], alpha * delta * traces[i]);
+            traces[i] *= decay;
+
+            if (traces[i] < cutoff)
+            {
+                // Fill the gap with the last trace, order doesn't matter.
+                count--;
+                stateIndices[i] = stateIndices[count];
+                actions[i] = actions[count];
+                traces[i] = traces[count];
+            }
+            else
+            {
+                i++;
+            }
+        }
+        return qFunction.get(stateIndex, action);
+    }
+
+    /**
+     * Forgets every trace. Called when an exploratory action is taken,
+     * and at the end of a round.
+     */
+    public void cut()
+    {
+        count = 0;
+    }
+
+    /**
+     * Sets the decision's trace to 1, adding it if it isn't traced yet.
+     */
+    private void replace(int stateIndex, int action)
+    {
+        int faintest = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (stateIndices[i] == stateIndex && actions[i] == action)
+            {
+                traces[i] = 1;
+                return;
+            }
+            if (traces[i] < traces[faintest])
+            {
+                faintest = i;
+            }
+        }
+
+        int slot = count < traces.length ? count++ : faintest;
+        stateIndices[slot] = stateIndex;
+        actions[slot] = action;
+        traces[slot] = 1;
+    }
+}
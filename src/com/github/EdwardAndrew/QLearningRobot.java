@@ -3,35 +3,133 @@
  */
 package com.github.EdwardAndrew;
 import com.github.EdwardAndrew.QLearning.action.Action;
+import com.github.EdwardAndrew.QLearning.action.WallEscape;
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunction;
+import com.github.EdwardAndrew.QLearning.approximation.LinearQFunctionFile;
+import com.github.EdwardAndrew.QLearning.approximation.TileCoder;
+import com.github.EdwardAndrew.QLearning.metrics.DecisionLog;
+import com.github.EdwardAndrew.QLearning.metrics.RobotMetrics;
+import com.github.EdwardAndrew.QLearning.planning.PrioritizedSweeping;
+import com.github.EdwardAndrew.QLearning.replay.ExperienceReplay;
+import com.github.EdwardAndrew.QLearning.reward.Reward;
+import com.github.EdwardAndrew.QLearning.state.Observation;
+import com.github.EdwardAndrew.QLearning.state.Quantisation;
+import com.github.EdwardAndrew.QLearning.state.StateLayout;
+import com.github.EdwardAndrew.QLearning.table.GreedyPolicy;
+import com.github.EdwardAndrew.QLearning.table.OpponentTableCache;
+import com.github.EdwardAndrew.QLearning.table.PersistentQFunction;
+import com.github.EdwardAndrew.QLearning.table.QFunctions;
+import com.github.EdwardAndrew.QLearning.table.QTable;
+import com.github.EdwardAndrew.QLearning.table.QTableFile;
+import com.github.EdwardAndrew.QLearning.table.QTableJournal;
+import com.github.EdwardAndrew.QLearning.table.SnapshotWriter;
+import com.github.EdwardAndrew.QLearning.targeting.LeadTargeting;
+import com.github.EdwardAndrew.QLearning.team.TransitionBatch;
+import com.github.EdwardAndrew.QLearning.traces.EligibilityTraces;
 import robocode.*;
 
-import java.awt.geom.Point2D;
 import java.io.*;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.Random;
-
-public class QLearningRobot extends AdvancedRobot {
-
-    // The total amount of each state.
-    private final int battleFieldXStateCount = 10;
-    private final int battleFieldYStateCount = 10;
-    private final int enemyBearingStateCount = 8;
-    private final int enemyDistanceStateCount = 4;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+public class QLearningRobot extends TeamRobot {
+
+    // Settings from QLearningRobot.properties. Static so the file is only read once per battle.
+    private static final Properties properties = loadProperties();
+    // How observations are divided into states.
+    private static final StateLayout stateLayout = loadStateLayout();
+    // The kind of table: dense, sparse, int8 or float16. Anything but dense is a compact table,
+    // saved whole to its own file. Set table.backend=sparse for layouts too large to hold every
+    // state, or int8 or float16 for a table a quarter or half the size.
+    private static final String tableBackend = loadTableBackend();
+    private static final boolean useCompactTable = !QFunctions.DENSE.equals(tableBackend);
+    // Whether values are approximated from tile-coded observations instead of kept in a table.
+    // Set learner=tiles to generalise between nearby states, the weights are saved to QValues.tiles.
+    private static final boolean useTileCoding = "tiles".equals(properties.getProperty("learner", "table").trim());
+    // How observations are covered by tiles, null when a table is used.
+    private static final TileCoder tileCoder = useTileCoding ? loadTileCoder() : null;
+    // Lambda for Watkins's Q(lambda), so rewards reach back past the last decision.
+    // 0 uses the one step update. Set with learner.lambda, tables only.
+    private static final float lambda = loadLambda();
+    // Ticks between decisions, with only set commands and one execute() a tick.
+    // 0 makes a decision each time ahead(100) finishes. Set with decision.ticks.
+    private static final int decisionTicks = loadDecisionTicks();
+    // Nanoseconds a turn spent planning from a model of the transitions seen.
+    // 0 doesn't plan. Set with planning.budget, tables only.
+    private static final long planningBudget = loadPlanningBudget();
+    // Whether the robot only plays what it has learnt: always the best action, with no
+    // learning, normalising or saving. Set mode=play for tournaments.
+    private static final boolean playing = "play".equals(properties.getProperty("mode", "learn").trim());
+    // Grid used to decide which way to escape from a wall, whatever the state layout.
+    private final int wallGridSize = 10;
     // Total number of action choices.
-    private final int actionCount = 9;
+    private static final int actionCount = 9;
 
-    // The state the agent is in.
-    private int enemyDistanceState = 0;
-    private int enemyBearingState = 0;
+    // What the agent can see, indexed by Observation.ordinal(). The state is worked out from these.
+    private final double[] observations = new double[Observation.values().length];
+    // The robot's square in the wall escape grid.
     private int xState = 0;
     private int yState = 0;
 
     // Immediate reward for actions taken.
     private float reward = 0.0f;
 
+    // The decision being carried out when deciding every few ticks, -1 before the first one.
+    // With tile coding the state is stateTiles, and the index is 0.
+    private int decisionStateIndex = -1;
+    private int decisionAction = 0;
+
+    // The enemy's heading and the time at the last scan, to work out how fast it's turning.
+    private double lastEnemyHeading = Double.NaN;
+    private long lastScanTime = 0;
+
     // State -> Action -> Reward values. This is used for the learning process.
-    private float[][][][][] QValues = new float[battleFieldXStateCount][battleFieldYStateCount][enemyBearingStateCount][enemyDistanceStateCount][actionCount];
+    // The table and the methods that use it are package-private for the benchmarks.
+    // Null when a compact table or tile coding is used.
+    final QTable qTable = useCompactTable || useTileCoding ? null : createQTable();
+    final PersistentQFunction compactTable = useCompactTable && !useTileCoding ? createCompactTable() : null;
+    // The generic table, used for any opponent without a table of its own.
+    private final PersistentQFunction genericTable = compactTable != null ? compactTable : qTable;
+    // The table decisions are made from and learnt into, the generic table
+    // until an opponent's table is picked.
+    PersistentQFunction qFunction = genericTable;
+    // Changes made since the last snapshot, appended to QValues.journal at the end of each round.
+    private final QTableJournal journal = qTable == null ? null : new QTableJournal(qTable, 4);
+    // The approximated values, used instead of a table when tile coding.
+    final LinearQFunction linearFunction = useTileCoding ? new LinearQFunction(tileCoder, actionCount) : null;
+    // Active tiles of the state a decision was made in, and of the state it led to.
+    private int[] stateTiles = useTileCoding ? new int[tileCoder.getTilingCount()] : null;
+    private int[] outcomeTiles = useTileCoding ? new int[tileCoder.getTilingCount()] : null;
+    // Whether QValues.data is a binary snapshot. The journal only applies to that snapshot.
+    private boolean hasBinarySnapshot = false;
+    // Writes snapshots in the background. Static so a snapshot still being written
+    // when the round ends is finished before the next round loads it.
+    private static SnapshotWriter snapshotWriter;
+
+    // Whether each opponent has a table of its own, picked when it's first scanned.
+    // Set opponents.enabled=true, tables only.
+    private static final boolean useOpponentTables = "true".equals(properties.getProperty("opponents.enabled", "false").trim());
+    // Opponents' tables loaded this battle. Static so each is only loaded once a battle.
+    private static OpponentTableCache opponentTables;
+    // The opponent whose table is used this round, null until one is scanned.
+    private String opponentName = null;
+    // The generic table's epsilon value, while an opponent's table is used.
+    private float genericEpsilon;
+
+    // When playing, the best action in each state of the generic table and of each
+    // opponent's table. Static so the tables are only loaded and compiled once a battle.
+    private static GreedyPolicy genericPolicy;
+    private static final Map<String, GreedyPolicy> opponentPolicies = new HashMap<>();
+    // The policy decisions are made from when playing, tables only.
+    private GreedyPolicy policy;
+    // Whether the generic table was loaded this round. When playing it's only loaded in the first.
+    private boolean tableLoaded = false;
 
     // value of 1 means random action will be taken 100% of the time
     float epsilon = 1.0f;
@@ -40,6 +138,85 @@ public class QLearningRobot extends AdvancedRobot {
     // The epsilon won't go lower than this.
     float epsilonLowerLimit = 0.01f;
 
+    // Discount factor.
+    float gamma = 0.9f;
+    // Learning parameter.
+    float alpha = 0.5f;
+
+    // Traces of the decisions made this round, null for the one step update.
+    // Traces fainter than 0.01 are dropped, so at most a few dozen are ever updated at once.
+    private final EligibilityTraces traces = lambda > 0 && qFunction != null ? new EligibilityTraces(32, lambda, 0.01f) : null;
+
+    // Past decisions, replayed at the end of each round. Robocode creates a
+    // new robot every round, so these are static to keep them for the whole battle.
+    // Each opponent's table has its own, so decisions are only replayed into the
+    // table they were made with.
+    private static ExperienceReplay genericReplay;
+    private static final Map<String, ExperienceReplay> opponentReplays = new HashMap<>();
+    // The buffer of the table being learnt into.
+    private ExperienceReplay experienceReplay;
+    // How many decisions each replay buffer holds. 16 bytes each on disk,
+    // keep the data files inside Robocode's 200KB data quota.
+    int replayCapacity = 2000;
+    // Replayed updates per decision made this round, and how many are made at a time.
+    float replayRatio = 4;
+    int replayBatchSize = 32;
+    // Whether the replay buffer is kept in QValues.replay between battles.
+    boolean persistReplay = true;
+
+    // Model of the transitions seen, planned from in each turn's spare time. Static
+    // to keep it for the whole battle, null if the robot isn't planning. Each
+    // opponent's table has its own, null if it wouldn't fit in memory.
+    private static PrioritizedSweeping genericPlanner;
+    private static final Map<String, PrioritizedSweeping> opponentPlanners = new HashMap<>();
+    // The model of the table being learnt into.
+    private PrioritizedSweeping planner;
+    // How many states each decision is remembered leading to, and the Bellman error
+    // a state needs before it's worth a backup.
+    int planningSlots = 4;
+    float planningThreshold = 0.1f;
+    // Don't plan if the model would take more memory than this, as with a large sparse layout.
+    long planningMemoryLimit = 16000000;
+
+    // Ticks between the messages that share what the robot learns with teammates running the
+    // same robot, in team battles. 0 learns alone. Set with team.interval, generic tables only.
+    private static final int teamInterval = loadTeamInterval();
+    private static final boolean teamLearningEnabled = teamInterval > 0 && !useTileCoding && !useOpponentTables && !playing;
+    // The table and epsilon value carried over from the last round in team battles. What was
+    // learnt from teammates isn't on disk unless this robot saved it, so it isn't reloaded.
+    private static PersistentQFunction teamTable;
+    private static float teamEpsilon;
+    // Teammates running this robot, who learn from each other's decisions. Null when learning alone.
+    private String[] learningTeammates = null;
+    // Teammates seen dying this round, and whether this robot has died.
+    private final Set<String> deadTeammates = new HashSet<>();
+    private boolean dead = false;
+    // The most decisions sent in one message, 13 bytes each.
+    int teamBatchCapacity = 64;
+    // Decisions waiting to be sent to teammates, and the turn the last ones were sent.
+    private final TransitionBatch teamBatch = teamLearningEnabled ? new TransitionBatch(teamBatchCapacity, stateLayout.getDescription()) : null;
+    private long lastBroadcastTime = 0;
+
+    // How long decisions, event handlers and saving take, kept for the whole battle.
+    private static final RobotMetrics metrics = new RobotMetrics();
+    // Whether the metrics are written to Metrics.csv at the end of the battle.
+    boolean writeMetrics = true;
+    // The battle's first decisions, written to Decisions.csv at the end of the battle. Set the
+    // number kept with decisions.log, 0 doesn't keep any. Static to keep it for the whole battle.
+    private static final int decisionLogCapacity = loadDecisionLogCapacity();
+    private static final DecisionLog decisionLog = decisionLogCapacity > 0 ? new DecisionLog(decisionLogCapacity) : null;
+    // Whether the action being carried out was chosen at random.
+    private boolean explored = false;
+
+    // Seed of every random number the robot uses, so a battle can be repeated. Set with
+    // random.seed, a new one each battle if it isn't set. Saved in the QValues.data header.
+    private static final long randomSeed = loadRandomSeed();
+    // Splits off the random numbers for each round. Static so each round's follow on from the
+    // last one's, created in the first round.
+    private static SplittableRandom battleRandom;
+    // This round's random numbers.
+    private SplittableRandom random;
+
     /**
      * Called by the robocode system.
      * Performs an action for each turn.
@@ -51,62 +228,426 @@ public class QLearningRobot extends AdvancedRobot {
         setAdjustRadarForGunTurn(true);
         setAdjustGunForRobotTurn(true);
 
-        // Discount factor.
-        float gamma = 0.9f;
-        // Learning parameter.
-        float alpha = 0.5f;
+        metrics.startRound();
+        learningTeammates = findLearningTeammates();
+        if(battleRandom == null)
+        {
+            System.out.println("Random seed: " + randomSeed);
+            // Teammates running this robot each get their own numbers.
+            battleRandom = new SplittableRandom(randomSeed ^ getName().hashCode());
+        }
+        random = battleRandom.split();
 
         // load in Q values
-        load();
+        long loadStart = System.nanoTime();
+        if(playing)
+        {
+            loadPolicy();
+        }
+        else if(learningTeammates != null && teamTable != null)
+        {
+            restoreTeamTable();
+        }
+        else
+        {
+            load();
+            loadReplay();
+        }
+        metrics.recordPersistence(System.nanoTime() - loadStart);
+
+        createPlanner();
+        experienceReplay = genericReplay;
+        planner = genericPlanner;
+        if(planner != null)
+        {
+            // Tested every turn, including while ahead(100) blocks, and never fires.
+            addCustomEvent(new Condition("planning"){
+                @Override public boolean test(){
+                    plan();
+                    return false;
+                }
+            });
+        }
 
         try {
+            if(decisionTicks > 0)
+            {
+                runTicks();
+            }
             while (true) {
+                long decisionStart = System.nanoTime();
+
                 // Reset reward value.
                 reward = 0;
 
-                // Find the current states.
-                int currentEnemyXState = getQuantisedBattlefieldPosition(this.getX(), this.getBattleFieldWidth(), battleFieldXStateCount);
-                int currentEnemyYState = getQuantisedBattlefieldPosition(this.getY(), this.getBattleFieldHeight(), battleFieldYStateCount);
-                int lastEnemyBearingState = enemyBearingState;
-                int lastEnemyDistanceState = enemyDistanceState;
-                xState = currentEnemyXState;
-                yState = currentEnemyYState;
-
-                int action;
-
-                // If returned value is below epsilon, perform a random action. Otherwise perform learned action.
-                if (getRandomFloat(0, 1) < epsilon) {
-                    action = getRandomInteger(0, actionCount - 1);
-                } else {
-                    // Get the action with the highest QValue for this state.
-                    action = getMaximumActionForState(currentEnemyXState, currentEnemyYState, lastEnemyBearingState, lastEnemyDistanceState);
-                }
+                // Find the current state.
+                observePosition();
+                int stateIndex = observeState(stateTiles);
+
+                int action = chooseAction(stateIndex);
 
                 selectAction(action);
+                // Don't count the time spent waiting for turns to pass.
+                long decisionTime = System.nanoTime() - decisionStart;
                 execute();
                 // After performing action, drive forwards and turn the radar 360 degrees.
                 setTurnRadarLeft(360);
                 ahead(100);
+                long learningStart = System.nanoTime();
 
-                // Calculate the new current states. We can only detect a change in this function.
-                int outcomeXPositionState = getQuantisedBattlefieldPosition(this.getX(), this.getBattleFieldWidth(), battleFieldXStateCount);
-                int outcomeYPositionState = getQuantisedBattlefieldPosition(this.getY(), this.getBattleFieldHeight(), battleFieldYStateCount);
+                // Calculate the new current state. We can only detect a change in this function.
+                observePosition();
+                int outcomeStateIndex = observeState(outcomeTiles);
 
-                // Update the QValue.
-                // Q(St,At) = (1-alpha) * Q(St,At) + alpha * Rt + gamma * Max(Q(St+1,a))
-                QValues[currentEnemyXState][currentEnemyYState][lastEnemyBearingState][lastEnemyDistanceState][action] =
-                        (1 - alpha) * ((QValues[currentEnemyXState][currentEnemyYState][lastEnemyBearingState][lastEnemyDistanceState][action]) +
-                                alpha * (reward + (gamma * getMaximumQValueForState(outcomeXPositionState, outcomeYPositionState, enemyBearingState, enemyDistanceState))));
+                learn(stateIndex, action, outcomeStateIndex);
+                broadcastTransitions();
 
-                xState = outcomeXPositionState;
-                yState = outcomeYPositionState;
+                decisionTime += System.nanoTime() - learningStart;
+                metrics.recordDecision(decisionTime);
+                logDecision(stateIndex, action, decisionTime);
             }
         }
         catch(ThreadDeath e)
         {
+            if(playing) return;
+            learnLastDecision();
             normaliseQValues();
+            if(!isPersisting()) return;
+            long saveStart = System.nanoTime();
+            saveOpponentTable();
             save();
+            // The writer thread may be stopped with this one, so make sure the last snapshot is written.
+            flushSnapshotWriter();
+            metrics.recordPersistence(System.nanoTime() - saveStart);
+        }
+    }
+
+    /**
+     * The run loop when deciding every few ticks. Each tick only sets
+     * commands and calls execute() once. Every decisionTicks ticks the
+     * last decision is learnt from, with all the reward received since it
+     * was made, and the next one is made. Never returns.
+     */
+    private void runTicks(){
+        // Keep the radar spinning, instead of a turn for each decision.
+        setTurnRadarLeft(Double.POSITIVE_INFINITY);
+
+        int ticksUntilDecision = 0;
+        while (true) {
+            if(ticksUntilDecision == 0)
+            {
+                long decisionStart = System.nanoTime();
+                observePosition();
+
+                int stateIndex;
+                if(decisionStateIndex >= 0)
+                {
+                    stateIndex = observeState(outcomeTiles);
+                    learn(decisionStateIndex, decisionAction, stateIndex);
+                    broadcastTransitions();
+                    // The outcome's tiles are the next decision's state.
+                    if(useTileCoding)
+                    {
+                        int[] tiles = stateTiles;
+                        stateTiles = outcomeTiles;
+                        outcomeTiles = tiles;
+                    }
+                }
+                else
+                {
+                    stateIndex = observeState(stateTiles);
+                }
+
+                decisionAction = chooseAction(stateIndex);
+                decisionStateIndex = stateIndex;
+                reward = 0;
+
+                selectAction(decisionAction);
+                setAhead(100);
+                ticksUntilDecision = decisionTicks;
+                long decisionTime = System.nanoTime() - decisionStart;
+                metrics.recordDecision(decisionTime);
+                logDecision(decisionStateIndex, decisionAction, decisionTime);
+            }
+            ticksUntilDecision--;
+            execute();
+        }
+    }
+
+    /**
+     * Picks the action to take, the best one for the state or a random one.
+     * @param stateIndex Index of the state's row in the QTable, its tiles are in stateTiles when tile coding.
+     * @return The index of the action.
+     */
+    private int chooseAction(int stateIndex){
+        explored = false;
+        if(playing)
+        {
+            return policy != null ? policy.getAction(stateIndex) : linearFunction.argmax(stateTiles);
+        }
+
+        int action;
+
+        // If returned value is below epsilon, perform a random action. Otherwise perform learned action.
+        if (getRandomFloat(0, 1) < epsilon) {
+            explored = true;
+            action = getRandomInteger(0, actionCount - 1);
+            // Rewards after an exploratory action don't belong to the decisions before it.
+            if(traces != null && action != getMaximumActionForState(stateIndex))
+            {
+                traces.cut();
+            }
+        } else {
+            // Get the action with the highest QValue for this state.
+            action = useTileCoding ? linearFunction.argmax(stateTiles) : getMaximumActionForState(stateIndex);
+        }
+        return action;
+    }
+
+    /**
+     * Updates the QValue of a decision, with the reward received since it was made.
+     * Q(St,At) = (1-alpha) * Q(St,At) + alpha * (Rt + gamma * Max(Q(St+1,a)))
+     * @param stateIndex The state the decision was made in, its tiles are in stateTiles when tile coding.
+     * @param action The action that was taken.
+     * @param outcomeStateIndex The state it led to, its tiles are in outcomeTiles when tile coding.
+     */
+    private void learn(int stateIndex, int action, int outcomeStateIndex){
+        if(playing) return;
+
+        if(useTileCoding)
+        {
+            linearFunction.update(stateTiles, action, reward, outcomeTiles, alpha, gamma);
+        }
+        else
+        {
+            if(traces != null)
+            {
+                traces.update(qFunction, stateIndex, action, reward, outcomeStateIndex, alpha, gamma);
+            }
+            else
+            {
+                qFunction.update(stateIndex, action, reward, outcomeStateIndex, alpha, gamma);
+            }
+            experienceReplay.add(stateIndex, action, reward, outcomeStateIndex);
+            if(planner != null)
+            {
+                planner.observe(qFunction, stateIndex, action, reward, outcomeStateIndex, gamma);
+            }
+            if(learningTeammates != null)
+            {
+                teamBatch.add(stateIndex, action, reward, outcomeStateIndex);
+            }
+        }
+    }
+
+    /**
+     * Adds the decision to the decision log, if one is being kept.
+     * @param stateIndex The state it was made in.
+     * @param action The action chosen.
+     * @param decisionTime Nanoseconds spent on it this turn.
+     */
+    private void logDecision(int stateIndex, int action, long decisionTime){
+        if(decisionLog == null) return;
+        decisionLog.record(getRoundNum(), getTime(), stateIndex, action, explored, decisionTime);
+    }
+
+    /**
+     * Sends the decisions learnt from since the last message to the
+     * teammates, once teamInterval turns have passed or the batch is full.
+     * Called at most once a decision, so there's never more than one
+     * message a turn.
+     */
+    private void broadcastTransitions(){
+        if(learningTeammates == null || teamBatch.isEmpty()) return;
+        if(!teamBatch.isFull() && getTime() - lastBroadcastTime < teamInterval) return;
+
+        try
+        {
+            broadcastMessage(teamBatch.drain());
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+        lastBroadcastTime = getTime();
+    }
+
+    /**
+     * Called by robocode when a teammate's message arrives.
+     * Learns from the decisions a teammate sent, as if it had made them.
+     * @param messageEvent Contains the message and who sent it.
+     */
+    @Override public void onMessageReceived(MessageEvent messageEvent){
+        if(learningTeammates == null || !(messageEvent.getMessage() instanceof TransitionBatch)) return;
+
+        long eventStart = System.nanoTime();
+        TransitionBatch batch = (TransitionBatch)messageEvent.getMessage();
+        // A teammate with another state layout can't be learnt from.
+        if(batch.fits(stateLayout.getDescription(), qFunction.getStateCount(), actionCount))
+        {
+            for(int i = 0; i < batch.size(); i++)
+            {
+                int stateIndex = batch.getStateIndex(i);
+                int action = batch.getAction(i);
+                float teammateReward = batch.getReward(i);
+                int nextStateIndex = batch.getNextStateIndex(i);
+
+                qFunction.update(stateIndex, action, teammateReward, nextStateIndex, alpha, gamma);
+                experienceReplay.add(stateIndex, action, teammateReward, nextStateIndex);
+                if(planner != null)
+                {
+                    planner.observe(qFunction, stateIndex, action, teammateReward, nextStateIndex, gamma);
+                }
+            }
+        }
+        metrics.recordEvent(System.nanoTime() - eventStart);
+    }
+
+    /**
+     * Called by robocode when another robot dies.
+     * @param robotDeathEvent Contains the name of the robot.
+     */
+    @Override public void onRobotDeath(RobotDeathEvent robotDeathEvent){
+        if(learningTeammates != null && isTeammate(robotDeathEvent.getName()))
+        {
+            deadTeammates.add(robotDeathEvent.getName());
+        }
+    }
+
+    /**
+     * @return The teammates running this robot, or null if there are
+     *         none or the robot learns alone.
+     */
+    private String[] findLearningTeammates(){
+        String[] teammates = teamLearningEnabled ? getTeammates() : null;
+        if(teammates == null) return null;
+
+        List<String> learning = new ArrayList<>();
+        for(String teammate : teammates)
+        {
+            if(getClassName(teammate).equals(getClassName(getName())))
+            {
+                learning.add(teammate);
+            }
+        }
+        return learning.isEmpty() ? null : learning.toArray(new String[0]);
+    }
+
+    /**
+     * @param robotName A robot's name from Robocode, e.g. com.github.EdwardAndrew.QLearningRobot* (2).
+     * @return The name without the version or its number in the team.
+     */
+    private static String getClassName(String robotName){
+        int end = robotName.indexOf(' ');
+        return end >= 0 ? robotName.substring(0, end) : robotName;
+    }
+
+    /**
+     * Teammates running this robot share a data directory, so only one of
+     * them saves. It's the first, by name, of those alive when the round
+     * ends, or the last to die if none are.
+     * @return Whether this robot saves the table and the other data files.
+     */
+    private boolean isPersisting(){
+        if(learningTeammates == null) return true;
+
+        for(String teammate : learningTeammates)
+        {
+            if(deadTeammates.contains(teammate)) continue;
+            // The teammate outlived this robot, or both are alive and the teammate comes first.
+            if(dead || teammate.compareTo(getName()) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Keeps a copy of the table and epsilon value for the next round.
+     */
+    private void keepTeamTable(){
+        if(learningTeammates == null) return;
+
+        if(teamTable == null)
+        {
+            teamTable = useCompactTable ? createCompactTable() : createQTable();
+        }
+        teamTable.copyFrom(genericTable);
+        teamEpsilon = epsilon;
+    }
+
+    /**
+     * Starts the round from the table kept at the end of the last one.
+     * It's saved whole, as the snapshot on disk may be another teammate's.
+     */
+    private void restoreTeamTable(){
+        // Finish writing any snapshot this robot saved last round.
+        flushSnapshotWriter();
+        genericTable.copyFrom(teamTable);
+        epsilon = teamEpsilon;
+        hasBinarySnapshot = false;
+    }
+
+    /**
+     * Spends the turn's planning budget on backups from the model.
+     */
+    private void plan(){
+        if(planner == null) return;
+
+        long planningStart = System.nanoTime();
+        planner.plan(qFunction, Integer.MAX_VALUE, planningBudget, alpha, gamma);
+        metrics.recordPlanning(System.nanoTime() - planningStart);
+    }
+
+    /**
+     * Creates the planner on the first round of a battle, if the robot is
+     * planning and the model fits in memory.
+     */
+    private void createPlanner(){
+        // The model is over table states, which tile coding doesn't have.
+        if(genericPlanner != null || planningBudget == 0 || useTileCoding || playing) return;
+
+        long memoryUsage = PrioritizedSweeping.getMemoryUsage(qFunction.getStateCount(), actionCount, planningSlots);
+        if(memoryUsage > planningMemoryLimit)
+        {
+            System.out.println("Not planning, the model would take " + memoryUsage + " bytes.");
+            return;
+        }
+        genericPlanner = new PrioritizedSweeping(qFunction.getStateCount(), actionCount, planningSlots, planningThreshold);
+    }
+
+    /**
+     * Creates the opponent's planner the first time it's seen in a battle,
+     * if the robot is planning and every model still fits in memory.
+     * @return The opponent's planner, null if it isn't planning.
+     */
+    private PrioritizedSweeping getOpponentPlanner(){
+        if(genericPlanner == null) return null;
+        if(opponentPlanners.containsKey(opponentName)) return opponentPlanners.get(opponentName);
+
+        PrioritizedSweeping opponentPlanner = null;
+        long memoryUsage = PrioritizedSweeping.getMemoryUsage(qFunction.getStateCount(), actionCount, planningSlots) * (opponentPlanners.size() + 2);
+        if(memoryUsage > planningMemoryLimit)
+        {
+            System.out.println("Not planning for " + opponentName + ", the models would take " + memoryUsage + " bytes.");
+        }
+        else
+        {
+            opponentPlanner = new PrioritizedSweeping(qFunction.getStateCount(), actionCount, planningSlots, planningThreshold);
         }
+        opponentPlanners.put(opponentName, opponentPlanner);
+        return opponentPlanner;
+    }
+
+    /**
+     * When deciding every few ticks, learns from the decision still being
+     * carried out when the round ends, so the rewards for winning or dying
+     * aren't lost.
+     */
+    private void learnLastDecision(){
+        if(decisionStateIndex < 0) return;
+
+        observePosition();
+        learn(decisionStateIndex, decisionAction, observeState(outcomeTiles));
+        decisionStateIndex = -1;
     }
 
     /**
@@ -118,9 +659,13 @@ public class QLearningRobot extends AdvancedRobot {
      */
     private void selectAction(int action){
         // Don't do anything if the robot decided to stay.
+        // doNothing() uses up a turn, so when deciding every few ticks just don't turn.
         if(Action.values()[action] == Action.STAY)
         {
-            doNothing();
+            if(decisionTicks == 0)
+            {
+                doNothing();
+            }
         }
         else
         {
@@ -137,8 +682,8 @@ public class QLearningRobot extends AdvancedRobot {
      *                        is completed.
      */
     private void selectTurnTowardsBearing(double absoluteBearing){
-        double normalisedBearing = normaliseBearing( this.getHeading() );
-        double headingDelta = normaliseBearing(absoluteBearing - normalisedBearing);
+        double normalisedBearing = Quantisation.normaliseBearing( this.getHeading() );
+        double headingDelta = Quantisation.normaliseBearing(absoluteBearing - normalisedBearing);
 
         if(headingDelta > 0)
         {
@@ -153,160 +698,246 @@ public class QLearningRobot extends AdvancedRobot {
     /**
      * Instructs the robot to aim towards the given heading.
      * execute() needs to be called afterwards to perform the
-     * maneuver.
+     * maneuver, the gun turns at most 20 degrees a tick.
      * @param absoluteBearing The bearing we want the robot's
      *                          gun to face towards are the turn
      *                          is completed.
      */
     private void selectTurnGunTowardsBearing(double absoluteBearing){
-        double normalisedBearing = normaliseBearing( this.getGunHeading() );
-        double headingDelta = normaliseBearing(absoluteBearing - normalisedBearing);
+        double normalisedBearing = Quantisation.normaliseBearing( this.getGunHeading() );
+        double headingDelta = Quantisation.normaliseBearing(absoluteBearing - normalisedBearing);
 
         if(headingDelta > 0)
         {
-            turnGunRight( headingDelta );
+            setTurnGunRight( headingDelta );
         }
         else
         {
-            turnGunLeft( Math.abs( headingDelta ) );
+            setTurnGunLeft( Math.abs( headingDelta ) );
         }
     }
 
     /**
-     * @param xPositionState The quantised X position of the robot.
-     * @param yPositionState The quantised Y position of the robot.
-     * @param enemyBearingState The quantised absolute bearing of the
-     *                          enemy robot.
-     * @param enemyDistanceState The quantised distance of the enemy
-     *                           robot.
+     * @param stateIndex Index of the state's row in the QTable.
      * @return The Action that yields the highest reward for the
      *          given state.
      */
-    private int getMaximumActionForState(int xPositionState, int yPositionState, int enemyBearingState, int enemyDistanceState){
-        int highestQValueIndex =0;
+    int getMaximumActionForState(int stateIndex){
+        return qFunction.argmax(stateIndex);
+    }
+
+    /**
+     * @param stateIndex Index of the state's row in the QTable.
+     * @return The value of the highest reward that can be obtained
+     *         from this state.
+     */
+    float getMaximumQValueForState(int stateIndex){
+       return qFunction.max(stateIndex);
+    }
+
+    /**
+     * @return Index of the current state's row in the QTable, from
+     *         the latest observations.
+     */
+    int getStateIndex(){
+        return stateLayout.getStateIndex(observations);
+    }
 
-        for(int action = 0; action < actionCount; action++)
+    /**
+     * Works out the current state from the latest observations.
+     * @param tiles Filled with the state's active tiles when tile coding.
+     * @return Index of the state's row in the QTable, 0 when tile coding.
+     */
+    private int observeState(int[] tiles){
+        if(useTileCoding)
         {
-            if(QValues[xPositionState][yPositionState][enemyBearingState][enemyDistanceState][action] > highestQValueIndex)
-            {
-                highestQValueIndex = action;
-            }
+            tileCoder.getTiles(observations, tiles);
+            return 0;
         }
-
-        return  highestQValueIndex;
+        return getStateIndex();
     }
 
     /**
-     * @param xPositionState The quantised X position of the robot.
-     * @param yPositionState The quantised Y position of the robot.
-     * @param enemyBearingState The quantised absolute bearing of the
-     *                          enemy robot.
-     * @param enemyDistanceState The quantised distance of the enemy
-     *                           robot.
-     * @return The value of the highest reward that can be obtained
-     *         from this state.
+     * Records the robot's position, and its square in the wall escape grid.
      */
-    private float getMaximumQValueForState(int xPositionState, int yPositionState, int enemyBearingState, int enemyDistanceState){
-       return QValues[xPositionState][yPositionState][enemyBearingState][enemyDistanceState][getMaximumActionForState(xPositionState, yPositionState, enemyBearingState, enemyDistanceState )];
+    private void observePosition(){
+        observations[Observation.POSITION_X.ordinal()] = this.getX() / this.getBattleFieldWidth();
+        observations[Observation.POSITION_Y.ordinal()] = this.getY() / this.getBattleFieldHeight();
+        xState = Quantisation.getQuantisedBattlefieldPosition(this.getX(), this.getBattleFieldWidth(), wallGridSize);
+        yState = Quantisation.getQuantisedBattlefieldPosition(this.getY(), this.getBattleFieldHeight(), wallGridSize);
     }
 
     /**
      * Called by robocode when the radar detects an enemy robot.
+     * Only sets commands, which the run loop carries out, so no turns are spent here.
      * @param enemy - ScannedRobotEvent containing information
      *                about the robot that has been detected.
      */
     @Override public void onScannedRobot(ScannedRobotEvent enemy) {
-        // Absolute bearing that the enemy was spotted at.
-        double enemyBearing = getAbsoluteBearing( enemy.getBearing());
+        // Don't track or shoot at teammates.
+        if(isTeammate(enemy.getName())) return;
 
-        // Update the current states for the robot.
-        enemyDistanceState =  getQuantisedEnemyDistance( enemy.getDistance() );
-        enemyBearingState =  getQuantisedBearing( enemyBearing , enemyBearingStateCount ) ;
+        long eventStart = System.nanoTime();
 
-        // Don't take our own velocity into account (bullets do not seem to inherit velocity).
-        double myXVelocity = 0;
-        double myYVelocity = 0;
-
-        // The velocity of the enemy robot's movement.
-        double enemyXVelocity = Math.sin(Math.toRadians(enemy.getHeading())) * enemy.getVelocity();
-        double enemyYVelocity = Math.cos(Math.toRadians(enemy.getHeading())) * enemy.getVelocity();
-
-        // Relative velocity of both our robots movement.
-        double relativeXVelocity = enemyXVelocity - myXVelocity;
-        double relativeYVelocity = enemyYVelocity  -myYVelocity;
-
-        // The enemies position coordinates, relative to us.
-        double currentRelativeEnemyX = Math.sin(Math.toRadians(enemyBearing)) * enemy.getDistance();
-        double currentRelativeEnemyY = Math.cos(Math.toRadians(enemyBearing)) * enemy.getDistance();
-
-        // Select appropriate firepower for distance.
-        double firePower = Math.min(500/enemy.getDistance(),3);
+        if(useOpponentTables && opponentName == null && genericTable != null)
+        {
+            selectOpponentTable(enemy.getName());
+        }
 
-        // Calculate bullet speed.
-        double bulletSpeed = 20 - firePower * 3;
+        // Absolute bearing that the enemy was spotted at.
+        double enemyBearing = getAbsoluteBearing( enemy.getBearing());
 
-        // Calculate bullet travel time.
-        double timeForBulletToHit = enemy.getDistance() / (bulletSpeed + Point2D.distance(0,0,relativeXVelocity,relativeYVelocity));
+        // Update what the robot knows about the enemy.
+        observations[Observation.ENEMY_BEARING.ordinal()] = enemyBearing;
+        observations[Observation.ENEMY_DISTANCE.ordinal()] = enemy.getDistance();
+        observations[Observation.ENEMY_HEADING.ordinal()] = enemy.getHeading();
+        observations[Observation.ENEMY_VELOCITY.ordinal()] = enemy.getVelocity();
 
-        // Predict enemy location at this time.
-        double predicatedRelativeEnemyX = currentRelativeEnemyX + (relativeXVelocity * timeForBulletToHit);
-        double predicatedRelativeEnemyY = currentRelativeEnemyY + (relativeYVelocity * timeForBulletToHit);
+        // How fast the enemy is turning, from its heading at the last scan.
+        long time = getTime();
+        double enemyTurnRate = Double.isNaN(lastEnemyHeading) ? 0 : LeadTargeting.getTurnRate(lastEnemyHeading, enemy.getHeading(), time - lastScanTime, enemy.getVelocity());
+        lastEnemyHeading = enemy.getHeading();
+        lastScanTime = time;
 
-        // Convert the relative coordinates of the enemy to a bearing to aim at.
-        double predictedBearing = Math.atan2(predicatedRelativeEnemyX, predicatedRelativeEnemyY) * 180 / 3.141592653589;
+        // Select appropriate firepower for distance, and lead the enemy.
+        double firePower = LeadTargeting.getFirePower(enemy.getDistance());
+        double predictedBearing = LeadTargeting.getInterceptBearing(enemyBearing, enemy.getDistance(), enemy.getHeading(), enemy.getVelocity(), enemyTurnRate, firePower);
 
         // Turn gun towards predicted bearing.
         selectTurnGunTowardsBearing(predictedBearing);
-        execute();
 
-        // If the gun is cool and we're aiming at the direction and not too far away. Then fire.
-        if(getGunHeat() == 0 && Math.abs(getGunTurnRemaining()) < 0.5 && enemyDistanceState < 3)
+        // If the gun is cool, already pointing close enough to hit and not too far away. Then fire.
+        // The bullet leaves before the gun turns, so the turn still to go is how far off it is.
+        if(getGunHeat() == 0 && Math.abs(getGunTurnRemaining()) < LeadTargeting.getAimTolerance(enemy.getDistance()) && enemy.getDistance() < LeadTargeting.MAXIMUM_FIRING_DISTANCE)
         {
-            fire(firePower);
+            setFire(firePower);
         }
-        else
+        else if(decisionTicks == 0)
         {
             // Alternatively, perform a random action.
+            // Not when deciding every few ticks, as it would override the decision being learnt from.
             selectAction(getRandomInteger(0, actionCount-2));
-            execute();
-            ahead(100);
+            setAhead(100);
         }
+        metrics.recordEvent(System.nanoTime() - eventStart);
     }
 
     /**
-     * Called by robocode when the robot crashes into a wall.
-     * @param hitWallEvent - Contains information about the robot
-     *                       when it hit the wall.
+     * Switches to the opponent's table for the rest of the round, loading
+     * it if this is the first round it's been seen in.
+     * @param robotName The opponent's name from Robocode.
      */
-    @Override public void onHitWall(HitWallEvent hitWallEvent){
-
-        // Negative reward for crashing into the wall.
-        reward -= 7;
+    private void selectOpponentTable(String robotName){
+        opponentName = OpponentTableCache.getOpponentName(robotName);
+        if(playing)
+        {
+            selectOpponentPolicy();
+            return;
+        }
+        genericEpsilon = epsilon;
 
-        // Handle each case and command the robot to drive away from the wall.
-        if(yState >= battleFieldYStateCount-3 && xState > 2 &&  xState < battleFieldXStateCount-1){
-            selectTurnTowardsBearing(180);
+        qFunction = getOpponentTables().get(opponentName, genericTable, epsilon);
+        epsilon = opponentTables.getEpsilon(opponentName);
+        if(genericReplay != null)
+        {
+            experienceReplay = getOpponentReplay();
         }
-        else if(yState >= battleFieldYStateCount-3 &&  xState >= battleFieldXStateCount-3){
-            selectTurnTowardsBearing(-135);
+        planner = getOpponentPlanner();
+        // Traced decisions were made with the generic table.
+        if(traces != null)
+        {
+            traces.cut();
         }
-        else if(yState >= battleFieldYStateCount-3 &&  xState <= 2) {
-            selectTurnTowardsBearing(135);
+    }
+
+    /**
+     * When playing, switches to the policy compiled from the opponent's
+     * table, loading and compiling it the first time it's seen.
+     */
+    private void selectOpponentPolicy(){
+        GreedyPolicy opponentPolicy = opponentPolicies.get(opponentName);
+        if(opponentPolicy == null)
+        {
+            long loadStart = System.nanoTime();
+            // An opponent without a table starts from a copy of the generic one, so it needs loading.
+            if(!tableLoaded)
+            {
+                load();
+                tableLoaded = true;
+            }
+            // Read without caching, as the table is only needed until it's compiled.
+            opponentPolicy = GreedyPolicy.compile(getOpponentTables().read(opponentName, genericTable));
+            opponentPolicies.put(opponentName, opponentPolicy);
+            metrics.recordPersistence(System.nanoTime() - loadStart);
         }
-        else if (xState <= 2 && yState > 2 && yState < battleFieldYStateCount-3){
-            selectTurnTowardsBearing(90);
+        policy = opponentPolicy;
+    }
+
+    /**
+     * When playing, loads the generic table and compiles its policy on the
+     * first round of a battle. Tile coding has no states to compile, so the
+     * weights are loaded every round instead.
+     */
+    private void loadPolicy(){
+        if(useTileCoding)
+        {
+            load();
+            return;
         }
-        else if(xState <= 2 && yState <= 2){
-            selectTurnTowardsBearing(45);
+        if(genericPolicy == null)
+        {
+            load();
+            tableLoaded = true;
+            genericPolicy = GreedyPolicy.compile(genericTable);
         }
-        else if(yState <= 2 && xState > 2 && xState < battleFieldXStateCount-3){
-            selectTurnTowardsBearing(0);
+        policy = genericPolicy;
+    }
+
+    /**
+     * Creates the opponent table cache on the first round of a battle.
+     * @return The cache.
+     */
+    private OpponentTableCache getOpponentTables(){
+        if(opponentTables == null)
+        {
+            int capacity = 4;
+            try
+            {
+                capacity = Math.max(1, Integer.parseInt(properties.getProperty("opponents.cache", "4").trim()));
+            }
+            catch(NumberFormatException e)
+            {
+                e.printStackTrace();
+            }
+            opponentTables = new OpponentTableCache(getDataDirectory(), RobocodeFileOutputStream::new,
+                    useCompactTable ? QLearningRobot::createCompactTable : QLearningRobot::createQTable, capacity);
         }
-        else if(yState <= 2 && xState >= battleFieldXStateCount-3){
-            selectTurnTowardsBearing(-45);
+        return opponentTables;
+    }
+
+    /**
+     * Called by robocode when the robot crashes into a wall.
+     * @param hitWallEvent - Contains information about the robot
+     *                       when it hit the wall.
+     */
+    @Override public void onHitWall(HitWallEvent hitWallEvent){
+        long eventStart = System.nanoTime();
+
+        // Negative reward for crashing into the wall.
+        reward += Reward.HIT_WALL.getValue();
+
+        // Command the robot to drive away from the wall.
+        double escapeBearing = WallEscape.getEscapeBearing(xState, yState, wallGridSize, wallGridSize);
+        if(!Double.isNaN(escapeBearing))
+        {
+            selectTurnTowardsBearing(escapeBearing);
         }
-        else if(xState >= battleFieldXStateCount-3 && yState > 2 && yState < battleFieldYStateCount-3){
-            selectTurnTowardsBearing(-90);
+        metrics.recordEvent(System.nanoTime() - eventStart);
+        // When deciding every few ticks the run loop carries this out, so no turns are spent here.
+        if(decisionTicks > 0)
+        {
+            setAhead(100);
+            return;
         }
         execute();
         ahead(100);
@@ -315,275 +946,698 @@ public class QLearningRobot extends AdvancedRobot {
     /**
      * Called by robocode when the robot dies.
      */
-    @Override public void onDeath(DeathEvent deathEvent) { reward -= 15; }
+    @Override public void onDeath(DeathEvent deathEvent) {
+        reward += Reward.DEATH.getValue();
+        dead = true;
+    }
 
     /**
      * Called by robocode when the robot gets hit by a bullet.
      * @param hitByBulletEvent Contains information about the robot when it
      *                         was hit by the bullet.
      */
-    @Override public void  onHitByBullet(HitByBulletEvent hitByBulletEvent){ reward -= 7;}
+    @Override public void  onHitByBullet(HitByBulletEvent hitByBulletEvent){ reward += Reward.HIT_BY_BULLET.getValue(); }
 
     /**
      * Called by robocode when the robot crashes into another.
      * @param hitRobotEvent Contains information about the robot
      *                      collision.
      */
-    @Override public void onHitRobot(HitRobotEvent hitRobotEvent){ reward -= 7;}
+    @Override public void onHitRobot(HitRobotEvent hitRobotEvent){ reward += Reward.HIT_ROBOT.getValue(); }
 
     /**
      * Called by robocode when the robot's bullet hits an enemy.
      * @param bulletHitEvent Contains information about the bullet
      *                       that hit the enemy.
      */
-    @Override public  void onBulletHit(BulletHitEvent bulletHitEvent) { reward += 5; }
+    @Override public  void onBulletHit(BulletHitEvent bulletHitEvent) { reward += Reward.BULLET_HIT.getValue(); }
 
     /***
      * Called by Robocode when the robot win's the round.
      * @param winEvent Contains information about the what
      *                 the round being won.
      */
-    @Override public void onWin(WinEvent winEvent){reward += 15;}
+    @Override public void onWin(WinEvent winEvent){ reward += Reward.WIN.getValue(); }
+
+    /**
+     * Called by robocode when the robot took too long and missed a turn.
+     * @param skippedTurnEvent Contains information about the skipped turn.
+     */
+    @Override public void onSkippedTurn(SkippedTurnEvent skippedTurnEvent){ metrics.recordSkippedTurn(); }
 
     /**
      * Called by robocode when the round ends.
      * @param roundEndedEvent Contains information about the round.
      */
     @Override public void onRoundEnded(RoundEndedEvent roundEndedEvent) {
+        // Nothing was learnt, so there's nothing to save.
+        if(playing)
+        {
+            metrics.endRound();
+            return;
+        }
+
+        long eventStart = System.nanoTime();
+
+        learnLastDecision();
+
+        // Learn some more from this round's decisions, and earlier ones.
+        if(experienceReplay != null)
+        {
+            experienceReplay.replayRecent(qFunction, replayRatio, replayBatchSize, alpha, gamma);
+            // Decisions made before the opponent was seen were learnt into the generic table.
+            if(experienceReplay != genericReplay)
+            {
+                genericReplay.replayRecent(genericTable, replayRatio, replayBatchSize, alpha, gamma);
+            }
+        }
+
         normaliseQValues();
 
         // Decrement the epsilon value.
         epsilon = epsilon > epsilonLowerLimit ? epsilon - epsilonDecrement : epsilon;
+        keepTeamTable();
+        metrics.recordEvent(System.nanoTime() - eventStart);
 
-        save();
-    }
+        if(isPersisting())
+        {
+            long saveStart = System.nanoTime();
+            saveOpponentTable();
+            save();
+            metrics.recordPersistence(System.nanoTime() - saveStart);
+        }
+
+        metrics.endRound();
+    }
+
+    /**
+     * Called by robocode when the battle ends.
+     * @param battleEndedEvent Contains information about the battle.
+     */
+    @Override public void onBattleEnded(BattleEndedEvent battleEndedEvent) {
+        // Teammates share the data directory, only one of them writes to it.
+        if(!isPersisting()) return;
+
+        if(!playing)
+        {
+            long saveStart = System.nanoTime();
+            flushSnapshotWriter();
+            saveReplay();
+            metrics.recordPersistence(System.nanoTime() - saveStart);
+        }
+
+        saveMetrics();
+        saveDecisionLog();
+    }
 
     /**
-     * Saves the QValue matrix to a file in the data directory.
+     * Saves the changes made this round to the journal in the data directory.
+     * Once the journal has grown to a quarter of the snapshot's size, it is
+     * compacted by writing a new snapshot instead. This keeps the data files
+     * inside Robocode's 200KB data quota.
+     * A snapshot is also taken while the last one is still being written,
+     * as the journal on disk doesn't belong to the new snapshot yet.
      */
     private void save(){
+        if(useTileCoding)
+        {
+            saveTiles();
+            return;
+        }
+        if(useCompactTable)
+        {
+            saveCompact();
+            return;
+        }
 
-        PrintStream printStream = null;
+        File saveFile = getDataFile("QValues.data");
+        File journalFile = getDataFile("QValues.journal");
 
-        try{
-            printStream = new PrintStream(new RobocodeFileOutputStream(getDataFile("QValues.data")));
-            // Load the epsilon value first.
-            printStream.println(epsilon);
-            for(int x = 0; x < battleFieldXStateCount; x++)
-            {
-                for(int y = 0; y < battleFieldYStateCount; y++)
-                {
-                    for(int enemyBearing = 0; enemyBearing < enemyBearingStateCount; enemyBearing++)
-                    {
-                        for(int enemyDistance = 0; enemyDistance < enemyDistanceStateCount; enemyDistance++)
-                        {
-                            for(int action = 0; action < actionCount; action++)
-                            {
-                                // Store the values rounded to 1 dp.
-                                String token = Double.toString(round(QValues[x][y][enemyBearing][enemyDistance][action], 2));
-                                printStream.println(token);
-                            }
-                        }
-                    }
-                }
-            }
+        if(!hasBinarySnapshot || getSnapshotWriter().isBusy() || !journalFile.exists() || journalFile.length() * 4 >= saveFile.length())
+        {
+            saveSnapshot();
+            return;
+        }
+
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(journalFile.getPath(), true))
+        {
+            journal.flush(epsilon, outputStream);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the opponent's table, if one was picked this round, and goes
+     * back to the generic table so it's saved with its own epsilon value.
+     */
+    private void saveOpponentTable(){
+        if(opponentName == null) return;
+
+        opponentTables.save(opponentName, epsilon);
+        epsilon = genericEpsilon;
+        qFunction = genericTable;
+        experienceReplay = genericReplay;
+        planner = genericPlanner;
+        opponentName = null;
+    }
+
+    /**
+     * Copies the QValue matrix to be saved in the background, along
+     * with a new empty journal for it.
+     */
+    private void saveSnapshot(){
+        getSnapshotWriter().submit(qTable, epsilon);
+        hasBinarySnapshot = true;
+        journal.discard();
+    }
+
+    /**
+     * Creates the snapshot writer on the first round of a battle.
+     * Its thread is started from the robot's thread, so it is in the
+     * robot's thread group and allowed to write to the data directory.
+     * @return The snapshot writer.
+     */
+    private SnapshotWriter getSnapshotWriter(){
+        if(snapshotWriter == null)
+        {
+            snapshotWriter = new SnapshotWriter(qTable, getDataFile("QValues.data"), getDataFile("QValues.journal"), RobocodeFileOutputStream::new);
+        }
+        return snapshotWriter;
+    }
+
+    /**
+     * Waits for any snapshot still being written, then writes any still waiting.
+     */
+    private static void flushSnapshotWriter(){
+        if(snapshotWriter != null)
+        {
+            snapshotWriter.flush();
+        }
+    }
+
+    /**
+     * Saves the whole compact table to its own file, e.g. QValues.sparse.
+     * These files are small, so aren't journalled.
+     */
+    private void saveCompact(){
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(getDataFile(compactTable.getFileName())))
+        {
+            compactTable.write(epsilon, outputStream);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the tile coding weights to QValues.tiles.
+     */
+    private void saveTiles(){
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(getDataFile("QValues.tiles")))
+        {
+            LinearQFunctionFile.write(linearFunction, epsilon, outputStream);
         }
         catch(IOException e)
         {
             e.printStackTrace();
         }
-        finally {
-            if(printStream != null)
+    }
+
+    /**
+     * @return An empty QTable with the state layout's dimensions.
+     */
+    private static QTable createQTable(){
+        QTable table = new QTable(stateLayout.getStateDimensions(), actionCount);
+        table.setLayout(stateLayout.getDescription());
+        table.setSeed(randomSeed);
+        return table;
+    }
+
+    /**
+     * @return An empty table of the table.backend kind, with the state layout's states.
+     */
+    private static PersistentQFunction createCompactTable(){
+        return QFunctions.create(tableBackend, stateLayout.getStateDimensions(), actionCount, stateLayout.getDescription());
+    }
+
+    /**
+     * @return The settings in QLearningRobot.properties, empty if it can't be read.
+     */
+    private static Properties loadProperties(){
+        Properties robotProperties = new Properties();
+        try(InputStream inputStream = QLearningRobot.class.getResourceAsStream("QLearningRobot.properties"))
+        {
+            if(inputStream != null)
             {
-                printStream.flush();
-                printStream.close();
+                robotProperties.load(inputStream);
             }
         }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+        return robotProperties;
     }
 
     /**
-     * Loads the QMatrix save file from the data directory.
+     * Reads the state layout from the robot's properties.
+     * @return The layout, or the default if the file doesn't define a valid one.
      */
-    private void load(){
+    private static StateLayout loadStateLayout(){
+        try
+        {
+            return StateLayout.fromProperties(properties);
+        }
+        catch(IllegalArgumentException e)
+        {
+            e.printStackTrace();
+            System.out.println("Invalid state layout in QLearningRobot.properties, using the default: " + e.getMessage());
+            return StateLayout.getDefault();
+        }
+    }
 
-        File saveFile = new File(getDataFile("QValues.data").toString());
-        int line =0;
+    /**
+     * Reads the tilings from the robot's properties.
+     * @return The tilings, or the default if the file doesn't define valid ones.
+     */
+    private static TileCoder loadTileCoder(){
+        try
+        {
+            return TileCoder.fromProperties(properties);
+        }
+        catch(IllegalArgumentException e)
+        {
+            e.printStackTrace();
+            System.out.println("Invalid tile coding in QLearningRobot.properties, using the default: " + e.getMessage());
+            return TileCoder.getDefault();
+        }
+    }
 
-        if(saveFile.exists() && !saveFile.isDirectory()) {
-            try {
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(getDataFile("QValues.data")));
-                // Load the epsilon value first.
-                epsilon = Float.parseFloat(bufferedReader.readLine());
-                for (int x = 0; x < battleFieldXStateCount; x++) {
-                    for (int y = 0; y < battleFieldYStateCount; y++) {
-                        for (int enemyBearing = 0; enemyBearing < enemyBearingStateCount; enemyBearing++) {
-                            for (int enemyDistance = 0; enemyDistance < enemyDistanceStateCount; enemyDistance++) {
-                                for (int action = 0; action < actionCount; action++) {
-                                    line++;
-                                    QValues[x][y][enemyBearing][enemyDistance][action] = (float)Double.parseDouble(bufferedReader.readLine());
-                                }
-                            }
-                        }
-                    }
-                }
-                bufferedReader.close();
-            }
-            catch(IOException e)
+    /**
+     * Reads lambda from the robot's properties.
+     * @return Lambda, or 0 for the one step update if it isn't set or isn't valid.
+     */
+    private static float loadLambda(){
+        try
+        {
+            float value = Float.parseFloat(properties.getProperty("learner.lambda", "0").trim());
+            if(value >= 0 && value <= 1) return value;
+            System.out.println("learner.lambda must be between 0 and 1, using the one step update.");
+        }
+        catch(NumberFormatException e)
+        {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The planning.budget setting, 0 if it isn't a whole number of at least 0.
+     */
+    private static long loadPlanningBudget(){
+        try
+        {
+            long value = Long.parseLong(properties.getProperty("planning.budget", "0").trim());
+            if(value >= 0) return value;
+            System.out.println("planning.budget must be at least 0, not planning.");
+        }
+        catch(NumberFormatException e)
+        {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The decision.ticks setting, 0 if it isn't a whole number of at least 0.
+     */
+    private static int loadDecisionTicks(){
+        try
+        {
+            int value = Integer.parseInt(properties.getProperty("decision.ticks", "0").trim());
+            if(value >= 0) return value;
+            System.out.println("decision.ticks must be at least 0, deciding each time ahead(100) finishes.");
+        }
+        catch(NumberFormatException e)
+        {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The team.interval setting, 0 if it isn't a whole number of at least 0.
+     */
+    private static int loadTeamInterval(){
+        try
+        {
+            int value = Integer.parseInt(properties.getProperty("team.interval", "0").trim());
+            if(value >= 0) return value;
+            System.out.println("team.interval must be at least 0, learning alone.");
+        }
+        catch(NumberFormatException e)
+        {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The decisions.log setting, 0 if it isn't a whole number of at least 0.
+     */
+    private static int loadDecisionLogCapacity(){
+        try
+        {
+            int value = Integer.parseInt(properties.getProperty("decisions.log", "0").trim());
+            if(value >= 0) return value;
+            System.out.println("decisions.log must be at least 0, not logging decisions.");
+        }
+        catch(NumberFormatException e)
+        {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * @return The random.seed setting, a new seed if it isn't set or isn't a whole number.
+     */
+    private static long loadRandomSeed(){
+        String value = properties.getProperty("random.seed", "").trim();
+        if(!value.isEmpty())
+        {
+            try
             {
-                e.printStackTrace();
-                System.out.println("IOException at line" + line);
+                return Long.parseLong(value);
             }
-            catch(NullPointerException e)
+            catch(NumberFormatException e)
             {
                 e.printStackTrace();
-                System.out.println("Null pointer at line: "+ line);
             }
         }
+        return new SplittableRandom().nextLong();
     }
 
     /**
-     * Normalises the QValues.
+     * @return The table.backend setting, dense if it isn't one of the backends.
      */
-    private void normaliseQValues(){
-        float highestValue = 0;
+    private static String loadTableBackend(){
+        String value = properties.getProperty("table.backend", QFunctions.DENSE).trim();
+        switch(value)
+        {
+            case QFunctions.DENSE:
+            case QFunctions.SPARSE:
+            case QFunctions.INT8:
+            case QFunctions.FLOAT16:
+                return value;
+            default:
+                System.out.println("Unknown table.backend " + value + ", using dense.");
+                return QFunctions.DENSE;
+        }
+    }
 
-        for(int xState = 0; xState < battleFieldXStateCount; xState++)
+    /**
+     * Loads the QMatrix save file from the data directory, then replays
+     * the journal of changes made since it was saved.
+     * Files in the old text format are imported, and will be
+     * replaced by the binary format the next time the robot saves.
+     */
+    void load(){
+        if(useTileCoding)
         {
-            for(int yState =0; yState < battleFieldYStateCount; yState++)
-            {
-                for(int enemyBearingState = 0; enemyBearingState < enemyBearingStateCount; enemyBearingState++)
+            loadTiles();
+            return;
+        }
+        if(useCompactTable)
+        {
+            loadCompact();
+            return;
+        }
+
+        File saveFile = getDataFile("QValues.data");
+        File journalFile = getDataFile("QValues.journal");
+
+        // Finish writing last round's snapshot before reading it.
+        flushSnapshotWriter();
+
+        if(saveFile.exists() && !saveFile.isDirectory() && saveFile.length() > 0) {
+            try {
+                epsilon = QTableFile.load(saveFile, qTable);
+                hasBinarySnapshot = QTableFile.isBinary(saveFile);
+
+                if(hasBinarySnapshot)
                 {
-                    for(int enemyDistanceState = 0; enemyDistanceState < enemyDistanceStateCount; enemyDistanceState++)
+                    int snapshotChecksum = QTableFile.readChecksum(saveFile);
+                    if(journalFile.exists())
                     {
-                        for(int action = 0; action < actionCount; action++)
-                        {
-                            float absValue = (float)Math.abs(QValues[xState][yState][enemyBearingState][enemyDistanceState][action]);
-                            if(absValue > highestValue)
-                            {
-                                highestValue = absValue;
-                            }
-                        }
+                        epsilon = QTableJournal.replay(journalFile, snapshotChecksum, qTable, epsilon);
                     }
                 }
             }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                System.out.println("Unable to load QValues.data: " + e.getMessage());
+                hasBinarySnapshot = false;
+            }
         }
-        for(int xState = 0; xState < battleFieldXStateCount; xState++)
+
+        // Everything loaded is already on disk.
+        journal.discard();
+    }
+
+    /**
+     * Loads the compact table from its own file, e.g. QValues.sparse.
+     * If there isn't one yet, it's imported from QValues.data if that has
+     * the same shape. It's streamed in, as a sparse layout may be too
+     * large to hold as a dense table.
+     */
+    private void loadCompact(){
+        File compactFile = getDataFile(compactTable.getFileName());
+        File saveFile = getDataFile("QValues.data");
+        File loadedFile = compactFile;
+
+        try
         {
-            for(int yState =0; yState < battleFieldYStateCount; yState++)
+            if(compactFile.exists() && compactFile.length() > 0)
             {
-                for(int enemyBearingState = 0; enemyBearingState < enemyBearingStateCount; enemyBearingState++)
-                {
-                    for(int enemyDistanceState = 0; enemyDistanceState < enemyDistanceStateCount; enemyDistanceState++)
-                    {
-                        for(int action = 0; action < actionCount; action++)
-                        {
-                            QValues[xState][yState][enemyBearingState][enemyDistanceState][action] =  (QValues[xState][yState][enemyBearingState][enemyDistanceState][action] / highestValue)*99.99f;
-                        }
-                    }
-                }
+                epsilon = compactTable.read(compactFile);
+            }
+            else if(saveFile.exists() && saveFile.length() > 0)
+            {
+                loadedFile = saveFile;
+                epsilon = QFunctions.importDense(saveFile, compactTable);
             }
         }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.out.println("Unable to load " + loadedFile.getName() + ": " + e.getMessage());
+            compactTable.clear();
+        }
     }
 
     /**
-     * Takes an angle relative to the heading of the robot and
-     * returns an absolute value.
-     * @param degrees Angle relative to the robot.
-     * @return Absolute value, 180 is south.
+     * Loads the tile coding weights from QValues.tiles, if there is one.
      */
-    private double getAbsoluteBearing(double degrees){
-        double absoluteBearing = this.getHeading() + degrees;
+    private void loadTiles(){
+        File tilesFile = getDataFile("QValues.tiles");
+        if(!tilesFile.exists() || tilesFile.length() == 0) return;
 
-        if( absoluteBearing > 360 ) absoluteBearing -= 360;
-        if( absoluteBearing < 0 ) absoluteBearing += 360;
+        try
+        {
+            epsilon = LinearQFunctionFile.read(tilesFile, linearFunction);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.out.println("Unable to load QValues.tiles: " + e.getMessage());
+            linearFunction.clear();
+        }
+    }
 
-        return absoluteBearing;
+    /**
+     * Creates the generic table's replay buffer on the first round of a
+     * battle, filled from QValues.replay if it's being persisted.
+     */
+    private void loadReplay(){
+        // The replay buffer holds table states, which tile coding doesn't have.
+        if(genericReplay != null || useTileCoding) return;
+
+        genericReplay = new ExperienceReplay(replayCapacity, battleRandom.split());
+        readReplay(genericReplay, getDataFile("QValues.replay"));
     }
 
     /**
-     * Normalises a bearing
-     * This function is provided by third party.
-     * @see <a href="http://mark.random-article.com/weber/java/robocode/lesson4.html">Function Source</a>
-     * @param degrees Bearing to be normalised
-     * @return Angle normalised between -180 and 180 degrees.
+     * Creates the opponent's replay buffer the first time it's seen in a
+     * battle, filled from the QValues.replay in its folder.
+     * @return The opponent's replay buffer.
      */
-    private static double normaliseBearing(double degrees){
-        while (degrees >=  180) degrees -= 360;
-        while (degrees < -180) degrees += 360;
-        return degrees;
+    private ExperienceReplay getOpponentReplay(){
+        ExperienceReplay opponentReplay = opponentReplays.get(opponentName);
+        if(opponentReplay == null)
+        {
+            opponentReplay = new ExperienceReplay(replayCapacity, battleRandom.split());
+            readReplay(opponentReplay, getOpponentReplayFile(opponentName));
+            opponentReplays.put(opponentName, opponentReplay);
+        }
+        return opponentReplay;
     }
 
     /**
-     * Returns a random integer between the bounds (inclusive).
-     * @param min Lowerbound, the smallest value that can be returned.
-     * @param max Upperbound, the largest value that can be returned.
-     * @return Random bounded integer.
+     * Fills a replay buffer from a file, if it's being persisted. A file
+     * saved with another state layout is discarded.
      */
-    private static int getRandomInteger(int min, int max){
-        return new Random().nextInt((max - min) + 1) + min;
+    private void readReplay(ExperienceReplay replay, File replayFile){
+        if(!persistReplay || !replayFile.exists() || replayFile.length() == 0) return;
+
+        try
+        {
+            replay.read(replayFile, qFunction, stateLayout.getDescription());
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            System.out.println("Unable to load " + replayFile.getPath() + ", starting with an empty buffer: " + e.getMessage());
+        }
     }
 
     /**
-     * Returns a random float between the bounds (inclusive).
-     * @param min Lowerbound, the smallest value that can be returned.
-     * @param max Upperbound, the largest value that can be returned.
-     * @return Random bounded float.
+     * Saves the replay buffers to QValues.replay, and each opponent's to
+     * its folder, if they're being persisted.
+     */
+    private void saveReplay(){
+        if(!persistReplay || genericReplay == null) return;
+
+        writeReplay(genericReplay, getDataFile("QValues.replay"));
+        for(Map.Entry<String, ExperienceReplay> entry : opponentReplays.entrySet())
+        {
+            writeReplay(entry.getValue(), getOpponentReplayFile(entry.getKey()));
+        }
+    }
+
+    private void writeReplay(ExperienceReplay replay, File replayFile){
+        File directory = replayFile.getParentFile();
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            System.out.println("Unable to create " + directory.getPath());
+            return;
+        }
+
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(replayFile))
+        {
+            replay.write(outputStream, stateLayout.getDescription());
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The opponent's QValues.replay, in the folder beside its table.
      */
-    private static float getRandomFloat(float min, float max){
-        return new Random().nextFloat() * (max - min) + min;
+    private File getOpponentReplayFile(String name){
+        return new File(new File(getDataDirectory(), name), "QValues.replay");
     }
 
     /**
-     * Rounds a double to the specified number of places.
-     * @param value Value to be rounded.
-     * @param places Number of places to round to.
-     * @return Rounded value.
+     * Writes the battle's metrics to Metrics.csv, if they're being written.
      */
-    private static double round(double value, int places){
-        if (places < 0) throw new IllegalArgumentException();
+    private void saveMetrics(){
+        if(!writeMetrics) return;
 
-        BigDecimal bd = new BigDecimal(value);
-        bd = bd.setScale(places, RoundingMode.HALF_UP);
-        return bd.doubleValue();
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(getDataFile("Metrics.csv")))
+        {
+            metrics.write(outputStream);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Quantises the enemy enemyDistance.
-     * @param enemyDistance
-     * @return quantised integer.
+     * Writes the decision log to Decisions.csv, if one is being kept.
      */
-    private static int getQuantisedEnemyDistance(double enemyDistance){
-        if( enemyDistance < 80 ) return 0;
-        if( enemyDistance < 300 ) return 1;
-        if( enemyDistance < 600 ) return 2;
-        return 3;
+    private void saveDecisionLog(){
+        if(decisionLog == null) return;
+        if(decisionLog.getDropped() > 0)
+        {
+            System.out.println(decisionLog.getDropped() + " decisions after the first " + decisionLog.size() + " weren't logged.");
+        }
+
+        try(RobocodeFileOutputStream outputStream = new RobocodeFileOutputStream(getDataFile("Decisions.csv")))
+        {
+            decisionLog.write(outputStream);
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Quantise a bearing.
-     * @param bearing Bearing to be quantised.
-     * @param totalQuantisedValues How many quantised values there are.
-     * @return Quantised value between 0 and <code>totalQuantisedValues - 1</code>.
+     * Normalises the QValues.
      */
-    private static int getQuantisedBearing(double bearing, int totalQuantisedValues){
-        double stateSize = 360 / totalQuantisedValues;
-        bearing += stateSize / 2;
+    void normaliseQValues(){
+        // The approximated values are sums of weights, so aren't limited like the table's.
+        if(useTileCoding) return;
+        if(qFunction != genericTable)
+        {
+            // An opponent's table is saved whole, so has no journal.
+            qFunction.normalise(99.99f);
+        }
+        if(useCompactTable)
+        {
+            compactTable.normalise(99.99f);
+            return;
+        }
 
-        while (bearing >= 360) bearing -= 360;
-        while (bearing < 0) bearing += 360;
+        float factor = qTable.normalise(99.99f);
+        if(factor != 1)
+        {
+            journal.recordScale(factor);
+        }
+    }
 
-        return (int)Math.floor( bearing / stateSize );
+    /**
+     * Takes an angle relative to the heading of the robot and
+     * returns an absolute value.
+     * @param degrees Angle relative to the robot.
+     * @return Absolute value, 180 is south.
+     */
+    private double getAbsoluteBearing(double degrees){
+        double absoluteBearing = this.getHeading() + degrees;
+
+        if( absoluteBearing > 360 ) absoluteBearing -= 360;
+        if( absoluteBearing < 0 ) absoluteBearing += 360;
+
+        return absoluteBearing;
     }
 
     /**
-     * Takes a one dimensional position and returns a quantised value.
-     * @param position Robot's X or Y position on the battlefield.
-     * @param battleFieldSize Battlefield X or Y size.
-     * @param totalQuantisedValues The amount of quantised values.
-     * @return <code>int</code> between 0 and <code>totalQuantisedValues - 1</code>
+     * Returns a random integer between the bounds (inclusive).
+     * @param min Lowerbound, the smallest value that can be returned.
+     * @param max Upperbound, the largest value that can be returned.
+     * @return Random bounded integer.
+     */
+    private int getRandomInteger(int min, int max){
+        return random.nextInt(min, max + 1);
+    }
+
+    /**
+     * Returns a random float between the bounds, never max itself.
+     * @param min Lowerbound, the smallest value that can be returned.
+     * @param max Upperbound, only ever approached.
+     * @return Random bounded float.
      */
-    private static int getQuantisedBattlefieldPosition(double position, double battleFieldSize, int totalQuantisedValues ){
-        double gridXSize = battleFieldSize / totalQuantisedValues;
-        return (int)Math.floor( position / gridXSize );
+    private float getRandomFloat(float min, float max){
+        // The top 24 bits, as Random.nextFloat() uses, so it's never rounded up to max.
+        return (random.nextInt() >>> 8) * 0x1.0p-24f * (max - min) + min;
     }
 }